@@ -0,0 +1,19 @@
+package org.gmagnotta.log;
+
+import java.util.List;
+
+/**
+ * A {@link LogEventWriter} that can receive events in batches. The spooler
+ * hands it every event that is queued at once instead of one by one
+ */
+public interface BatchLogEventWriter extends LogEventWriter {
+
+	/**
+	 * Perform log of a batch of events. The list is reused by the caller and
+	 * must not be retained
+	 * 
+	 * @param logEvents
+	 */
+	public void write(List<LogEvent> logEvents);
+
+}
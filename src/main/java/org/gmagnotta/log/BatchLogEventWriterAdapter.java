@@ -0,0 +1,68 @@
+package org.gmagnotta.log;
+
+import java.util.List;
+
+/**
+ * Adapter that allows a plain {@link LogEventWriter} to receive batches
+ */
+public class BatchLogEventWriterAdapter implements BatchLogEventWriter {
+
+	private final LogEventWriter logEventWriter;
+
+	/**
+	 * Creates a new adapter
+	 * 
+	 * @param logEventWriter
+	 *            the writer to adapt
+	 */
+	public BatchLogEventWriterAdapter(LogEventWriter logEventWriter) {
+
+		this.logEventWriter = logEventWriter;
+
+	}
+
+	/**
+	 * Get a batch writer for given writer
+	 * 
+	 * @param logEventWriter
+	 *            a writer
+	 * @return the writer itself if it already supports batches or an adapter
+	 */
+	public static BatchLogEventWriter adapt(LogEventWriter logEventWriter) {
+
+		if (logEventWriter instanceof BatchLogEventWriter) {
+
+			return (BatchLogEventWriter) logEventWriter;
+
+		}
+
+		return new BatchLogEventWriterAdapter(logEventWriter);
+
+	}
+
+	@Override
+	public void write(List<LogEvent> logEvents) {
+
+		for (int i = 0; i < logEvents.size(); i++) {
+
+			logEventWriter.write(logEvents.get(i));
+
+		}
+
+	}
+
+	@Override
+	public void write(LogEvent log) {
+
+		logEventWriter.write(log);
+
+	}
+
+	@Override
+	public void stop() {
+
+		logEventWriter.stop();
+
+	}
+
+}
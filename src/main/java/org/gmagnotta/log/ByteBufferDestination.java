@@ -0,0 +1,27 @@
+package org.gmagnotta.log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Target of a {@link Layout}. It owns a reusable {@link ByteBuffer} that is
+ * filled by the layout and drained when it is full
+ */
+public interface ByteBufferDestination {
+
+	/**
+	 * Get the buffer to fill
+	 *
+	 * @return the buffer, ready to be written
+	 */
+	public ByteBuffer getByteBuffer();
+
+	/**
+	 * Write out the content of given buffer, that is full
+	 *
+	 * @param buf
+	 *            the buffer returned by {@link #getByteBuffer()}
+	 * @return the buffer to continue with, ready to be written
+	 */
+	public ByteBuffer drain(ByteBuffer buf);
+
+}
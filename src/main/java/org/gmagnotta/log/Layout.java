@@ -0,0 +1,21 @@
+package org.gmagnotta.log;
+
+/**
+ * Interface that allow to implement Strategy design Pattern for turning a
+ * {@link LogEvent} into bytes.<br>
+ * Layouts keep reusable buffers, so an instance must be used by one writer at
+ * a time
+ */
+public interface Layout {
+
+	/**
+	 * Encode given log event into the buffer of given destination
+	 *
+	 * @param logEvent
+	 *            the log event to encode
+	 * @param destination
+	 *            the destination that receives the bytes
+	 */
+	public void encode(LogEvent logEvent, ByteBufferDestination destination);
+
+}
@@ -1,22 +1,39 @@
 package org.gmagnotta.log;
 
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
- * Represents an information that should be logged
+ * Represents an information that should be logged.<br>
+ * In garbage-free mode instances are pooled and refilled in place, so writers
+ * must not retain a LogEvent after their write method returns
  */
 public class LogEvent {
 
 	public static final String UNSET_MARKER = "UNSET";
 
+	private static final AtomicIntegerFieldUpdater<LogEvent> REFERENCES = AtomicIntegerFieldUpdater
+			.newUpdater(LogEvent.class, "references");
+
 	private LogLevel logLevel;
 	private String sourceClass;
-	private Date date;
+	private long timeMillis;
 	private String threadName;
 	private String message;
+	private String messagePattern;
+	private Object[] messageParameters;
 	private Throwable throwable;
 	private String marker;
-	
+	private LogEventPool pool;
+	private volatile int references;
+
+	/**
+	 * Create new empty log, to be filled with
+	 * {@link #set(String, LogLevel, String, long, String, String, String, Object[], Throwable)}
+	 */
+	LogEvent() {
+	}
+
 	/**
 	 * Create new log
 	 * 
@@ -73,7 +90,7 @@ public class LogEvent {
 		this.marker = marker;
 		this.logLevel = logLevel;
 		this.sourceClass = sourceClass;
-		this.date = date;
+		this.timeMillis = date.getTime();
 		this.threadName = threadName;
 		this.message = message;
 	}
@@ -143,12 +160,44 @@ public class LogEvent {
 		this.marker = marker;
 		this.logLevel = logLevel;
 		this.sourceClass = sourceClass;
-		this.date = date;
+		this.timeMillis = date.getTime();
 		this.threadName = threadName;
 		this.message = message;
 		this.throwable = throwable;
 	}
 
+	/**
+	 * Create new log whose message is rendered only when it is requested
+	 *
+	 * @param marker
+	 *            marker string to attach to this event
+	 * @param logLevel
+	 *            log level
+	 * @param sourceClass
+	 *            source class
+	 * @param date
+	 *            log date
+	 * @param threadName
+	 *            the name of thread who generate the log
+	 * @param messagePattern
+	 *            log message pattern, see {@link MessageFormatter}
+	 * @param messageParameters
+	 *            the arguments of the pattern
+	 * @param throwable
+	 *            throwable to log
+	 */
+	public LogEvent(String marker, LogLevel logLevel, String sourceClass, Date date, String threadName,
+			String messagePattern, Object[] messageParameters, Throwable throwable) {
+		this.marker = marker;
+		this.logLevel = logLevel;
+		this.sourceClass = sourceClass;
+		this.timeMillis = date.getTime();
+		this.threadName = threadName;
+		this.messagePattern = messagePattern;
+		this.messageParameters = messageParameters;
+		this.throwable = throwable;
+	}
+
 	/**
 	 * Get marker if present
 	 *
@@ -179,10 +228,19 @@ public class LogEvent {
 	/**
 	 * Get log date
 	 * 
-	 * @return log date
+	 * @return a new Date holding the log time
 	 */
 	public Date getDate() {
-		return date;
+		return new Date(timeMillis);
+	}
+
+	/**
+	 * Get log time
+	 * 
+	 * @return log time as milliseconds since epoch
+	 */
+	public long getTimeMillis() {
+		return timeMillis;
 	}
 
 	/**
@@ -195,14 +253,52 @@ public class LogEvent {
 	}
 
 	/**
-	 * Get log message
+	 * Get log message. If the event was created from a pattern, the message is
+	 * rendered on the first invocation
 	 * 
 	 * @return log message
 	 */
 	public String getMessage() {
+		if (message == null && messagePattern != null) {
+			message = MessageFormatter.format(messagePattern, messageParameters);
+		}
 		return message;
 	}
 
+	/**
+	 * Append log message to given buffer. If the message was not rendered yet
+	 * it is formatted straight into the buffer, without creating a String
+	 *
+	 * @param buf
+	 *            the target buffer
+	 */
+	public void appendMessage(StringBuilder buf) {
+		if (message == null && messagePattern != null) {
+			MessageFormatter.formatTo(buf, messagePattern, messageParameters);
+		} else {
+			buf.append(message);
+		}
+	}
+
+	/**
+	 * Get log message pattern
+	 *
+	 * @return the pattern or null if the event was created with a plain message
+	 */
+	public String getMessagePattern() {
+		return messagePattern;
+	}
+
+	/**
+	 * Get the arguments of the log message pattern
+	 * 
+	 * @return the arguments or null if the event was created with a plain
+	 *         message
+	 */
+	public Object[] getMessageParameters() {
+		return messageParameters;
+	}
+
 	/**
 	 * Get throwable to log
 	 * 
@@ -212,4 +308,80 @@ public class LogEvent {
 		return throwable;
 	}
 
+	/**
+	 * Fill this log in place
+	 *
+	 * @param marker
+	 *            marker string to attach to this event
+	 * @param logLevel
+	 *            log level
+	 * @param sourceClass
+	 *            source class
+	 * @param timeMillis
+	 *            log time as milliseconds since epoch
+	 * @param threadName
+	 *            the name of thread who generate the log
+	 * @param message
+	 *            log message or null if a pattern is given
+	 * @param messagePattern
+	 *            log message pattern or null
+	 * @param messageParameters
+	 *            the arguments of the pattern
+	 * @param throwable
+	 *            throwable to log
+	 */
+	void set(String marker, LogLevel logLevel, String sourceClass, long timeMillis, String threadName,
+			String message, String messagePattern, Object[] messageParameters, Throwable throwable) {
+		this.marker = marker;
+		this.logLevel = logLevel;
+		this.sourceClass = sourceClass;
+		this.timeMillis = timeMillis;
+		this.threadName = threadName;
+		this.message = message;
+		this.messagePattern = messagePattern;
+		this.messageParameters = messageParameters;
+		this.throwable = throwable;
+	}
+
+	/**
+	 * Bind this log to given pool, it will be given back to it when the last
+	 * reference is released
+	 *
+	 * @param pool
+	 *            the owner pool
+	 */
+	void setPool(LogEventPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Set the number of references of a pooled log
+	 *
+	 * @param references
+	 *            the number of references
+	 */
+	void setReferences(int references) {
+		REFERENCES.lazySet(this, references);
+	}
+
+	/**
+	 * Add a reference to a pooled log. Has no effect on logs outside a pool
+	 */
+	void retain() {
+		if (pool != null) {
+			REFERENCES.incrementAndGet(this);
+		}
+	}
+
+	/**
+	 * Release a reference to a pooled log, giving it back to the pool when no
+	 * reference is left. Has no effect on logs outside a pool
+	 */
+	void release() {
+		if (pool != null && REFERENCES.decrementAndGet(this) == 0) {
+			set(null, null, null, 0, null, null, null, null, null);
+			pool.recycle(this);
+		}
+	}
+
 }
@@ -1,7 +1,10 @@
 package org.gmagnotta.log;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * Collects all LogEvent in the system and spools them to registered
@@ -9,10 +12,28 @@ import java.util.concurrent.CopyOnWriteArrayList;
  */
 public class LogEventCollector {
 
+	/**
+	 * System property holding the capacity of the spooler queue
+	 */
+	public static final String QUEUE_CAPACITY_PROPERTY = "org.gmagnotta.log.queueCapacity";
+
+	/**
+	 * System property holding the name of the {@link WaitStrategy} used by the
+	 * spooler queue
+	 */
+	public static final String WAIT_STRATEGY_PROPERTY = "org.gmagnotta.log.waitStrategy";
+
+	/**
+	 * System property that enables the garbage-free mode at startup
+	 */
+	public static final String GARBAGE_FREE_PROPERTY = "org.gmagnotta.log.garbageFree";
+
 	private static LogEventCollector INSTANCE;
 
-	private LogLevel logLevelThreshold;
-	private List<LogEventFilter> filters;
+	private volatile LogLevel logLevelThreshold;
+	private LoggerRegistry loggerRegistry;
+	private volatile LogEventFilter[] filters;
+	private volatile LogEventPool logEventPool;
 	private LogEventSpooler logEventSpooler;
 	private Thread writer;
 
@@ -32,9 +53,81 @@ public class LogEventCollector {
 	 */
 	private LogEventCollector() {
 
-		this.logEventSpooler = new LogEventSpooler();
+		this.logEventSpooler = new LogEventSpooler(getQueueCapacity(), getWaitStrategy());
 		this.logLevelThreshold = LogLevel.INFO;
-		this.filters = new CopyOnWriteArrayList<>();
+		this.loggerRegistry = new LoggerRegistry(logLevelThreshold);
+		this.filters = new LogEventFilter[0];
+
+		setGarbageFree(Boolean.getBoolean(GARBAGE_FREE_PROPERTY));
+
+	}
+
+	/**
+	 * Get the capacity of the spooler queue from the system property. Invalid
+	 * values fall back to the default, so a typo can't disable logging
+	 * 
+	 * @return the capacity
+	 */
+	static int getQueueCapacity() {
+
+		Integer capacity = Integer.getInteger(QUEUE_CAPACITY_PROPERTY);
+
+		if (capacity == null) {
+
+			String value = System.getProperty(QUEUE_CAPACITY_PROPERTY);
+
+			if (value != null) {
+
+				System.err.println("Invalid " + QUEUE_CAPACITY_PROPERTY + " " + value + ", using "
+						+ LogEventSpooler.DEFAULT_CAPACITY);
+
+			}
+
+			return LogEventSpooler.DEFAULT_CAPACITY;
+
+		}
+
+		// The ring buffer needs a power of two
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+
+			System.err.println("Invalid " + QUEUE_CAPACITY_PROPERTY + " " + capacity
+					+ ", must be a power of two, using " + LogEventSpooler.DEFAULT_CAPACITY);
+
+			return LogEventSpooler.DEFAULT_CAPACITY;
+
+		}
+
+		return capacity;
+
+	}
+
+	/**
+	 * Get the wait strategy of the spooler queue from the system property.
+	 * Unknown names fall back to the default, so a typo can't disable logging
+	 * 
+	 * @return the wait strategy
+	 */
+	static WaitStrategy getWaitStrategy() {
+
+		String value = System.getProperty(WAIT_STRATEGY_PROPERTY);
+
+		if (value == null) {
+
+			return WaitStrategy.BLOCK;
+
+		}
+
+		try {
+
+			return WaitStrategy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+
+		} catch (IllegalArgumentException ex) {
+
+			System.err.println("Invalid " + WAIT_STRATEGY_PROPERTY + " " + value + ", using " + WaitStrategy.BLOCK);
+
+			return WaitStrategy.BLOCK;
+
+		}
 
 	}
 
@@ -48,8 +141,8 @@ public class LogEventCollector {
 		// Fetch logLevel from event
 		LogLevel logLevel = logEvent.getLogLevel();
 
-		// If level is higher than threshold add to queue
-		if (logLevel.isHigherOrEqual(getLogLevelThreshold())) {
+		// If level is higher than threshold of source class add to queue
+		if (logLevel.isHigherOrEqual(loggerRegistry.getEffectiveLogLevel(logEvent.getSourceClass()))) {
 
 			// if filters can accept the log event
 			if (canAccept(logEvent)) {
@@ -73,9 +166,12 @@ public class LogEventCollector {
 
 		boolean canAccept = true;
 
-		for (LogEventFilter filter : filters) {
+		// Iterating the array doesn't allocate
+		LogEventFilter[] currentFilters = filters;
+
+		for (int i = 0; i < currentFilters.length; i++) {
 
-			if (!filter.accept(logEvent)) {
+			if (!currentFilters[i].accept(logEvent)) {
 
 				canAccept = false;
 				break;
@@ -89,29 +185,211 @@ public class LogEventCollector {
 	}
 
 	/**
-	 * Get log level threshold
+	 * Get log level threshold. This is a plain volatile read, so it's cheap
+	 * enough to be invoked on every log call
 	 * 
 	 * @return log level threshold
 	 */
-	public synchronized LogLevel getLogLevelThreshold() {
+	public LogLevel getLogLevelThreshold() {
 
 		return logLevelThreshold;
 
 	}
 
 	/**
-	 * Set log level threshold
+	 * Set log level threshold. This is the level of every logger without a
+	 * specific level
 	 * 
 	 * @param logLevelThreshold
 	 */
 	public synchronized void setLogLevelThreshold(LogLevel logLevelThreshold) {
 
+		if (logLevelThreshold == null) {
+			throw new IllegalArgumentException("Log level threshold can't be null");
+		}
+
 		this.logLevelThreshold = logLevelThreshold;
 
+		loggerRegistry.setRootLogLevel(logLevelThreshold);
+
 	}
 
 	/**
-	 * Add given logger strategy
+	 * Set the level of given logger or package and all the loggers below it,
+	 * e.g. <i>org.foo</i> applies to <i>org.foo.Bar</i>
+	 * 
+	 * @param name
+	 *            logger or package name
+	 * @param logLevel
+	 *            the level or null to remove it
+	 */
+	public void setLogLevel(String name, LogLevel logLevel) {
+
+		loggerRegistry.setLogLevel(name, logLevel);
+
+	}
+
+	/**
+	 * Get the level set for given logger or package
+	 * 
+	 * @param name
+	 *            logger or package name
+	 * @return the level or null if it was not set
+	 */
+	public LogLevel getLogLevel(String name) {
+
+		return loggerRegistry.getLogLevel(name);
+
+	}
+
+	/**
+	 * Get all the levels set for loggers and packages
+	 * 
+	 * @return map of logger or package name and level
+	 */
+	public Map<String, LogLevel> getLogLevels() {
+
+		return loggerRegistry.getLogLevels();
+
+	}
+
+	/**
+	 * Remove all the levels set for loggers and packages
+	 */
+	public void clearLogLevels() {
+
+		loggerRegistry.clearLogLevels();
+
+	}
+
+	/**
+	 * Get the level applied to given logger name
+	 * 
+	 * @param name
+	 *            logger name
+	 * @return the effective level
+	 */
+	public LogLevel getEffectiveLogLevel(String name) {
+
+		return loggerRegistry.getEffectiveLogLevel(name);
+
+	}
+
+	/**
+	 * Enable or disable the garbage-free mode. In garbage-free mode LogEvents
+	 * are taken from a preallocated pool, filled in place by {@link Logger}
+	 * and given back to the pool once every writer wrote them, so steady-state
+	 * logging does not allocate.<br>
+	 * Writers must not retain LogEvents after writing them, and thread names
+	 * are cached per thread.
+	 * 
+	 * @param garbageFree
+	 *            true to enable the garbage-free mode
+	 */
+	public synchronized void setGarbageFree(boolean garbageFree) {
+
+		if (garbageFree && logEventPool == null) {
+
+			logEventPool = new LogEventPool(logEventSpooler.getCapacity());
+
+		} else if (!garbageFree) {
+
+			logEventPool = null;
+
+		}
+
+	}
+
+	/**
+	 * Check if the garbage-free mode is enabled
+	 * 
+	 * @return true if LogEvents are pooled
+	 */
+	public boolean isGarbageFree() {
+
+		return logEventPool != null;
+
+	}
+
+	/**
+	 * Get the pool of LogEvents
+	 * 
+	 * @return the pool or null if garbage-free mode is disabled
+	 */
+	LogEventPool getLogEventPool() {
+
+		return logEventPool;
+
+	}
+
+	/**
+	 * Get the registry of loggers
+	 * 
+	 * @return the logger registry
+	 */
+	LoggerRegistry getLoggerRegistry() {
+
+		return loggerRegistry;
+
+	}
+
+	/**
+	 * Get the policy applied when the spooler queue is full
+	 * 
+	 * @return the overflow policy
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+
+		return logEventSpooler.getOverflowPolicy();
+
+	}
+
+	/**
+	 * Set the policy applied when the spooler queue is full
+	 * 
+	 * @param overflowPolicy
+	 *            the overflow policy
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+
+		logEventSpooler.setOverflowPolicy(overflowPolicy);
+
+	}
+
+	/**
+	 * Get the number of LogEvents discarded because the spooler queue or the
+	 * queue of a logger strategy was full
+	 * 
+	 * @return number of dropped events
+	 */
+	public long getDroppedLogEventCount() {
+
+		return logEventSpooler.getDroppedLogEventCount();
+
+	}
+
+	/**
+	 * Get the number of LogEvents discarded because the queue of the given
+	 * logger strategy was full
+	 * 
+	 * @param logEventWriter
+	 *            logger strategy
+	 * @return number of dropped events
+	 */
+	public long getDroppedLogEventCount(LogEventWriter logEventWriter) {
+
+		return logEventSpooler.getDroppedLogEventCount(logEventWriter);
+
+	}
+
+	/**
+	 * Add given logger strategy. The logger strategy gets its own queue of
+	 * default capacity, with the policy of
+	 * {@link LogEventWriter#getOverflowPolicy()}. By default the dispatcher
+	 * waits for room when the queue is full, so no event is lost but a slow
+	 * logger strategy can delay the others. Use
+	 * {@link #addLogEventWriter(LogEventWriter, int, OverflowPolicy)} with a
+	 * lossy policy to isolate it
 	 * 
 	 * @param logEventWriter
 	 *            logger strategy
@@ -122,6 +400,22 @@ public class LogEventCollector {
 
 	}
 
+	/**
+	 * Add given logger strategy
+	 * 
+	 * @param logEventWriter
+	 *            logger strategy
+	 * @param capacity
+	 *            the size of the logger strategy queue, must be a power of two
+	 * @param overflowPolicy
+	 *            the policy applied when the logger strategy queue is full
+	 */
+	public void addLogEventWriter(LogEventWriter logEventWriter, int capacity, OverflowPolicy overflowPolicy) {
+
+		logEventSpooler.addLogEventWriter(logEventWriter, capacity, overflowPolicy);
+
+	}
+
 	/**
 	 * Remove given logger strategy
 	 * 
@@ -161,7 +455,10 @@ public class LogEventCollector {
 	 */
 	public synchronized void addLogEventFilter(LogEventFilter logEventFilter) {
 
-		filters.add(logEventFilter);
+		LogEventFilter[] newFilters = Arrays.copyOf(filters, filters.length + 1);
+		newFilters[filters.length] = logEventFilter;
+
+		filters = newFilters;
 
 	}
 
@@ -172,7 +469,10 @@ public class LogEventCollector {
 	 */
 	public synchronized void removeLogEventFilter(LogEventFilter logEventFilter) {
 
-		filters.remove(logEventFilter);
+		List<LogEventFilter> newFilters = new ArrayList<>(Arrays.asList(filters));
+		newFilters.remove(logEventFilter);
+
+		filters = newFilters.toArray(new LogEventFilter[newFilters.size()]);
 
 	}
 
@@ -181,7 +481,7 @@ public class LogEventCollector {
 	 */
 	public synchronized void clearLogEventFilters() {
 
-		filters.clear();
+		filters = new LogEventFilter[0];
 
 	}
 
@@ -212,5 +512,15 @@ public class LogEventCollector {
 		// interrupt writer
 		writer.interrupt();
 
+		try {
+
+			writer.join();
+
+		} catch (InterruptedException ex) {
+
+			Thread.currentThread().interrupt();
+
+		}
+
 	}
 }
@@ -0,0 +1,102 @@
+package org.gmagnotta.log;
+
+/**
+ * Pool of preallocated, mutable {@link LogEvent}s used in garbage-free mode.<br>
+ * Free events are kept in a {@link LogEventRingBuffer}, so acquiring and
+ * recycling an event does not allocate and does not lock. If the pool runs
+ * dry a new event is allocated rather than blocking the caller; it joins the
+ * pool when released if there is room for it
+ */
+class LogEventPool {
+
+	private final LogEventRingBuffer freeLogEvents;
+
+	/**
+	 * Creates a new pool
+	 *
+	 * @param size
+	 *            the number of events, must be a power of two
+	 */
+	LogEventPool(int size) {
+
+		this.freeLogEvents = new LogEventRingBuffer(size, WaitStrategy.BUSY_SPIN);
+
+		for (int i = 0; i < size; i++) {
+
+			freeLogEvents.offer(newLogEvent());
+
+		}
+
+	}
+
+	/**
+	 * Get an empty event holding one reference
+	 *
+	 * @return the event
+	 */
+	LogEvent acquire() {
+
+		LogEvent logEvent = freeLogEvents.poll();
+
+		if (logEvent == null) {
+
+			logEvent = newLogEvent();
+
+		}
+
+		logEvent.setReferences(1);
+
+		return logEvent;
+
+	}
+
+	/**
+	 * Give back an event with no references left
+	 *
+	 * @param logEvent
+	 *            the event
+	 */
+	void recycle(LogEvent logEvent) {
+
+		freeLogEvents.offer(logEvent);
+
+	}
+
+	/**
+	 * Get the number of events ready to be acquired
+	 *
+	 * @return number of free events
+	 */
+	int getFreeLogEventCount() {
+
+		return freeLogEvents.size();
+
+	}
+
+	/**
+	 * Get the number of events the pool can hold
+	 *
+	 * @return the capacity
+	 */
+	int getCapacity() {
+
+		return freeLogEvents.capacity();
+
+	}
+
+	/**
+	 * Create a new event owned by this pool
+	 *
+	 * @return the event
+	 */
+	private LogEvent newLogEvent() {
+
+		LogEvent logEvent = new LogEvent();
+
+		logEvent.setPool(this);
+
+		return logEvent;
+
+	}
+
+}
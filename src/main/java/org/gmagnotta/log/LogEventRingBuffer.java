@@ -0,0 +1,384 @@
+package org.gmagnotta.log;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded queue of {@link LogEvent} backed by a preallocated array whose size
+ * is a power of two.<br>
+ * Every slot carries a sequence number: producers claim a position with a CAS
+ * on the tail cursor and publish the event by advancing the slot sequence, so
+ * enqueueing does not allocate and does not lock. The consumer side works the
+ * same way on the head cursor.<br>
+ * With a signalled {@link WaitStrategy} threads that waited long enough block
+ * on a monitor and are notified when a slot is published or freed.
+ */
+public class LogEventRingBuffer {
+
+	private final int mask;
+	private final LogEvent[] events;
+	private final AtomicLongArray sequences;
+	private final AtomicLong head;
+	private final AtomicLong tail;
+	private final WaitStrategy waitStrategy;
+	private final boolean signalled;
+	private final Object signal;
+	private volatile int waiters;
+
+	/**
+	 * Create new ring buffer
+	 *
+	 * @param capacity
+	 *            the number of slots, must be a power of two
+	 * @param waitStrategy
+	 *            the strategy used when waiting on an empty or full buffer
+	 */
+	public LogEventRingBuffer(int capacity, WaitStrategy waitStrategy) {
+
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+		}
+
+		if (waitStrategy == null) {
+			throw new IllegalArgumentException("Wait strategy can't be null");
+		}
+
+		this.mask = capacity - 1;
+		this.events = new LogEvent[capacity];
+		this.sequences = new AtomicLongArray(capacity);
+		this.head = new AtomicLong();
+		this.tail = new AtomicLong();
+		this.waitStrategy = waitStrategy;
+		this.signalled = waitStrategy.isSignalled();
+		this.signal = new Object();
+
+		for (int i = 0; i < capacity; i++) {
+
+			sequences.set(i, i);
+
+		}
+
+	}
+
+	/**
+	 * Add given LogEvent if there is a free slot
+	 *
+	 * @param logEvent
+	 *            the event to add
+	 * @return true if the event was added, false if the buffer is full
+	 */
+	public boolean offer(LogEvent logEvent) {
+
+		long position = tail.get();
+
+		while (true) {
+
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+
+			if (difference == 0) {
+
+				// Slot is free, try to claim it
+				if (tail.compareAndSet(position, position + 1)) {
+
+					events[index] = logEvent;
+
+					// Publish the event to the consumer
+					publish(index, position + 1);
+
+					return true;
+
+				}
+
+				position = tail.get();
+
+			} else if (difference < 0) {
+
+				// The consumer did not free this slot yet
+				return false;
+
+			} else {
+
+				// Another producer claimed this position
+				position = tail.get();
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Add given LogEvent waiting for a free slot if the buffer is full
+	 *
+	 * @param logEvent
+	 *            the event to add
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public void put(LogEvent logEvent) throws InterruptedException {
+
+		int counter = 0;
+
+		while (!offer(logEvent)) {
+
+			if (signalled && counter > WaitStrategy.BLOCK_AFTER) {
+
+				synchronized (signal) {
+
+					waiters++;
+
+					try {
+
+						// Check again once registered, a consumer may have
+						// freed a slot meanwhile
+						while (!offer(logEvent)) {
+
+							signal.wait();
+
+						}
+
+					} finally {
+
+						waiters--;
+
+					}
+
+				}
+
+				return;
+
+			}
+
+			counter = waitStrategy.idle(counter);
+
+		}
+
+	}
+
+	/**
+	 * Add given LogEvent, applying the given policy if the buffer is full
+	 *
+	 * @param logEvent
+	 *            the event to add
+	 * @param overflowPolicy
+	 *            the policy to apply if there is no free slot
+	 * @return the number of log events discarded
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public int add(LogEvent logEvent, OverflowPolicy overflowPolicy) throws InterruptedException {
+
+		if (offer(logEvent)) {
+
+			return 0;
+
+		}
+
+		return overflowPolicy.onOverflow(this, logEvent);
+
+	}
+
+	/**
+	 * Remove the oldest LogEvent
+	 *
+	 * @return the oldest event or null if the buffer is empty
+	 */
+	public LogEvent poll() {
+
+		long position = head.get();
+
+		while (true) {
+
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - (position + 1);
+
+			if (difference == 0) {
+
+				if (head.compareAndSet(position, position + 1)) {
+
+					LogEvent logEvent = events[index];
+					events[index] = null;
+
+					// Give the slot back to producers for the next lap
+					publish(index, position + mask + 1);
+
+					return logEvent;
+
+				}
+
+				position = head.get();
+
+			} else if (difference < 0) {
+
+				// Nothing published here yet
+				return null;
+
+			} else {
+
+				position = head.get();
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Remove the oldest LogEvent waiting for one to be available
+	 *
+	 * @return the oldest event
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public LogEvent take() throws InterruptedException {
+
+		int counter = 0;
+		LogEvent logEvent;
+
+		while ((logEvent = poll()) == null) {
+
+			if (signalled && counter > WaitStrategy.BLOCK_AFTER) {
+
+				synchronized (signal) {
+
+					waiters++;
+
+					try {
+
+						// Check again once registered, a producer may have
+						// published meanwhile
+						while ((logEvent = poll()) == null) {
+
+							signal.wait();
+
+						}
+
+					} finally {
+
+						waiters--;
+
+					}
+
+				}
+
+				return logEvent;
+
+			}
+
+			counter = waitStrategy.idle(counter);
+
+		}
+
+		return logEvent;
+
+	}
+
+	/**
+	 * Set the sequence of a slot, waking up blocked threads with a signalled
+	 * strategy
+	 *
+	 * @param index
+	 *            the slot
+	 * @param sequence
+	 *            the new sequence
+	 */
+	private void publish(int index, long sequence) {
+
+		if (!signalled) {
+
+			sequences.lazySet(index, sequence);
+
+			return;
+
+		}
+
+		// A volatile write, so either the waiter sees the slot or we see the
+		// waiter
+		sequences.set(index, sequence);
+
+		if (waiters > 0) {
+
+			synchronized (signal) {
+
+				signal.notifyAll();
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Move up to maxElements LogEvents in the given collection
+	 *
+	 * @param collection
+	 *            the target collection
+	 * @param maxElements
+	 *            max number of events to move
+	 * @return the number of events moved
+	 */
+	public int drainTo(Collection<? super LogEvent> collection, int maxElements) {
+
+		int count = 0;
+		LogEvent logEvent;
+
+		while (count < maxElements && (logEvent = poll()) != null) {
+
+			collection.add(logEvent);
+			count++;
+
+		}
+
+		return count;
+
+	}
+
+	/**
+	 * Get an estimate of the number of events in the buffer
+	 *
+	 * @return the number of events
+	 */
+	public int size() {
+
+		long size = tail.get() - head.get();
+
+		return (int) Math.max(0, Math.min(size, capacity()));
+
+	}
+
+	/**
+	 * Check if the buffer is empty
+	 *
+	 * @return true if there are no events in the buffer
+	 */
+	public boolean isEmpty() {
+
+		return size() == 0;
+
+	}
+
+	/**
+	 * Get the number of slots
+	 *
+	 * @return the capacity of the buffer
+	 */
+	public int capacity() {
+
+		return mask + 1;
+
+	}
+
+	/**
+	 * Get the strategy used when waiting on this buffer
+	 *
+	 * @return the wait strategy
+	 */
+	public WaitStrategy getWaitStrategy() {
+
+		return waitStrategy;
+
+	}
+
+}
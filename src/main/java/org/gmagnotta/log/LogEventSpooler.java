@@ -1,51 +1,195 @@
 package org.gmagnotta.log;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Spooler class that takes log events from the queue and send them to each
- * logger strategy
+ * Spooler class that takes log events from the queue and dispatches them to
+ * the lane of each logger strategy. Every lane has its own queue and thread,
+ * so a slow logger strategy can't stall the others
  */
 public class LogEventSpooler implements Runnable {
 
-	private BlockingQueue<LogEvent> logEventsQueue;
-	private List<LogEventWriter> writers;
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	private LogEventRingBuffer logEventsQueue;
+	private volatile OverflowPolicy overflowPolicy;
+	private final AtomicLong droppedLogEvents;
+	private volatile LogEventWriterLane[] lanes;
 	private final Object syncObject;
 
 	public LogEventSpooler() {
 
-		this.logEventsQueue = new LinkedBlockingQueue<>();
-		this.writers = new CopyOnWriteArrayList<>();
+		this(DEFAULT_CAPACITY, WaitStrategy.BLOCK);
+
+	}
+
+	/**
+	 * Creates a new spooler
+	 *
+	 * @param capacity
+	 *            the size of the queue, must be a power of two
+	 * @param waitStrategy
+	 *            the strategy used when the queue is empty or full
+	 */
+	public LogEventSpooler(int capacity, WaitStrategy waitStrategy) {
+
+		this.logEventsQueue = new LogEventRingBuffer(capacity, waitStrategy);
+		this.overflowPolicy = OverflowPolicy.block();
+		this.droppedLogEvents = new AtomicLong();
+		this.lanes = new LogEventWriterLane[0];
 		this.syncObject = new Object();
 
 	}
 
 	/**
-	 * Add a LogEvent to the queue
-	 * 
+	 * Add a LogEvent to the queue. If the queue is full the event is handled
+	 * by the {@link OverflowPolicy}
+	 *
 	 * @param logEvent
 	 */
 	public void addLogEvent(LogEvent logEvent) {
 
-		logEventsQueue.add(logEvent);
+		// The queue holds its own reference to pooled events
+		logEvent.retain();
+
+		try {
+
+			int dropped = logEventsQueue.add(logEvent, overflowPolicy);
+
+			if (dropped > 0) {
+
+				droppedLogEvents.addAndGet(dropped);
+
+			}
+
+		} catch (InterruptedException ex) {
+
+			// Restore interrupted status, the event is lost
+			logEvent.release();
+			droppedLogEvents.incrementAndGet();
+			Thread.currentThread().interrupt();
+
+		}
 
 	}
 
 	/**
-	 * Add given logger strategy
-	 * 
+	 * Get the policy applied when the queue is full
+	 *
+	 * @return the overflow policy
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+
+		return overflowPolicy;
+
+	}
+
+	/**
+	 * Set the policy applied when the queue is full
+	 *
+	 * @param overflowPolicy
+	 *            the overflow policy
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+
+		if (overflowPolicy == null) {
+			throw new IllegalArgumentException("Overflow policy can't be null");
+		}
+
+		this.overflowPolicy = overflowPolicy;
+
+	}
+
+	/**
+	 * Get the number of LogEvents discarded because the queue or the queue of
+	 * a logger strategy was full
+	 *
+	 * @return number of dropped events
+	 */
+	public long getDroppedLogEventCount() {
+
+		long dropped = droppedLogEvents.get();
+
+		for (LogEventWriterLane lane : lanes) {
+
+			dropped += lane.getDroppedLogEventCount();
+
+		}
+
+		return dropped;
+
+	}
+
+	/**
+	 * Get the number of LogEvents discarded because the queue of the given
+	 * logger strategy was full
+	 *
+	 * @param logEventWriter
+	 *            logger strategy
+	 * @return number of dropped events or 0 if the logger strategy is not
+	 *         registered
+	 */
+	public long getDroppedLogEventCount(LogEventWriter logEventWriter) {
+
+		LogEventWriterLane lane = getLane(logEventWriter);
+
+		return lane != null ? lane.getDroppedLogEventCount() : 0;
+
+	}
+
+	/**
+	 * Get the capacity of the queue
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+
+		return logEventsQueue.capacity();
+
+	}
+
+	/**
+	 * Add given logger strategy with a queue of default capacity and the
+	 * policy of {@link LogEventWriter#getOverflowPolicy()}. By default the
+	 * dispatcher waits for room when the queue is full, so no event is lost
+	 * but a slow logger strategy can delay the others. Logger strategies that
+	 * may stall, like the elasticsearch one, declare a lossy policy
+	 *
 	 * @param logEventWriter
 	 *            logger strategy
 	 */
 	public void addLogEventWriter(LogEventWriter logEventWriter) {
 
-		writers.add(logEventWriter);
+		addLogEventWriter(logEventWriter, DEFAULT_CAPACITY, logEventWriter.getOverflowPolicy());
+
+	}
+
+	/**
+	 * Add given logger strategy
+	 *
+	 * @param logEventWriter
+	 *            logger strategy
+	 * @param capacity
+	 *            the size of the logger strategy queue, must be a power of two
+	 * @param overflowPolicy
+	 *            the policy applied when the logger strategy queue is full
+	 */
+	public void addLogEventWriter(LogEventWriter logEventWriter, int capacity, OverflowPolicy overflowPolicy) {
+
+		LogEventWriterLane lane = new LogEventWriterLane(logEventWriter, capacity,
+				logEventsQueue.getWaitStrategy(), overflowPolicy);
 
 		synchronized (syncObject) {
 
+			LogEventWriterLane[] newLanes = Arrays.copyOf(lanes, lanes.length + 1);
+			newLanes[lanes.length] = lane;
+			lanes = newLanes;
+
+			lane.start();
+
 			syncObject.notify();
 
 		}
@@ -54,16 +198,30 @@ public class LogEventSpooler implements Runnable {
 
 	/**
 	 * Remove given logger strategy
-	 * 
+	 *
 	 * @param logEventWriter
 	 *            logger strategy
 	 */
 	public void removeLogEventWriter(LogEventWriter logEventWriter) {
 
-		writers.remove(logEventWriter);
-
 		synchronized (syncObject) {
 
+			List<LogEventWriterLane> newLanes = new ArrayList<>(Arrays.asList(lanes));
+
+			for (LogEventWriterLane lane : lanes) {
+
+				if (lane.getLogEventWriter() == logEventWriter) {
+
+					newLanes.remove(lane);
+
+					lane.stop();
+
+				}
+
+			}
+
+			lanes = newLanes.toArray(new LogEventWriterLane[newLanes.size()]);
+
 			syncObject.notify();
 
 		}
@@ -75,10 +233,16 @@ public class LogEventSpooler implements Runnable {
 	 */
 	public void clearLogEventWriters() {
 
-		writers.clear();
-
 		synchronized (syncObject) {
 
+			for (LogEventWriterLane lane : lanes) {
+
+				lane.stop();
+
+			}
+
+			lanes = new LogEventWriterLane[0];
+
 			syncObject.notify();
 
 		}
@@ -87,26 +251,97 @@ public class LogEventSpooler implements Runnable {
 
 	/**
 	 * Get all logger strategies
-	 * 
+	 *
 	 * @return list of {@link LogEventWriter}
 	 */
 	public List<LogEventWriter> getLogEventWriters() {
 
+		List<LogEventWriter> writers = new ArrayList<>();
+
+		for (LogEventWriterLane lane : lanes) {
+
+			writers.add(lane.getLogEventWriter());
+
+		}
+
 		return writers;
 
 	}
 
+	/**
+	 * Get the lane of given logger strategy
+	 *
+	 * @param logEventWriter
+	 *            logger strategy
+	 * @return the lane or null if the logger strategy is not registered
+	 */
+	private LogEventWriterLane getLane(LogEventWriter logEventWriter) {
+
+		for (LogEventWriterLane lane : lanes) {
+
+			if (lane.getLogEventWriter() == logEventWriter) {
+
+				return lane;
+
+			}
+
+		}
+
+		return null;
+
+	}
+
+	/**
+	 * Add given event to the queue of each logger strategy
+	 *
+	 * @param logEvent
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting for room
+	 */
+	private void dispatch(LogEvent logEvent) throws InterruptedException {
+
+		// Plain loop, iterating the array doesn't allocate
+		LogEventWriterLane[] currentLanes = lanes;
+
+		for (int i = 0; i < currentLanes.length; i++) {
+
+			// Each lane holds its own reference to pooled events
+			logEvent.retain();
+
+			try {
+
+				currentLanes[i].addLogEvent(logEvent);
+
+			} catch (InterruptedException ex) {
+
+				logEvent.release();
+
+				throw ex;
+
+			}
+
+		}
+
+	}
+
 	@Override
 	public void run() {
 
-		while (!Thread.currentThread().isInterrupted()) {
+		// Lanes are stopped when we leave, restart them if we were restarted
+		for (LogEventWriterLane lane : lanes) {
 
-			try {
+			lane.start();
+
+		}
+
+		try {
+
+			while (!Thread.currentThread().isInterrupted()) {
 
 				// This prevents to loose logEvent if there is no writer listening
 				synchronized (syncObject) {
 
-					while (writers.isEmpty()) {
+					while (lanes.length == 0) {
 
 						syncObject.wait();
 
@@ -116,26 +351,28 @@ public class LogEventSpooler implements Runnable {
 
 				LogEvent logEvent = logEventsQueue.take();
 
-				// Get next logger strategy
-				for (LogEventWriter loggerStrategy : writers) {
+				try {
 
-					// write event logger strategy
-					loggerStrategy.write(logEvent);
+					dispatch(logEvent);
 
-					// if we are interrupted we avoid to cycle to all
-					// strategies...
-					if (Thread.currentThread().isInterrupted()) {
+				} finally {
 
-						throw new InterruptedException();
-
-					}
+					// Release the reference held by the queue
+					logEvent.release();
 
 				}
 
-			} catch (InterruptedException ex) {
+			}
+
+		} catch (InterruptedException ex) {
+
+			// We were interrupted!
+
+		} finally {
+
+			for (LogEventWriterLane lane : lanes) {
 
-				// We were interrupted!
-				break;
+				lane.stop();
 
 			}
 
@@ -143,4 +380,4 @@ public class LogEventSpooler implements Runnable {
 
 	}
 
-}
\ No newline at end of file
+}
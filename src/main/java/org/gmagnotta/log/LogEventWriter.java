@@ -16,4 +16,16 @@ public interface LogEventWriter {
 	 * Stop logger strategy
 	 */
 	public void stop();
+
+	/**
+	 * Get the policy applied when the queue of this logger strategy is full,
+	 * when it is added without one. Logger strategies that may stall for long,
+	 * e.g. on a remote service, should return a lossy policy so they can't
+	 * delay the others
+	 *
+	 * @return the policy, by default the caller waits so no event is lost
+	 */
+	public default OverflowPolicy getOverflowPolicy() {
+		return OverflowPolicy.block();
+	}
 }
@@ -0,0 +1,225 @@
+package org.gmagnotta.log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatch lane of a single {@link LogEventWriter}: a dedicated queue and a
+ * dedicated thread, so a slow writer can only delay its own events.<br>
+ * Events are drained from the queue in batches and handed to the writer as a
+ * {@link BatchLogEventWriter}
+ */
+class LogEventWriterLane implements Runnable {
+
+	static final int MAX_BATCH_SIZE = 256;
+
+	private final LogEventWriter logEventWriter;
+	private final BatchLogEventWriter batchLogEventWriter;
+	private final List<LogEvent> batch;
+	private final LogEventRingBuffer logEventsQueue;
+	private final OverflowPolicy overflowPolicy;
+	private final AtomicLong droppedLogEvents;
+	private volatile boolean stopped;
+	private Thread thread;
+
+	/**
+	 * Creates a new lane
+	 *
+	 * @param logEventWriter
+	 *            the writer fed by this lane
+	 * @param capacity
+	 *            the size of the queue, must be a power of two
+	 * @param waitStrategy
+	 *            the strategy used when the queue is empty or full
+	 * @param overflowPolicy
+	 *            the policy applied when the queue is full
+	 */
+	LogEventWriterLane(LogEventWriter logEventWriter, int capacity, WaitStrategy waitStrategy,
+			OverflowPolicy overflowPolicy) {
+
+		if (overflowPolicy == null) {
+			throw new IllegalArgumentException("Overflow policy can't be null");
+		}
+
+		this.logEventWriter = logEventWriter;
+		this.batchLogEventWriter = BatchLogEventWriterAdapter.adapt(logEventWriter);
+		this.batch = new ArrayList<>(MAX_BATCH_SIZE);
+		this.logEventsQueue = new LogEventRingBuffer(capacity, waitStrategy);
+		this.overflowPolicy = overflowPolicy;
+		this.droppedLogEvents = new AtomicLong();
+
+	}
+
+	/**
+	 * Get the writer fed by this lane
+	 *
+	 * @return the writer
+	 */
+	LogEventWriter getLogEventWriter() {
+
+		return logEventWriter;
+
+	}
+
+	/**
+	 * Get the number of LogEvents discarded because the queue was full
+	 *
+	 * @return number of dropped events
+	 */
+	long getDroppedLogEventCount() {
+
+		return droppedLogEvents.get();
+
+	}
+
+	/**
+	 * Add a LogEvent to the queue of this lane
+	 *
+	 * @param logEvent
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting for room
+	 */
+	void addLogEvent(LogEvent logEvent) throws InterruptedException {
+
+		if (stopped) {
+
+			// Removed meanwhile, nobody takes events anymore
+			logEvent.release();
+
+			return;
+
+		}
+
+		int dropped = logEventsQueue.add(logEvent, overflowPolicy);
+
+		if (dropped > 0) {
+
+			droppedLogEvents.addAndGet(dropped);
+
+		}
+
+		// Stopped while adding, the thread may have already left
+		if (stopped) {
+
+			discard();
+
+		}
+
+	}
+
+	/**
+	 * Start the thread of this lane if it is not running
+	 */
+	synchronized void start() {
+
+		stopped = false;
+
+		if (thread == null || !thread.isAlive()) {
+
+			thread = new Thread(this, "LogEventWriterLane-" + logEventWriter.getClass().getSimpleName());
+
+			thread.start();
+
+		}
+
+	}
+
+	/**
+	 * Stop the thread of this lane
+	 */
+	synchronized void stop() {
+
+		stopped = true;
+
+		if (thread != null && thread.isAlive()) {
+
+			thread.interrupt();
+
+		} else {
+
+			// No thread to write them, give pooled events back
+			discard();
+
+		}
+
+	}
+
+	/**
+	 * Remove the events left in the queue without writing them
+	 */
+	private void discard() {
+
+		LogEvent logEvent;
+
+		while ((logEvent = logEventsQueue.poll()) != null) {
+
+			logEvent.release();
+
+		}
+
+	}
+
+	@Override
+	public void run() {
+
+		// The stopped flag also covers writers that swallow interrupts
+		while (!stopped && !Thread.currentThread().isInterrupted()) {
+
+			try {
+
+				// Wait for the first event, then take what is already queued
+				batch.add(logEventsQueue.take());
+
+				logEventsQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+				writeBatch();
+
+			} catch (InterruptedException ex) {
+
+				// We were interrupted!
+				break;
+
+			}
+
+		}
+
+		// Write what is still queued before leaving
+		while (logEventsQueue.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+
+			writeBatch();
+
+		}
+
+	}
+
+	/**
+	 * Write current batch protecting the lane from writer failures
+	 */
+	private void writeBatch() {
+
+		try {
+
+			batchLogEventWriter.write(batch);
+
+		} catch (Throwable ex) {
+
+			// Errors too, a dead lane would stall a blocking dispatcher
+			ex.printStackTrace();
+
+		} finally {
+
+			// Give pooled events back once written
+			for (int i = 0; i < batch.size(); i++) {
+
+				batch.get(i).release();
+
+			}
+
+			batch.clear();
+
+		}
+
+	}
+
+}
@@ -1,16 +1,36 @@
 package org.gmagnotta.log;
 
-import java.util.Date;
+import java.util.function.Supplier;
 
 /**
- * This class is used to log messages.
+ * This class is used to log messages.<br>
+ * Parameterized messages like <code>debug("value {} of {}", value, name)</code>
+ * are rendered by the writers only for events that pass the threshold. Since
+ * rendering is asynchronous, arguments should not be modified after the call.
+ * A trailing {@link Throwable} argument is logged as throwable. Markers are
+ * typed, so <code>debug("value {}", name)</code> is always a parameterized
+ * message.
  */
 public class Logger {
 	
 	private String sourceClass;
+	private volatile LogLevel effectiveLogLevel;
 	
 	private static final LogEventCollector LOG_EVENT_COLLECTOR = LogEventCollector.getInstance();
 
+	/**
+	 * Thread names cached for the garbage-free mode, since getting the name
+	 * may allocate
+	 */
+	private static final ThreadLocal<String> THREAD_NAME = new ThreadLocal<String>() {
+
+		@Override
+		protected String initialValue() {
+			return Thread.currentThread().getName();
+		}
+
+	};
+
 	/**
 	 * Get logger for given source class
 	 * 
@@ -20,14 +40,13 @@ public class Logger {
 	 */
 	public static Logger getLogger(Class<?> sourceClass) {
 
-		Logger logger = new Logger(sourceClass);
-
-		return logger;
+		return getLogger(sourceClass.getName());
 
 	}
 
 	/**
-	 * Get logger for given name class
+	 * Get logger for given name class. The same instance is returned for the
+	 * same name
 	 * 
 	 * @param name
 	 *            name of class
@@ -35,7 +54,7 @@ public class Logger {
 	 */
 	public static Logger getLogger(String name) {
 
-		Logger logger = new Logger(name);
+		Logger logger = LOG_EVENT_COLLECTOR.getLoggerRegistry().getLogger(name);
 
 		return logger;
 
@@ -43,22 +62,35 @@ public class Logger {
 
 	/**
 	 * Create new logger for given source class
-	 * 
-	 * @param sourceClass
+	 *
+	 * @param name
 	 *            source class
+	 * @param effectiveLogLevel
+	 *            the level of this logger
+	 */
+	Logger(String name, LogLevel effectiveLogLevel) {
+		this.sourceClass = name;
+		this.effectiveLogLevel = effectiveLogLevel;
+	}
+
+	/**
+	 * Get the level of this logger, as computed by the
+	 * {@link LogEventCollector} configuration
+	 * 
+	 * @return the effective log level
 	 */
-	private Logger(Class<?> sourceClass) {
-		this(sourceClass.getName());
+	public LogLevel getEffectiveLogLevel() {
+		return effectiveLogLevel;
 	}
 
 	/**
-	 * Create new logger for given source class
-	 *
-	 * @param name
-	 *            source class
+	 * Set the level of this logger
+	 * 
+	 * @param effectiveLogLevel
+	 *            the effective log level
 	 */
-	private Logger(String name) {
-		this.sourceClass = name;
+	void setEffectiveLogLevel(LogLevel effectiveLogLevel) {
+		this.effectiveLogLevel = effectiveLogLevel;
 	}
 
 	/**
@@ -70,6 +102,62 @@ public class Logger {
 		return sourceClass;
 	}
 
+	/**
+	 * Check if trace level is enabled
+	 * 
+	 * @return true if trace events are logged
+	 */
+	public boolean isTraceEnabled() {
+		return isEnabled(LogLevel.TRACE);
+	}
+
+	/**
+	 * Check if debug level is enabled
+	 * 
+	 * @return true if debug events are logged
+	 */
+	public boolean isDebugEnabled() {
+		return isEnabled(LogLevel.DEBUG);
+	}
+
+	/**
+	 * Check if info level is enabled
+	 * 
+	 * @return true if info events are logged
+	 */
+	public boolean isInfoEnabled() {
+		return isEnabled(LogLevel.INFO);
+	}
+
+	/**
+	 * Check if warning level is enabled
+	 * 
+	 * @return true if warning events are logged
+	 */
+	public boolean isWarningEnabled() {
+		return isEnabled(LogLevel.WARNING);
+	}
+
+	/**
+	 * Check if error level is enabled
+	 * 
+	 * @return true if error events are logged
+	 */
+	public boolean isErrorEnabled() {
+		return isEnabled(LogLevel.ERROR);
+	}
+
+	/**
+	 * Check if given level is enabled
+	 * 
+	 * @param logLevel
+	 *            log level
+	 * @return true if events of given level are logged
+	 */
+	public boolean isEnabled(LogLevel logLevel) {
+		return logLevel.compareTo(effectiveLogLevel) >= 0;
+	}
+
 	/**
 	 * Log as trace level
 	 * 
@@ -85,8 +173,8 @@ public class Logger {
 	 * @param marker the marker to attach
 	 * @param message message to log
 	 */
-	public void trace(String marker, String message) {
-		log(marker, LogLevel.TRACE, message);
+	public void trace(Marker marker, String message) {
+		log(marker.getName(), LogLevel.TRACE, message);
 	}
 
 	/**
@@ -103,10 +191,48 @@ public class Logger {
 	 * 
 	 * @param message message to log
 	 */
-	public void trace(String marker, String message, Throwable throwable) {
-		log(marker, LogLevel.TRACE, message, throwable);
+	public void trace(Marker marker, String message, Throwable throwable) {
+		log(marker.getName(), LogLevel.TRACE, message, throwable);
 	}
 	
+	/**
+	 * Log as trace level a parameterized message. The message is rendered
+	 * only if the event is not discarded
+	 * 
+	 * @param pattern
+	 *            message pattern, see {@link MessageFormatter}
+	 * @param arguments
+	 *            arguments of the pattern. If the last one is a
+	 *            {@link Throwable} it is also logged as throwable
+	 */
+	public void trace(String pattern, Object... arguments) {
+		logFormatted(LogEvent.UNSET_MARKER, LogLevel.TRACE, pattern, arguments);
+	}
+
+	/**
+	 * Log as trace level a message created by the given supplier, only if the
+	 * level is enabled
+	 * 
+	 * @param messageSupplier
+	 *            supplier of the message to log
+	 */
+	public void trace(Supplier<String> messageSupplier) {
+		log(LogEvent.UNSET_MARKER, LogLevel.TRACE, messageSupplier);
+	}
+
+	/**
+	 * Log as trace level attaching a marker a message created by the given
+	 * supplier, only if the level is enabled
+	 * 
+	 * @param marker
+	 *            the marker to attach
+	 * @param messageSupplier
+	 *            supplier of the message to log
+	 */
+	public void trace(Marker marker, Supplier<String> messageSupplier) {
+		log(marker.getName(), LogLevel.TRACE, messageSupplier);
+	}
+
 	/**
 	 * Log as debug level
 	 * 
@@ -123,8 +249,8 @@ public class Logger {
 	 * @param message
 	 *            message to log
 	 */
-	public void debug(String marker, String message) {
-		log(marker, LogLevel.DEBUG, message);
+	public void debug(Marker marker, String message) {
+		log(marker.getName(), LogLevel.DEBUG, message);
 	}
 	
 	/**
@@ -143,8 +269,46 @@ public class Logger {
 	 * @param message
 	 *            message to log
 	 */
-	public void debug(String marker, String message, Throwable throwable) {
-		log(marker, LogLevel.DEBUG, message, throwable);
+	public void debug(Marker marker, String message, Throwable throwable) {
+		log(marker.getName(), LogLevel.DEBUG, message, throwable);
+	}
+
+	/**
+	 * Log as debug level a parameterized message. The message is rendered
+	 * only if the event is not discarded
+	 * 
+	 * @param pattern
+	 *            message pattern, see {@link MessageFormatter}
+	 * @param arguments
+	 *            arguments of the pattern. If the last one is a
+	 *            {@link Throwable} it is also logged as throwable
+	 */
+	public void debug(String pattern, Object... arguments) {
+		logFormatted(LogEvent.UNSET_MARKER, LogLevel.DEBUG, pattern, arguments);
+	}
+
+	/**
+	 * Log as debug level a message created by the given supplier, only if the
+	 * level is enabled
+	 * 
+	 * @param messageSupplier
+	 *            supplier of the message to log
+	 */
+	public void debug(Supplier<String> messageSupplier) {
+		log(LogEvent.UNSET_MARKER, LogLevel.DEBUG, messageSupplier);
+	}
+
+	/**
+	 * Log as debug level attaching a marker a message created by the given
+	 * supplier, only if the level is enabled
+	 * 
+	 * @param marker
+	 *            the marker to attach
+	 * @param messageSupplier
+	 *            supplier of the message to log
+	 */
+	public void debug(Marker marker, Supplier<String> messageSupplier) {
+		log(marker.getName(), LogLevel.DEBUG, messageSupplier);
 	}
 
 	/**
@@ -163,8 +327,8 @@ public class Logger {
 	 * @param message
 	 *            message to log
 	 */
-	public void info(String marker, String message) {
-		log(marker, LogLevel.INFO, message);
+	public void info(Marker marker, String message) {
+		log(marker.getName(), LogLevel.INFO, message);
 	}
 	
 	/**
@@ -183,8 +347,46 @@ public class Logger {
 	 * @param message
 	 *            message to log
 	 */
-	public void info(String marker, String message, Throwable throwable) {
-		log(marker, LogLevel.INFO, message, throwable);
+	public void info(Marker marker, String message, Throwable throwable) {
+		log(marker.getName(), LogLevel.INFO, message, throwable);
+	}
+
+	/**
+	 * Log as info level a parameterized message. The message is rendered
+	 * only if the event is not discarded
+	 * 
+	 * @param pattern
+	 *            message pattern, see {@link MessageFormatter}
+	 * @param arguments
+	 *            arguments of the pattern. If the last one is a
+	 *            {@link Throwable} it is also logged as throwable
+	 */
+	public void info(String pattern, Object... arguments) {
+		logFormatted(LogEvent.UNSET_MARKER, LogLevel.INFO, pattern, arguments);
+	}
+
+	/**
+	 * Log as info level a message created by the given supplier, only if the
+	 * level is enabled
+	 * 
+	 * @param messageSupplier
+	 *            supplier of the message to log
+	 */
+	public void info(Supplier<String> messageSupplier) {
+		log(LogEvent.UNSET_MARKER, LogLevel.INFO, messageSupplier);
+	}
+
+	/**
+	 * Log as info level attaching a marker a message created by the given
+	 * supplier, only if the level is enabled
+	 * 
+	 * @param marker
+	 *            the marker to attach
+	 * @param messageSupplier
+	 *            supplier of the message to log
+	 */
+	public void info(Marker marker, Supplier<String> messageSupplier) {
+		log(marker.getName(), LogLevel.INFO, messageSupplier);
 	}
 
 	/**
@@ -203,8 +405,8 @@ public class Logger {
 	 * @param message
 	 *            message to log
 	 */
-	public void warning(String marker, String message) {
-		log(marker, LogLevel.WARNING, message);
+	public void warning(Marker marker, String message) {
+		log(marker.getName(), LogLevel.WARNING, message);
 	}
 	
 	/**
@@ -223,10 +425,48 @@ public class Logger {
 	 * @param message
 	 *            message to log
 	 */
-	public void warning(String marker, String message, Throwable throwable) {
-		log(marker, LogLevel.WARNING, message, throwable);
+	public void warning(Marker marker, String message, Throwable throwable) {
+		log(marker.getName(), LogLevel.WARNING, message, throwable);
 	}
 	
+	/**
+	 * Log as warning level a parameterized message. The message is rendered
+	 * only if the event is not discarded
+	 * 
+	 * @param pattern
+	 *            message pattern, see {@link MessageFormatter}
+	 * @param arguments
+	 *            arguments of the pattern. If the last one is a
+	 *            {@link Throwable} it is also logged as throwable
+	 */
+	public void warning(String pattern, Object... arguments) {
+		logFormatted(LogEvent.UNSET_MARKER, LogLevel.WARNING, pattern, arguments);
+	}
+
+	/**
+	 * Log as warning level a message created by the given supplier, only if the
+	 * level is enabled
+	 * 
+	 * @param messageSupplier
+	 *            supplier of the message to log
+	 */
+	public void warning(Supplier<String> messageSupplier) {
+		log(LogEvent.UNSET_MARKER, LogLevel.WARNING, messageSupplier);
+	}
+
+	/**
+	 * Log as warning level attaching a marker a message created by the given
+	 * supplier, only if the level is enabled
+	 * 
+	 * @param marker
+	 *            the marker to attach
+	 * @param messageSupplier
+	 *            supplier of the message to log
+	 */
+	public void warning(Marker marker, Supplier<String> messageSupplier) {
+		log(marker.getName(), LogLevel.WARNING, messageSupplier);
+	}
+
 	/**
 	 * Log as error level
 	 * 
@@ -243,8 +483,8 @@ public class Logger {
 	 * @param message
 	 *            message to log
 	 */
-	public void error(String marker, String message) {
-		log(marker, LogLevel.ERROR, message);
+	public void error(Marker marker, String message) {
+		log(marker.getName(), LogLevel.ERROR, message);
 	}
 
 	/**
@@ -267,8 +507,46 @@ public class Logger {
 	 * @param throwable
 	 *            throwable to log
 	 */
-	public void error(String marker, String message, Throwable throwable) {
-		log(marker, LogLevel.ERROR, message, throwable);
+	public void error(Marker marker, String message, Throwable throwable) {
+		log(marker.getName(), LogLevel.ERROR, message, throwable);
+	}
+
+	/**
+	 * Log as error level a parameterized message. The message is rendered
+	 * only if the event is not discarded
+	 * 
+	 * @param pattern
+	 *            message pattern, see {@link MessageFormatter}
+	 * @param arguments
+	 *            arguments of the pattern. If the last one is a
+	 *            {@link Throwable} it is also logged as throwable
+	 */
+	public void error(String pattern, Object... arguments) {
+		logFormatted(LogEvent.UNSET_MARKER, LogLevel.ERROR, pattern, arguments);
+	}
+
+	/**
+	 * Log as error level a message created by the given supplier, only if the
+	 * level is enabled
+	 * 
+	 * @param messageSupplier
+	 *            supplier of the message to log
+	 */
+	public void error(Supplier<String> messageSupplier) {
+		log(LogEvent.UNSET_MARKER, LogLevel.ERROR, messageSupplier);
+	}
+
+	/**
+	 * Log as error level attaching a marker a message created by the given
+	 * supplier, only if the level is enabled
+	 * 
+	 * @param marker
+	 *            the marker to attach
+	 * @param messageSupplier
+	 *            supplier of the message to log
+	 */
+	public void error(Marker marker, Supplier<String> messageSupplier) {
+		log(marker.getName(), LogLevel.ERROR, messageSupplier);
 	}
 
 	/**
@@ -297,17 +575,15 @@ public class Logger {
 	 */
 	private void log(String marker, LogLevel logLevel, String message) {
 
-		// Get current thread name
-		Thread currentThread = Thread.currentThread();
+		// Discarded events don't pay for thread name, date and event
+		if (!isEnabled(logLevel)) {
 
-		// Get thread name
-		String threadName = currentThread.getName();
+			return;
 
-		// Create log
-		LogEvent log = new LogEvent(marker, logLevel, sourceClass, new Date(), threadName, message);
+		}
 
-		// Call logger connector
-		log(log);
+		// Create log and call logger connector
+		log(marker, logLevel, message, null, null, null);
 
 	}
 
@@ -341,28 +617,122 @@ public class Logger {
 	 */
 	private void log(String marker, LogLevel logLevel, String message, Throwable throwable) {
 
-		// Get current thread name
-		Thread currentThread = Thread.currentThread();
+		// Discarded events don't pay for thread name, date and event
+		if (!isEnabled(logLevel)) {
 
-		// Get thread name
-		String threadName = currentThread.getName();
+			return;
 
-		// Create log
-		LogEvent log = new LogEvent(marker, logLevel, sourceClass, new Date(), threadName, message, throwable);
+		}
 
-		// Call logger connector
-		log(log);
+		// Create log and call logger connector
+		log(marker, logLevel, message, null, null, throwable);
 
 	}
 	
 	/**
-	 * Perform log
+	 * Log a message created by given supplier
+	 * 
+	 * @param marker
+	 *            marker string
+	 * @param logLevel
+	 *            log level
+	 * @param messageSupplier
+	 *            supplier of the log message
+	 */
+	private void log(String marker, LogLevel logLevel, Supplier<String> messageSupplier) {
+
+		if (isEnabled(logLevel)) {
+
+			log(marker, logLevel, messageSupplier.get());
+
+		}
+
+	}
+
+	/**
+	 * Log a parameterized message, leaving the rendering to the writers
+	 * 
+	 * @param marker
+	 *            marker string
+	 * @param logLevel
+	 *            log level
+	 * @param pattern
+	 *            log message pattern
+	 * @param arguments
+	 *            arguments of the pattern
+	 */
+	private void logFormatted(String marker, LogLevel logLevel, String pattern, Object[] arguments) {
+
+		if (!isEnabled(logLevel)) {
+
+			return;
+
+		}
+
+		Throwable throwable = null;
+
+		// A trailing throwable is logged as such
+		if (arguments != null && arguments.length > 0 && arguments[arguments.length - 1] instanceof Throwable) {
+
+			throwable = (Throwable) arguments[arguments.length - 1];
+
+		}
+
+		// Create log and call logger connector
+		log(marker, logLevel, null, pattern, arguments, throwable);
+
+	}
+
+	/**
+	 * Perform log. In garbage-free mode the event is taken from the pool and
+	 * filled in place, otherwise a new one is created
 	 * 
-	 * @param log
+	 * @param marker
+	 *            marker string
+	 * @param logLevel
+	 *            log level
+	 * @param message
+	 *            log message or null if a pattern is given
+	 * @param pattern
+	 *            log message pattern or null
+	 * @param arguments
+	 *            arguments of the pattern
+	 * @param throwable
+	 *            throwable to log
 	 */
-	private void log(LogEvent log) {
+	private void log(String marker, LogLevel logLevel, String message, String pattern, Object[] arguments,
+			Throwable throwable) {
+
+		LogEventPool logEventPool = LOG_EVENT_COLLECTOR.getLogEventPool();
+
+		long timeMillis = System.currentTimeMillis();
+
+		if (logEventPool == null) {
+
+			LogEvent log = new LogEvent();
+			log.set(marker, logLevel, sourceClass, timeMillis, Thread.currentThread().getName(), message, pattern,
+					arguments, throwable);
+
+			LOG_EVENT_COLLECTOR.addLogEvent(log);
+
+			return;
+
+		}
+
+		LogEvent log = logEventPool.acquire();
+		log.set(marker, logLevel, sourceClass, timeMillis, THREAD_NAME.get(), message, pattern, arguments,
+				throwable);
+
+		try {
+
+			LOG_EVENT_COLLECTOR.addLogEvent(log);
+
+		} finally {
+
+			// Release our reference, the spooler holds its own
+			log.release();
 
-		LOG_EVENT_COLLECTOR.addLogEvent(log);
+		}
 
 	}
 	
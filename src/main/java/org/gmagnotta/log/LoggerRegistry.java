@@ -0,0 +1,226 @@
+package org.gmagnotta.log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry that hands out one {@link Logger} per name and keeps the effective
+ * level of every logger up to date.<br>
+ * Levels can be overridden for a name and all the names below it in the
+ * package hierarchy: an override for <i>org.foo</i> applies to
+ * <i>org.foo.Bar</i> but not to <i>org.foobar</i>. Effective levels are
+ * computed when the configuration changes and pushed to the loggers, so a
+ * log call never walks the hierarchy
+ */
+class LoggerRegistry {
+
+	private final ConcurrentHashMap<String, Logger> loggers;
+	private volatile Map<String, LogLevel> logLevels;
+	private volatile LogLevel rootLogLevel;
+
+	/**
+	 * Creates a new registry
+	 *
+	 * @param rootLogLevel
+	 *            the level of loggers without override
+	 */
+	LoggerRegistry(LogLevel rootLogLevel) {
+
+		this.loggers = new ConcurrentHashMap<>();
+		this.logLevels = Collections.emptyMap();
+		this.rootLogLevel = rootLogLevel;
+
+	}
+
+	/**
+	 * Get the logger with given name, creating it on first request
+	 *
+	 * @param name
+	 *            the logger name
+	 * @return the logger
+	 */
+	Logger getLogger(String name) {
+
+		Logger logger = loggers.get(name);
+
+		if (logger != null) {
+
+			return logger;
+
+		}
+
+		synchronized (this) {
+
+			logger = loggers.get(name);
+
+			if (logger == null) {
+
+				logger = new Logger(name, computeLogLevel(name));
+
+				loggers.put(name, logger);
+
+			}
+
+			return logger;
+
+		}
+
+	}
+
+	/**
+	 * Get the effective level for given name
+	 *
+	 * @param name
+	 *            the logger name, null for events without source class
+	 * @return the effective level
+	 */
+	LogLevel getEffectiveLogLevel(String name) {
+
+		// No overrides: every name has the root level, as events without name
+		if (logLevels.isEmpty() || name == null) {
+
+			return rootLogLevel;
+
+		}
+
+		Logger logger = loggers.get(name);
+
+		if (logger != null) {
+
+			return logger.getEffectiveLogLevel();
+
+		}
+
+		return computeLogLevel(name);
+
+	}
+
+	/**
+	 * Get the level configured for given name
+	 *
+	 * @param name
+	 *            the logger name
+	 * @return the level or null if the name has no override
+	 */
+	LogLevel getLogLevel(String name) {
+
+		return logLevels.get(name);
+
+	}
+
+	/**
+	 * Get all configured overrides
+	 *
+	 * @return map of name and level
+	 */
+	Map<String, LogLevel> getLogLevels() {
+
+		return logLevels;
+
+	}
+
+	/**
+	 * Set the level for given name and all the names below it
+	 *
+	 * @param name
+	 *            the logger or package name
+	 * @param logLevel
+	 *            the level or null to remove the override
+	 */
+	synchronized void setLogLevel(String name, LogLevel logLevel) {
+
+		Map<String, LogLevel> newLogLevels = new HashMap<>(logLevels);
+
+		if (logLevel == null) {
+
+			newLogLevels.remove(name);
+
+		} else {
+
+			newLogLevels.put(name, logLevel);
+
+		}
+
+		logLevels = Collections.unmodifiableMap(newLogLevels);
+
+		updateLoggers();
+
+	}
+
+	/**
+	 * Remove all overrides
+	 */
+	synchronized void clearLogLevels() {
+
+		logLevels = Collections.emptyMap();
+
+		updateLoggers();
+
+	}
+
+	/**
+	 * Set the level of loggers without override
+	 *
+	 * @param rootLogLevel
+	 *            the root level
+	 */
+	synchronized void setRootLogLevel(LogLevel rootLogLevel) {
+
+		this.rootLogLevel = rootLogLevel;
+
+		updateLoggers();
+
+	}
+
+	/**
+	 * Push the effective level to every logger
+	 */
+	private void updateLoggers() {
+
+		for (Logger logger : loggers.values()) {
+
+			logger.setEffectiveLogLevel(computeLogLevel(logger.getSourceClass()));
+
+		}
+
+	}
+
+	/**
+	 * Compute the level of given name walking up the package hierarchy
+	 *
+	 * @param name
+	 *            the logger name
+	 * @return the effective level
+	 */
+	private LogLevel computeLogLevel(String name) {
+
+		Map<String, LogLevel> currentLogLevels = logLevels;
+		String current = name;
+
+		while (true) {
+
+			LogLevel logLevel = currentLogLevels.get(current);
+
+			if (logLevel != null) {
+
+				return logLevel;
+
+			}
+
+			int index = current.lastIndexOf('.');
+
+			if (index == -1) {
+
+				return rootLogLevel;
+
+			}
+
+			current = current.substring(0, index);
+
+		}
+
+	}
+
+}
@@ -0,0 +1,52 @@
+package org.gmagnotta.log;
+
+/**
+ * A marker attached to log events, so writers can select them. It is a type
+ * of its own, so a marker can't be mistaken for a message or an argument of
+ * a parameterized message
+ */
+public final class Marker {
+
+	private final String name;
+
+	/**
+	 * Create a marker
+	 *
+	 * @param name
+	 *            the name written in the log events
+	 */
+	public Marker(String name) {
+
+		if (name == null || name.isEmpty()) {
+			throw new IllegalArgumentException("Marker name can't be null or empty");
+		}
+
+		this.name = name;
+
+	}
+
+	/**
+	 * Get the name of this marker
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Marker && name.equals(((Marker) obj).name);
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
@@ -0,0 +1,124 @@
+package org.gmagnotta.log;
+
+import java.util.Arrays;
+
+/**
+ * Renders parameterized messages where each <i>{}</i> placeholder is replaced
+ * by the next argument. A placeholder preceded by a backslash is written as is
+ */
+public class MessageFormatter {
+
+	private static final char DELIMITER_START = '{';
+	private static final char DELIMITER_END = '}';
+	private static final char ESCAPE = '\\';
+
+	/**
+	 * Render given pattern
+	 *
+	 * @param pattern
+	 *            the message pattern
+	 * @param arguments
+	 *            the arguments that replace the placeholders
+	 * @return the rendered message
+	 */
+	public static String format(String pattern, Object[] arguments) {
+
+		if (pattern == null) {
+			return null;
+		}
+
+		if (arguments == null || arguments.length == 0) {
+			return pattern;
+		}
+
+		StringBuilder buf = new StringBuilder(pattern.length() + 16 * arguments.length);
+
+		formatTo(buf, pattern, arguments);
+
+		return buf.toString();
+
+	}
+
+	/**
+	 * Render given pattern appending the result to given buffer
+	 *
+	 * @param buf
+	 *            the target buffer
+	 * @param pattern
+	 *            the message pattern
+	 * @param arguments
+	 *            the arguments that replace the placeholders
+	 */
+	public static void formatTo(StringBuilder buf, String pattern, Object[] arguments) {
+
+		if (pattern == null) {
+			buf.append((String) null);
+			return;
+		}
+
+		int argumentCount = arguments == null ? 0 : arguments.length;
+		int argumentIndex = 0;
+		int length = pattern.length();
+		int start = 0;
+
+		for (int i = 0; i < length - 1 && argumentIndex < argumentCount; i++) {
+
+			char c = pattern.charAt(i);
+
+			if (c == DELIMITER_START && pattern.charAt(i + 1) == DELIMITER_END) {
+
+				if (i > 0 && pattern.charAt(i - 1) == ESCAPE) {
+
+					// Escaped placeholder: drop the backslash and keep the braces
+					buf.append(pattern, start, i - 1);
+					buf.append(DELIMITER_START).append(DELIMITER_END);
+
+				} else {
+
+					buf.append(pattern, start, i);
+					appendArgument(buf, arguments[argumentIndex++]);
+
+				}
+
+				start = i + 2;
+				i++;
+
+			}
+
+		}
+
+		buf.append(pattern, start, length);
+
+	}
+
+	/**
+	 * Append the string representation of given argument
+	 *
+	 * @param buf
+	 *            the target buffer
+	 * @param argument
+	 *            the argument
+	 */
+	private static void appendArgument(StringBuilder buf, Object argument) {
+
+		try {
+
+			if (argument instanceof Object[]) {
+
+				buf.append(Arrays.deepToString((Object[]) argument));
+
+			} else {
+
+				buf.append(argument);
+
+			}
+
+		} catch (RuntimeException ex) {
+
+			buf.append("[FAILED toString()]");
+
+		}
+
+	}
+
+}
@@ -0,0 +1,138 @@
+package org.gmagnotta.log;
+
+/**
+ * Interface that allow to implement Strategy design Pattern for handling
+ * LogEvents that can't be queued because the queue is full.<br>
+ * The built-in policies give discarded events back to the pool when running in
+ * garbage-free mode
+ */
+public interface OverflowPolicy {
+
+	/**
+	 * Handle a log event that didn't fit in the given ring buffer
+	 *
+	 * @param ringBuffer
+	 *            the full ring buffer
+	 * @param logEvent
+	 *            the event to handle
+	 * @return the number of log events discarded
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public int onOverflow(LogEventRingBuffer ringBuffer, LogEvent logEvent) throws InterruptedException;
+
+	/**
+	 * Block the caller until there is room for the event
+	 *
+	 * @return the policy
+	 */
+	public static OverflowPolicy block() {
+
+		return (ringBuffer, logEvent) -> {
+
+			ringBuffer.put(logEvent);
+
+			return 0;
+
+		};
+
+	}
+
+	/**
+	 * Discard the event that didn't fit
+	 *
+	 * @return the policy
+	 */
+	public static OverflowPolicy dropNewest() {
+
+		return (ringBuffer, logEvent) -> {
+
+			logEvent.release();
+
+			return 1;
+
+		};
+
+	}
+
+	/**
+	 * Discard the oldest queued events to make room for the new one
+	 *
+	 * @return the policy
+	 */
+	public static OverflowPolicy dropOldest() {
+
+		return (ringBuffer, logEvent) -> {
+
+			int dropped = 0;
+
+			do {
+
+				LogEvent oldest = ringBuffer.poll();
+
+				if (oldest != null) {
+					oldest.release();
+					dropped++;
+				}
+
+			} while (!ringBuffer.offer(logEvent));
+
+			return dropped;
+
+		};
+
+	}
+
+	/**
+	 * Discard events whose level is lower than the given one and block the
+	 * caller for the others
+	 *
+	 * @param logLevel
+	 *            the lowest level that is never discarded
+	 * @return the policy
+	 */
+	public static OverflowPolicy dropBelow(LogLevel logLevel) {
+
+		return (ringBuffer, logEvent) -> {
+
+			if (!logEvent.getLogLevel().isHigherOrEqual(logLevel)) {
+				logEvent.release();
+				return 1;
+			}
+
+			ringBuffer.put(logEvent);
+
+			return 0;
+
+		};
+
+	}
+
+	/**
+	 * Hand the event to the given writer on the caller thread
+	 *
+	 * @param logEventWriter
+	 *            the fallback writer
+	 * @return the policy
+	 */
+	public static OverflowPolicy fallback(LogEventWriter logEventWriter) {
+
+		return (ringBuffer, logEvent) -> {
+
+			try {
+
+				logEventWriter.write(logEvent);
+
+			} finally {
+
+				logEvent.release();
+
+			}
+
+			return 0;
+
+		};
+
+	}
+
+}
@@ -0,0 +1,149 @@
+package org.gmagnotta.log;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Strategies used by threads that have to wait on a {@link LogEventRingBuffer},
+ * either because it is empty (consumer side) or because it is full (producer
+ * side)
+ */
+public enum WaitStrategy {
+
+	/**
+	 * Keep spinning on the CPU. Lowest latency, but burns a whole core while
+	 * waiting
+	 */
+	BUSY_SPIN {
+
+		@Override
+		protected void doIdle(int counter) {
+
+			// Just spin
+
+		}
+
+	},
+
+	/**
+	 * Spin for a while, then give up the CPU to other threads
+	 */
+	YIELD {
+
+		@Override
+		protected void doIdle(int counter) {
+
+			if (counter > SPIN_TRIES) {
+
+				Thread.yield();
+
+			}
+
+		}
+
+	},
+
+	/**
+	 * Spin, then yield and finally block until the other side signals. An idle
+	 * thread costs nothing, so this is the friendliest strategy for
+	 * constrained systems. Producers pay a volatile read per event and a
+	 * notify when the other side is blocked
+	 */
+	BLOCK {
+
+		@Override
+		protected void doIdle(int counter) {
+
+			if (counter > SPIN_TRIES) {
+
+				Thread.yield();
+
+			}
+
+		}
+
+		@Override
+		boolean isSignalled() {
+
+			return true;
+
+		}
+
+	},
+
+	/**
+	 * Spin, then yield and finally poll parking the thread for a short period.
+	 * No signalling on publish, but an idle thread still wakes up every
+	 * millisecond
+	 */
+	PARK {
+
+		@Override
+		protected void doIdle(int counter) {
+
+			if (counter > SPIN_TRIES + YIELD_TRIES) {
+
+				LockSupport.parkNanos(PARK_NANOS);
+
+			} else if (counter > SPIN_TRIES) {
+
+				Thread.yield();
+
+			}
+
+		}
+
+	};
+
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 100;
+	private static final long PARK_NANOS = 1000L * 1000L;
+
+	/**
+	 * Number of waits after which a signalled strategy blocks
+	 */
+	static final int BLOCK_AFTER = SPIN_TRIES + YIELD_TRIES;
+
+	/**
+	 * Wait once
+	 *
+	 * @param counter
+	 *            number of times the caller already waited for the same
+	 *            condition
+	 * @return the counter to pass on the next invocation
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted
+	 */
+	public int idle(int counter) throws InterruptedException {
+
+		if (Thread.interrupted()) {
+
+			throw new InterruptedException();
+
+		}
+
+		doIdle(counter);
+
+		return counter == Integer.MAX_VALUE ? counter : counter + 1;
+
+	}
+
+	/**
+	 * Check if waiting threads block until signalled by the other side
+	 *
+	 * @return true if publishing must wake up blocked threads
+	 */
+	boolean isSignalled() {
+
+		return false;
+
+	}
+
+	/**
+	 * Perform the strategy specific wait
+	 *
+	 * @param counter
+	 *            number of times the caller already waited
+	 */
+	protected abstract void doIdle(int counter);
+
+}
@@ -0,0 +1,121 @@
+package org.gmagnotta.log.impl.elasticsearch;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Reusable byte buffer holding a bulk request body, strings are encoded to
+ * UTF-8 straight into the buffer without intermediate copies.
+ * The content is exposed without copy, so a buffer must not be reused while
+ * a request sends it. The start of each action is tracked, so single actions
+ * can be sent again
+ */
+class BulkBuffer extends ByteArrayOutputStream {
+
+    private int[] actionOffsets = new int[64];
+    private int actionCount;
+
+    BulkBuffer(int size) {
+        super(size);
+    }
+
+    /**
+     * Mark the start of a new action at the current position
+     */
+    void startAction() {
+        if (actionCount == actionOffsets.length) {
+            actionOffsets = Arrays.copyOf(actionOffsets, actionCount * 2);
+        }
+        actionOffsets[actionCount++] = count;
+    }
+
+    /**
+     * Append the action at given position of another buffer
+     *
+     * @param other         the buffer holding the action
+     * @param action        the action position
+     */
+    void appendAction(BulkBuffer other, int action) {
+        int start = other.actionOffsets[action];
+        int end = action + 1 < other.actionCount ? other.actionOffsets[action + 1] : other.count;
+
+        startAction();
+        write(other.buf, start, end - start);
+    }
+
+    /**
+     * Get the number of actions
+     *
+     * @return the action count
+     */
+    int getActionCount() {
+        return actionCount;
+    }
+
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        actionCount = 0;
+    }
+
+    /**
+     * Append given string encoded as UTF-8, unpaired surrogates are replaced
+     * by '?'
+     *
+     * @param string        the string to append
+     */
+    void append(String string) {
+        int length = string.length();
+
+        // Worst case is 3 bytes per char
+        ensureCapacity(count + length * 3);
+
+        byte[] bytes = buf;
+        int position = count;
+
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+
+            if (c < 0x80) {
+                bytes[position++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xC0 | (c >> 6));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                    bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    bytes[position++] = '?';
+                }
+            } else {
+                bytes[position++] = (byte) (0xE0 | (c >> 12));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        count = position;
+    }
+
+    /**
+     * Get the buffer holding the content, valid up to {@link #size()}
+     *
+     * @return the internal buffer
+     */
+    byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * Make room for given number of bytes
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, capacity));
+        }
+    }
+}
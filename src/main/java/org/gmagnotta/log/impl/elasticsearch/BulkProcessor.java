@@ -1,31 +1,117 @@
 package org.gmagnotta.log.impl.elasticsearch;
 
 import org.apache.http.StatusLine;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.logging.log4j.util.Strings;
 import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestClient;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * BulkProcessor for elasticsearch
  * based on bulk processor from High level Java Client
  *
+ * Bulk requests are sent asynchronously: the buffer is swapped out for a
+ * spare one, so documents keep being added while a request is in flight.
+ * Callers block only when the max number of concurrent requests is reached.
+ *
+ * The bulk body is encoded to UTF-8 straight into pooled byte buffers, which
+ * are sent without copy and optionally gzipped.
+ *
+ * Item statuses are read from the response: items rejected because the
+ * cluster is overloaded (429, 503) are sent again with jittered exponential
+ * backoff, while a retry budget, earned by acknowledged documents, keeps
+ * retries from piling up on a struggling cluster. Other failed items are
+ * dropped. A retried request keeps its in flight slot until it completes.
+ *
+ * With a {@link SpillQueue}, documents that can't be sent because the cluster
+ * is unreachable or overloaded, or because no in flight slot was freed for a
+ * while, are written to disk instead of being dropped or blocking callers. New documents follow
+ * them to disk until the queue is replayed, in order and at a bounded rate.
+ *
+ * A ready check can hold documents back until the indices they target are
+ * set up, they are spilled or dropped as if the cluster was unreachable.
+ *
  * More info:
  * @see <a href="https://www.elastic.co/guide/en/elasticsearch/client/java-rest/master/java-rest-high-document-bulk.html#java-rest-high-document-bulk-processor">BulkProcessor</a>
  */
 public class BulkProcessor implements Runnable {
 
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final double MAX_RETRY_BUDGET = 1000;
+    private static final int DEFAULT_REPLAY_ACTIONS = 1000;
+    private static final long MAX_SLOT_WAIT = 5000L;        // ms
+    private static final long REPLAY_RETRY_INTERVAL = 1000L; // ms
+
+    private static final byte[] INDEX_ACTION = "{\"index\" : { \"_index\" : \"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ID_FIELD = "\", \"_id\" : \"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TYPE_FIELD = "\", \"_type\" : \"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ACTION_END = "\" }}\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final RequestOptions GZIP_OPTIONS;
+
+    static {
+        RequestOptions.Builder builder = RequestOptions.DEFAULT.toBuilder();
+        builder.addHeader("Content-Encoding", "gzip");
+        GZIP_OPTIONS = builder.build();
+    }
+
     private RestClient client;
-    private final StringBuilder buffer = new StringBuilder();
-    private long actionsCount = 0;
+
+    // Access is guarded by bufferSync
+    private final Object bufferSync = new Object();
+    private final Deque<BulkBuffer> freeBuffers = new ArrayDeque<>();
+    private BulkBuffer buffer = new BulkBuffer(INITIAL_BUFFER_SIZE);
 
     private int bulkActions = 1000;
     private long bulkSize = 5 * 1024L * 1024L;    // 5MB
     private long flushInterval = -1L;
 
+    // Access is guarded by bufferSync
+    private int concurrentRequests = 1;
+    private Semaphore inFlightRequests = new Semaphore(concurrentRequests);
+
+    private volatile IOException failure;
+    private volatile boolean compression = false;
+    private volatile BooleanSupplier readyCheck;
+
+    private int maxRetries = 3;
+    private long initialBackoff = 100L;     // ms
+    private long maxBackoff = 10000L;       // ms
+    private double retryBudgetRatio = 0.1;
+
+    // Access is guarded by bufferSync
+    private double retryBudget = MAX_RETRY_BUDGET;
+    private ScheduledExecutorService retryExecutor;
+
+    private final AtomicLong retriedDocuments = new AtomicLong();
+    private final AtomicLong droppedDocuments = new AtomicLong();
+
+    // Access is guarded by bufferSync
+    private SpillQueue spillQueue;
+    private volatile boolean spilling = false;
+    private int replayRate = 1000;          // documents per second
+
     private final Object waitSync = new Object();
     private Thread bulkThread;
     private boolean shutdown = false;
@@ -68,66 +154,587 @@ public class BulkProcessor implements Runnable {
             throw new BulkInterruptedException();
         }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\"index\" : { \"_index\" : \"");
-        sb.append(index);
-        if (Strings.isNotBlank(id)) {
-            sb.append("\", \"_id\" : \"");
-            sb.append(id);
+        boolean flush;
+        synchronized (bufferSync) {
+            appendAction(index, type, id, jsonDoc);
+            flush = spillBuffered() || isFlushNeeded();
         }
-        sb.append("\", \"_type\" : \"");
-        sb.append(type);
-        sb.append("\" }}\n");
-        sb.append(jsonDoc);
-        sb.append("\n");
-        actionsCount++;
 
-        synchronized (buffer) {
-            buffer.append(sb);
+        if (flush) {
+            send();
         }
+    }
 
-        if (bulkSize > -1 && buffer.length() > bulkSize) {
-            flush();
+    /**
+     * Method add a batch of documents to buffer to send, taking the buffer
+     * lock only once (document ids will be generated automatically by
+     * elasticsearch)
+     *
+     * @param index         index name, where to push documents
+     * @param type          type of the documents
+     * @param jsonDocs      documents to push in json format
+     * @throws IOException
+     */
+    public void addAll(String index, String type, List<String> jsonDocs) throws IOException, InterruptedException {
+        if (bulkThread.isInterrupted()) {
+            throw new BulkInterruptedException();
+        }
+
+        boolean flush;
+        synchronized (bufferSync) {
+            for (String jsonDoc : jsonDocs) {
+                appendAction(index, type, null, jsonDoc);
+            }
+            flush = spillBuffered() || isFlushNeeded();
         }
-        if (bulkActions > -1 && actionsCount > bulkActions) {
-            flush();
+
+        if (flush) {
+            send();
         }
     }
 
+    /**
+     * Append index action and document to buffer, caller must hold buffer lock
+     */
+    private void appendAction(String index, String type, String id, String jsonDoc) {
+        buffer.startAction();
+        buffer.write(INDEX_ACTION, 0, INDEX_ACTION.length);
+        buffer.append(index);
+        if (Strings.isNotBlank(id)) {
+            buffer.write(ID_FIELD, 0, ID_FIELD.length);
+            buffer.append(id);
+        }
+        buffer.write(TYPE_FIELD, 0, TYPE_FIELD.length);
+        buffer.append(type);
+        buffer.write(ACTION_END, 0, ACTION_END.length);
+        buffer.append(jsonDoc);
+        buffer.write('\n');
+    }
+
+    /**
+     * While spilling, move buffered documents to the spill queue so they
+     * stay behind the spilled ones, caller must hold buffer lock
+     *
+     * @return              always false, documents on disk need no flush
+     */
+    private boolean spillBuffered() throws IOException {
+        if (spilling) {
+            try {
+                spillQueue.append(buffer);
+            } catch (IOException e) {
+                droppedDocuments.addAndGet(buffer.getActionCount());
+                throw e;
+            } finally {
+                buffer.reset();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if size or action limits are reached, caller must hold buffer lock
+     */
+    private boolean isFlushNeeded() {
+        return (bulkSize > -1 && buffer.size() > bulkSize) || (bulkActions > -1 && buffer.getActionCount() > bulkActions);
+    }
+
     /**
      * Method push all buffered documents to elasticsearch
-     * using Bulk API
+     * using Bulk API and wait for all in flight requests to complete
      * @see <a href="https://www.elastic.co/guide/en/elasticsearch/reference/6.5/docs-bulk.html">Bulk API</a>
      *
-     * @throws IOException
+     * @throws IOException      if a request failed since last flush
      */
     public void flush() throws IOException, InterruptedException {
         if (shutdown) {
             return;
         }
 
+        send();
+
+        awaitInFlightRequests();
+
+        IOException e = failure;
+        if (e != null) {
+            failure = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Swap out buffered documents and push them to elasticsearch
+     * without waiting for the response. Blocks only while the max number
+     * of concurrent requests is in flight, with a spill queue for at most
+     * max slot wait
+     */
+    private void send() throws InterruptedException {
         if (bulkThread.isInterrupted()) {
             throw new BulkInterruptedException();
         }
 
-        synchronized (buffer) {
-            if (buffer.length() > 0) {
-                Request request = new Request("POST", "/_bulk");
-                request.setJsonEntity(buffer.toString());
-                Response response = client.performRequest(request);
+        BulkBuffer bulk;
+        Semaphore semaphore;
+        boolean spill;
+        synchronized (bufferSync) {
+            if (buffer.size() == 0) {
+                return;
+            }
+
+            semaphore = inFlightRequests;
+            spill = spillQueue != null;
+
+            // Swap buffers, new documents go to a free one
+            bulk = buffer;
+            buffer = takeBuffer();
+        }
+
+        if (!isReady()) {
+            if (!spill) {
+                setFailure(new IOException("Elasticsearch not ready, " + bulk.getActionCount() + " documents dropped"));
+            }
+            spillOrDrop(bulk, null, bulk.getActionCount());
+            releaseBuffer(bulk);
+            return;
+        }
+
+        if (spill) {
+            // Busy slots are normal during bursts, spilling would keep new
+            // documents on disk at replay rate even on a healthy cluster
+            if (!semaphore.tryAcquire(MAX_SLOT_WAIT, TimeUnit.MILLISECONDS)) {
+                // No answer for a while, disk takes over instead of blocking
+                spillOrDrop(bulk, null, bulk.getActionCount());
+                releaseBuffer(bulk);
+                return;
+            }
+        } else {
+            semaphore.acquire();
+        }
+
+        execute(bulk, semaphore, 0);
+    }
+
+    /**
+     * Send given bulk to elasticsearch, the in flight slot taken from given
+     * semaphore is released once the bulk is completed, retries included
+     *
+     * @param bulk          the actions to send, released once completed
+     * @param semaphore     the semaphore holding the in flight slot
+     * @param attempt       the number of previous attempts
+     */
+    private void execute(BulkBuffer bulk, Semaphore semaphore, int attempt) {
+        BulkBuffer body = bulk;
+        try {
+            if (compression) {
+                synchronized (bufferSync) {
+                    body = takeBuffer();
+                }
+            }
+
+            // Buffers are sent without copy, the uncompressed one is kept
+            // until the response for retries
+            BulkBuffer sentBody = body;
+            Request request = newRequest(bulk, body);
+
+            client.performRequestAsync(request, new ResponseListener() {
+                @Override
+                public void onSuccess(Response response) {
+                    if (sentBody != bulk) {
+                        releaseBuffer(sentBody);
+                    }
+                    complete(bulk, semaphore, attempt, response, null);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    if (sentBody != bulk) {
+                        releaseBuffer(sentBody);
+                    }
+                    complete(bulk, semaphore, attempt,
+                            e instanceof ResponseException ? ((ResponseException) e).getResponse() : null, e);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            if (body != bulk) {
+                releaseBuffer(body);
+            }
+            complete(bulk, semaphore, attempt, null, e);
+        }
+    }
+
+    /**
+     * Create the bulk request sending given actions
+     *
+     * @param bulk          the actions to send
+     * @param body          the buffer holding the request body, the actions
+     *                      are gzipped into it if it is not the same buffer
+     */
+    private Request newRequest(BulkBuffer bulk, BulkBuffer body) throws IOException {
+        Request request = new Request("POST", "/_bulk");
+
+        if (body != bulk) {
+            try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(body, INITIAL_BUFFER_SIZE)) {
+                bulk.writeTo(gzipOutputStream);
+            }
+
+            request.setOptions(GZIP_OPTIONS);
+        }
+
+        request.setEntity(new ByteArrayEntity(body.getBuffer(), 0, body.size(), ContentType.APPLICATION_JSON));
+        return request;
+    }
+
+    /**
+     * Handle the outcome of a bulk request: items rejected by an overloaded
+     * cluster are retried, others are dropped
+     *
+     * @param bulk          the actions sent
+     * @param semaphore     the semaphore holding the in flight slot
+     * @param attempt       the number of previous attempts
+     * @param response      the response, null if none was received
+     * @param exception     the request failure, null on success
+     */
+    private void complete(BulkBuffer bulk, Semaphore semaphore, int attempt, Response response, Exception exception) {
+        boolean retrying = false;
+        boolean spill;
+        synchronized (bufferSync) {
+            spill = spillQueue != null;
+        }
+
+        try {
+            int actionCount = bulk.getActionCount();
+            int[] retryActions = null;
+            int retryCount = 0;
+            Exception requestFailure = null;
+
+            int statusCode = response != null ? response.getStatusLine().getStatusCode() : -1;
+
+            if (statusCode == HttpURLConnection.HTTP_OK && exception == null) {
+                int[] statuses = BulkResponseParser.parseStatuses(response.getEntity().getContent(), actionCount);
+
+                if (statuses != null) {
+                    retryActions = new int[actionCount];
+                    for (int i = 0; i < actionCount; i++) {
+                        if (isRetryable(statuses[i])) {
+                            retryActions[retryCount++] = i;
+                        } else if (statuses[i] >= 300) {
+                            droppedDocuments.incrementAndGet();
+                        }
+                    }
+                }
+            } else if ((response == null || isRetryable(statusCode)) && spill) {
+                // Cluster is unreachable or overloaded, disk takes over
+                spillOrDrop(bulk, null, actionCount);
+                return;
+            } else if (response == null || isRetryable(statusCode)) {
+                // Connection failure or overloaded cluster, whole bulk is retried
+                retryActions = new int[actionCount];
+                for (int i = 0; i < actionCount; i++) {
+                    retryActions[retryCount++] = i;
+                }
+                requestFailure = exception != null ? exception
+                        : new IOElasticException(statusCode, response.getStatusLine().getReasonPhrase());
+            } else {
+                droppedDocuments.addAndGet(actionCount);
+                setFailure(exception != null ? exception
+                        : new IOElasticException(statusCode, response.getStatusLine().getReasonPhrase()));
+                return;
+            }
+
+            earnRetryBudget(actionCount - retryCount);
+
+            if (retryCount > 0) {
+                retrying = retry(bulk, retryActions, retryCount, semaphore, attempt);
+            }
+
+            // Reported only when documents are lost
+            if (!retrying && requestFailure != null) {
+                setFailure(requestFailure);
+            }
+        } catch (IOException | RuntimeException e) {
+            droppedDocuments.addAndGet(bulk.getActionCount());
+            setFailure(e);
+        } finally {
+            releaseBuffer(bulk);
+            if (!retrying) {
+                semaphore.release();
+            }
+        }
+    }
+
+    /**
+     * Schedule given actions to be sent again after a jittered exponential
+     * backoff, if attempts and retry budget allow it
+     *
+     * @return              true if the retry is scheduled
+     */
+    private boolean retry(BulkBuffer bulk, int[] actions, int actionCount, Semaphore semaphore, int attempt) {
+        BulkBuffer retryBulk;
+        ScheduledExecutorService executor;
+        long backoff;
+        synchronized (bufferSync) {
+            if (attempt >= maxRetries || retryBudget < actionCount) {
+                spillOrDrop(bulk, actions, actionCount);
+                return false;
+            }
+
+            retryBudget -= actionCount;
+
+            if (retryExecutor == null) {
+                retryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "LoggerBulkRetry");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+
+            executor = retryExecutor;
+            retryBulk = takeBuffer();
+            backoff = Math.min(maxBackoff, initialBackoff << Math.min(attempt, 30));
+        }
+
+        for (int i = 0; i < actionCount; i++) {
+            retryBulk.appendAction(bulk, actions[i]);
+        }
+
+        // Half fixed, half random, so retries of concurrent bulks spread out
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+
+        try {
+            executor.schedule(() -> execute(retryBulk, semaphore, attempt + 1), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed meanwhile, spilled documents are sent on next start
+            spillOrDrop(retryBulk, null, actionCount);
+            releaseBuffer(retryBulk);
+            return false;
+        }
+
+        retriedDocuments.addAndGet(actionCount);
+        return true;
+    }
+
+    /**
+     * Write given actions to the spill queue and switch to spilling, they are
+     * dropped if there is no spill queue
+     *
+     * @param bulk          the buffer holding the actions
+     * @param actions       the positions of the actions, null for all
+     * @param actionCount   the number of actions
+     */
+    private void spillOrDrop(BulkBuffer bulk, int[] actions, int actionCount) {
+        synchronized (bufferSync) {
+            if (spillQueue == null) {
+                droppedDocuments.addAndGet(actionCount);
+                return;
+            }
+
+            BulkBuffer spilled = bulk;
+            if (actions != null) {
+                spilled = takeBuffer();
+                for (int i = 0; i < actionCount; i++) {
+                    spilled.appendAction(bulk, actions[i]);
+                }
+            }
+
+            try {
+                spillQueue.append(spilled);
+                startSpilling();
+            } catch (IOException e) {
+                droppedDocuments.addAndGet(actionCount);
+                setFailure(e);
+            } finally {
+                if (spilled != bulk) {
+                    releaseBuffer(spilled);
+                }
+            }
+        }
+    }
+
+    /**
+     * Switch to spilling and wake the bulk thread, which replays the spill
+     * queue even without flush interval, caller must hold buffer lock
+     */
+    private void startSpilling() {
+        if (!spilling) {
+            spilling = true;
+            synchronized (waitSync) {
+                waitSync.notifyAll();
+            }
+        }
+    }
 
-                // Clear buffer for future use
-                buffer.setLength(0);
-                actionsCount = 0;
+    /**
+     * Send spilled documents back to elasticsearch, in order and at most at
+     * replay rate. Stops at the first failure, the documents are sent again
+     * on next run
+     */
+    private void replay() throws IOException, InterruptedException {
+        while (spilling && !shutdown && isReady()) {
+            BulkBuffer chunk;
+            int maxActions;
+            synchronized (bufferSync) {
+                chunk = takeBuffer();
+                maxActions = bulkActions > 0 ? bulkActions : DEFAULT_REPLAY_ACTIONS;
+            }
+
+            int actionCount;
+            try {
+                actionCount = spillQueue.read(chunk, maxActions);
+
+                if (actionCount == 0) {
+                    synchronized (bufferSync) {
+                        if (spillQueue.isEmpty()) {
+                            // Drained, new documents stay in memory again
+                            spilling = false;
+                        }
+                    }
+                    return;
+                }
+
+                if (!replay(chunk)) {
+                    return;
+                }
+
+                spillQueue.commit();
+            } finally {
+                releaseBuffer(chunk);
+            }
 
-                StatusLine status = response.getStatusLine();
-                if (status.getStatusCode() != HttpURLConnection.HTTP_OK) {
-                    throw new IOElasticException(status.getStatusCode(), status.getReasonPhrase());
+            // Rate limit, so a recovering cluster is not flooded
+            synchronized (waitSync) {
+                if (!shutdown) {
+                    waitSync.wait(Math.max(1, actionCount * 1000L / replayRate));
                 }
             }
         }
     }
 
+    /**
+     * Send given spilled documents, waiting for the response
+     *
+     * @return              false if they must be sent again later
+     */
+    private boolean replay(BulkBuffer chunk) throws IOException, InterruptedException {
+        Semaphore semaphore;
+        BulkBuffer body = chunk;
+        synchronized (bufferSync) {
+            semaphore = inFlightRequests;
+            if (compression) {
+                body = takeBuffer();
+            }
+        }
+
+        semaphore.acquire();
+        try {
+            Response response;
+            try {
+                response = client.performRequest(newRequest(chunk, body));
+            } catch (ResponseException e) {
+                int statusCode = e.getResponse().getStatusLine().getStatusCode();
+                if (isRetryable(statusCode)) {
+                    return false;
+                }
+
+                // Rejected for good, don't block the queue
+                droppedDocuments.addAndGet(chunk.getActionCount());
+                setFailure(e);
+                return true;
+            } catch (IOException e) {
+                // Still unreachable
+                return false;
+            }
+
+            int[] statuses = BulkResponseParser.parseStatuses(response.getEntity().getContent(), chunk.getActionCount());
+            if (statuses != null) {
+                int dropped = 0;
+                for (int status : statuses) {
+                    if (isRetryable(status)) {
+                        // Whole chunk again, acknowledged documents are sent twice
+                        return false;
+                    } else if (status >= 300) {
+                        dropped++;
+                    }
+                }
+                droppedDocuments.addAndGet(dropped);
+            }
+            return true;
+        } finally {
+            if (body != chunk) {
+                releaseBuffer(body);
+            }
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Check if documents can be sent
+     */
+    private boolean isReady() {
+        BooleanSupplier check = readyCheck;
+        return check == null || check.getAsBoolean();
+    }
+
+    /**
+     * Check if an item or request status means the cluster is overloaded
+     */
+    private static boolean isRetryable(int status) {
+        return status == 429 || status == HttpURLConnection.HTTP_UNAVAILABLE;
+    }
+
+    /**
+     * Acknowledged documents earn a fraction of a retry
+     */
+    private void earnRetryBudget(int acknowledgedDocuments) {
+        synchronized (bufferSync) {
+            retryBudget = Math.min(MAX_RETRY_BUDGET, retryBudget + acknowledgedDocuments * retryBudgetRatio);
+        }
+    }
+
+    /**
+     * Take a free buffer from the pool, caller must hold buffer lock
+     */
+    private BulkBuffer takeBuffer() {
+        BulkBuffer free = freeBuffers.poll();
+        return free != null ? free : new BulkBuffer(INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * Give back a buffer to the pool, which keeps one buffer per request in
+     * flight and the compressed copies
+     */
+    private void releaseBuffer(BulkBuffer released) {
+        released.reset();
+        synchronized (bufferSync) {
+            if (freeBuffers.size() < 2 * concurrentRequests && !freeBuffers.contains(released)) {
+                freeBuffers.push(released);
+            }
+        }
+    }
+
+    /**
+     * Record failure of an asynchronous request, the first one is thrown
+     * by next flush
+     */
+    private void setFailure(Exception e) {
+        if (failure == null) {
+            failure = e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    /**
+     * Wait until no request is in flight
+     */
+    private void awaitInFlightRequests() throws InterruptedException {
+        Semaphore semaphore;
+        int permits;
+        synchronized (bufferSync) {
+            semaphore = inFlightRequests;
+            permits = concurrentRequests;
+        }
+
+        semaphore.acquire(permits);
+        semaphore.release(permits);
+    }
+
     /**
      * Method to set max bulk actions in buffer before send to elasticsearch
      * when buffered actions reach max value processor automatically send
@@ -152,6 +759,145 @@ public class BulkProcessor implements Runnable {
         this.bulkSize = bulkSize;
     }
 
+    /**
+     * Method to set max number of bulk requests in flight at the same time,
+     * when reached callers adding documents wait for a response.
+     * Must be set before adding documents.
+     *
+     * @param concurrentRequests    max number of concurrent requests
+     */
+    public void setConcurrentRequests(int concurrentRequests) {
+        if (concurrentRequests < 1) {
+            throw new IllegalArgumentException("Concurrent requests must be at least 1");
+        }
+
+        synchronized (bufferSync) {
+            this.concurrentRequests = concurrentRequests;
+            this.inFlightRequests = new Semaphore(concurrentRequests);
+        }
+    }
+
+    /**
+     * Method to set retries of documents rejected by an overloaded cluster.
+     * The backoff doubles on each attempt up to max backoff and is jittered.
+     *
+     * @param maxRetries        max number of retries of a document, 0 to disable retries
+     * @param initialBackoff    backoff before first retry in milliseconds
+     * @param maxBackoff        max backoff in milliseconds
+     */
+    public void setRetries(int maxRetries, long initialBackoff, long maxBackoff) {
+        if (maxRetries < 0 || initialBackoff < 1 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("Invalid retry settings");
+        }
+
+        synchronized (bufferSync) {
+            this.maxRetries = maxRetries;
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+        }
+    }
+
+    /**
+     * Method to set the retry budget: each acknowledged document allows
+     * given fraction of a retry, so retries stay a bounded share of the
+     * traffic while the cluster is struggling.
+     *
+     * @param retryBudgetRatio  retries allowed per acknowledged document
+     */
+    public void setRetryBudgetRatio(double retryBudgetRatio) {
+        if (retryBudgetRatio < 0) {
+            throw new IllegalArgumentException("Retry budget ratio can't be negative");
+        }
+
+        synchronized (bufferSync) {
+            this.retryBudgetRatio = retryBudgetRatio;
+        }
+    }
+
+    /**
+     * Get the number of document retries since creation
+     *
+     * @return retried documents count
+     */
+    public long getRetriedDocuments() {
+        return retriedDocuments.get();
+    }
+
+    /**
+     * Get the number of documents dropped since creation, because rejected
+     * or out of retries
+     *
+     * @return dropped documents count
+     */
+    public long getDroppedDocuments() {
+        return droppedDocuments.get();
+    }
+
+    /**
+     * Method to set the queue receiving documents while the cluster is
+     * unreachable or every in flight slot is taken. Documents left in the
+     * queue by a previous run are replayed. Must be set before adding
+     * documents.
+     *
+     * @param spillQueue        the spill queue
+     * @throws IOException      if an error occurs reading the queue
+     */
+    public void setSpillQueue(SpillQueue spillQueue) throws IOException {
+        synchronized (bufferSync) {
+            this.spillQueue = spillQueue;
+            if (!spillQueue.isEmpty()) {
+                startSpilling();
+            }
+        }
+    }
+
+    /**
+     * Method to set the max rate of documents replayed from the spill queue,
+     * which should be a rate the cluster can sustain on top of new documents.
+     *
+     * @param replayRate        max replayed documents per second
+     */
+    public void setReplayRate(int replayRate) {
+        if (replayRate < 1) {
+            throw new IllegalArgumentException("Replay rate must be at least 1");
+        }
+
+        synchronized (bufferSync) {
+            this.replayRate = replayRate;
+        }
+    }
+
+    /**
+     * Check if documents are going to the spill queue
+     *
+     * @return true while the spill queue is not drained
+     */
+    public boolean isSpilling() {
+        return spilling;
+    }
+
+    /**
+     * Method to set the check run before documents are sent, e.g. to create
+     * the indices they target. While it fails, documents are spilled or
+     * dropped as if the cluster was unreachable. It runs on the threads
+     * sending documents, so it should retry at a bounded rate.
+     *
+     * @param readyCheck        the check, null to always send
+     */
+    public void setReadyCheck(BooleanSupplier readyCheck) {
+        this.readyCheck = readyCheck;
+    }
+
+    /**
+     * Method to enable gzip compression of bulk requests, which trades CPU
+     * for bandwidth on metered links.
+     *
+     * @param compression       true to send gzipped bulk requests
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
     /**
      * Method set max interval before automatically send buffered actions to
      * elasticsearch.
@@ -174,8 +920,32 @@ public class BulkProcessor implements Runnable {
             shutdown = true;
             waitSync.notifyAll();
         }
-        bulkThread.join(flushInterval * 1000);
+        bulkThread.join(Math.max(1, flushInterval) * 1000);
         bulkThread.interrupt();
+
+        // Let requests and their retries complete before the client is closed
+        awaitInFlightRequests();
+
+        ScheduledExecutorService executor;
+        synchronized (bufferSync) {
+            executor = retryExecutor;
+            retryExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+
+        SpillQueue queue;
+        synchronized (bufferSync) {
+            queue = spillQueue;
+        }
+        if (queue != null) {
+            try {
+                queue.close();
+            } catch (IOException e) {
+                // Spilled documents are on disk anyway
+            }
+        }
     }
 
     /**
@@ -187,9 +957,15 @@ public class BulkProcessor implements Runnable {
         while(!Thread.currentThread().isInterrupted() && !shutdown) {
             try {
                 flush();
+                if (spilling) {
+                    replay();
+                }
                 if (flushInterval < 0) {
                     synchronized (waitSync) {
-                        waitSync.wait();
+                        // Replay stops at the first failure, try again later
+                        if (!shutdown) {
+                            waitSync.wait(spilling ? REPLAY_RETRY_INTERVAL : 0);
+                        }
                     }
                 } else {
                     Thread.sleep(flushInterval * 1000);
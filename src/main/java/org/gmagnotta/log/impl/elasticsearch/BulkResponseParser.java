@@ -0,0 +1,222 @@
+package org.gmagnotta.log.impl.elasticsearch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming parser of Bulk API responses, it reads the status of each item
+ * without building the response tree. Error details are skipped
+ *
+ * @see <a href="https://www.elastic.co/guide/en/elasticsearch/reference/6.5/docs-bulk.html">Bulk API</a>
+ */
+class BulkResponseParser {
+
+    private final Reader reader;
+    private int lookahead = -2;
+
+    private BulkResponseParser(InputStream inputStream) {
+        this.reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parse the statuses of bulk items
+     *
+     * @param inputStream   the response body
+     * @param itemCount     the number of items sent
+     * @return              the status of each item, in the order they were
+     *                      sent, or null when the response has no errors
+     * @throws IOException  if the response is not a valid bulk response
+     */
+    static int[] parseStatuses(InputStream inputStream, int itemCount) throws IOException {
+        return new BulkResponseParser(inputStream).parse(itemCount);
+    }
+
+    private int[] parse(int itemCount) throws IOException {
+        expect('{');
+        if (peek() != '}') {
+            do {
+                String key = readString(true);
+                expect(':');
+                if ("errors".equals(key)) {
+                    // Usually before items, nothing else to read
+                    if (!Boolean.parseBoolean(readLiteral())) {
+                        return null;
+                    }
+                } else if ("items".equals(key)) {
+                    return readItems(itemCount);
+                } else {
+                    skipValue();
+                }
+            } while (skipComma());
+        }
+        throw new IOException("Bulk response without items");
+    }
+
+    private int[] readItems(int itemCount) throws IOException {
+        int[] statuses = new int[itemCount];
+        int index = 0;
+
+        expect('[');
+        if (peek() != ']') {
+            do {
+                // Each item is an object holding the action result
+                expect('{');
+                readString(false);
+                expect(':');
+                expect('{');
+                int status = 0;
+                if (peek() != '}') {
+                    do {
+                        String key = readString(true);
+                        expect(':');
+                        if ("status".equals(key)) {
+                            status = Integer.parseInt(readLiteral());
+                        } else {
+                            skipValue();
+                        }
+                    } while (skipComma());
+                }
+                expect('}');
+                expect('}');
+
+                if (index < itemCount) {
+                    statuses[index] = status;
+                }
+                index++;
+            } while (skipComma());
+        }
+        expect(']');
+
+        if (index != itemCount) {
+            throw new IOException("Bulk response has " + index + " items, " + itemCount + " sent");
+        }
+        return statuses;
+    }
+
+    private void skipValue() throws IOException {
+        switch (peek()) {
+            case '{':
+                expect('{');
+                if (peek() != '}') {
+                    do {
+                        readString(false);
+                        expect(':');
+                        skipValue();
+                    } while (skipComma());
+                }
+                expect('}');
+                break;
+            case '[':
+                expect('[');
+                if (peek() != ']') {
+                    do {
+                        skipValue();
+                    } while (skipComma());
+                }
+                expect(']');
+                break;
+            case '"':
+                readString(false);
+                break;
+            default:
+                readLiteral();
+        }
+    }
+
+    /**
+     * Read a string, decoding it only when kept
+     */
+    private String readString(boolean keep) throws IOException {
+        expect('"');
+        StringBuilder builder = keep ? new StringBuilder() : null;
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return keep ? builder.toString() : null;
+            }
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'b': c = '\b'; break;
+                    case 'f': c = '\f'; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 't': c = '\t'; break;
+                    case 'u':
+                        char[] hex = { (char) read(), (char) read(), (char) read(), (char) read() };
+                        c = Integer.parseInt(new String(hex), 16);
+                        break;
+                    default:
+                        // Quote, backslash and slash stand for themselves
+                }
+            }
+            if (keep) {
+                builder.append((char) c);
+            }
+        }
+    }
+
+    /**
+     * Read a number, true, false or null
+     */
+    private String readLiteral() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int c = peek();
+        while (c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+            builder.append((char) read());
+            c = lookahead();
+        }
+        if (builder.length() == 0) {
+            throw new IOException("Unexpected character in bulk response: " + (char) c);
+        }
+        return builder.toString();
+    }
+
+    private boolean skipComma() throws IOException {
+        if (peek() == ',') {
+            read();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = peek();
+        if (c != expected) {
+            throw new IOException("Expected '" + expected + "' in bulk response, found " + (c < 0 ? "end" : "'" + (char) c + "'"));
+        }
+        read();
+    }
+
+    /**
+     * Get next character skipping whitespaces, without consuming it
+     */
+    private int peek() throws IOException {
+        int c = lookahead();
+        while (c >= 0 && Character.isWhitespace(c)) {
+            read();
+            c = lookahead();
+        }
+        return c;
+    }
+
+    private int lookahead() throws IOException {
+        if (lookahead == -2) {
+            lookahead = reader.read();
+        }
+        return lookahead;
+    }
+
+    private int read() throws IOException {
+        int c = lookahead();
+        if (c < 0) {
+            throw new IOException("Unexpected end of bulk response");
+        }
+        lookahead = -2;
+        return c;
+    }
+}
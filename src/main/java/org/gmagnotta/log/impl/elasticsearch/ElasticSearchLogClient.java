@@ -3,6 +3,7 @@ package org.gmagnotta.log.impl.elasticsearch;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.http.HttpHost;
 import org.apache.http.StatusLine;
+import org.apache.http.util.EntityUtils;
 import org.elasticsearch.client.Request;
 import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestClient;
@@ -11,6 +12,12 @@ import org.gmagnotta.log.LogEvent;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Log client based on elastic search
@@ -28,6 +35,12 @@ public class ElasticSearchLogClient {
 
     private static final String TYPE = "_doc";
 
+    // Responses are matched rather than parsed, names can't contain quotes
+    private static final Pattern WRITE_INDEX = Pattern.compile("\"is_write_index\"\\s*:\\s*true");
+    private static final Pattern TASK_ID = Pattern.compile("\"task\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern TASK_COMPLETED = Pattern.compile("\"completed\"\\s*:\\s*true");
+    private static final Pattern NO_FAILURES = Pattern.compile("\"failures\"\\s*:\\s*\\[\\s*\\]");
+
     private RestClient client;
     private BulkProcessor bulkProcessor;
 
@@ -37,12 +50,41 @@ public class ElasticSearchLogClient {
      * @param url      url of elasticsearch master-node
      */
     public ElasticSearchLogClient(URL url) {
+        this(url, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param url                   url of elasticsearch master-node
+     * @param compressRequests      true to gzip bulk requests
+     */
+    public ElasticSearchLogClient(URL url, boolean compressRequests) {
         HttpHost host = new HttpHost(url.getHost(), url.getPort(), url.getProtocol());
         client = RestClient.builder(host).build();
         bulkProcessor = new BulkProcessor(client);
         bulkProcessor.setFlushInterval(5);              // every 5 sec
         bulkProcessor.setBulkActions(50);               // max 50 actions
         bulkProcessor.setBulkSize(2 * 1024L * 1024L);   // max 2 MB
+        bulkProcessor.setConcurrentRequests(2);         // max 2 requests in flight
+        bulkProcessor.setCompression(compressRequests);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param url                   url of elasticsearch master-node
+     * @param compressRequests      true to gzip bulk requests
+     * @param spillQueue            queue receiving documents while the cluster
+     *                              is unreachable, null to drop them
+     * @throws IOException          if an error occurs reading the spill queue
+     */
+    public ElasticSearchLogClient(URL url, boolean compressRequests, SpillQueue spillQueue) throws IOException {
+        this(url, compressRequests);
+        if (spillQueue != null) {
+            bulkProcessor.setSpillQueue(spillQueue);
+            bulkProcessor.setReplayRate(500);           // max 500 docs/sec
+        }
     }
 
 
@@ -64,7 +106,24 @@ public class ElasticSearchLogClient {
      * @throws IOException
      */
     public void createLogIndex(String index) throws IOException {
-        String body = "{" +
+        createLogIndex(index, null);
+    }
+
+
+    /**
+     * Method create index with given name, receiving the writes made
+     * through given alias
+     *
+     * @param index         index name to create
+     * @param alias         alias name, null for none
+     * @throws IOException
+     */
+    public void createLogIndex(String index, String alias) throws IOException {
+        String aliases = alias == null ? "" :
+                        "  \"aliases\": {" +
+                        "    \"" + alias + "\": { \"is_write_index\": true }" +
+                        "  },";
+        String body = "{" + aliases +
                         "  \"mappings\": {" +
                         "    \"" + TYPE + "\": {" +
                         "      \"properties\": {" +
@@ -103,6 +162,129 @@ public class ElasticSearchLogClient {
     }
 
 
+    /**
+     * Method get the index receiving the writes made through given alias
+     *
+     * @param alias         alias name
+     * @return              index name, null if there is no alias with given name
+     * @throws IOException
+     */
+    public String getLogAliasWriteIndex(String alias) throws IOException {
+        Response response = client.performRequest(new Request("HEAD", "/_alias/" + alias));
+        if (response.getStatusLine().getStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+            return null;
+        }
+
+        response = client.performRequest(new Request("GET", "/_alias/" + alias));
+        String body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+
+        // Each index is listed as "index":{"aliases":{"alias":{...}}}, the
+        // write one is flagged when there are several
+        Pattern entry = Pattern.compile("\"([^\"]+)\"\\s*:\\s*\\{\\s*\"aliases\"\\s*:\\s*\\{\\s*\""
+                + Pattern.quote(alias) + "\"\\s*:\\s*\\{([^}]*)\\}");
+        Matcher matcher = entry.matcher(body);
+        String index = null;
+        while (matcher.find()) {
+            if (index == null || WRITE_INDEX.matcher(matcher.group(2)).find()) {
+                index = matcher.group(1);
+            }
+        }
+
+        if (index == null) {
+            throw new IOException("Unexpected alias response: " + body);
+        }
+        return index;
+    }
+
+
+    /**
+     * Method atomically point an alias to given indices, removing another
+     * alias in the same operation
+     *
+     * @param oldAlias      alias to remove, null for none
+     * @param newAlias      alias to add
+     * @param indices       indices of the new alias, the last one receives writes
+     * @throws IOException
+     */
+    public void moveLogAlias(String oldAlias, String newAlias, String... indices) throws IOException {
+        StringBuilder body = new StringBuilder("{\"actions\": [");
+        if (oldAlias != null) {
+            body.append("{\"remove\": {\"index\": \"*\", \"alias\": \"").append(oldAlias).append("\"}},");
+        }
+        for (int i = 0; i < indices.length; i++) {
+            body.append("{\"add\": {\"index\": \"").append(indices[i])
+                .append("\", \"alias\": \"").append(newAlias)
+                .append("\", \"is_write_index\": ").append(i == indices.length - 1).append("}}")
+                .append(i < indices.length - 1 ? "," : "");
+        }
+        body.append("]}");
+
+        Request request = new Request("POST", "/_aliases");
+        request.setJsonEntity(body.toString());
+        Response response = client.performRequest(request);
+
+        StatusLine status = response.getStatusLine();
+        if (status.getStatusCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOElasticException(status.getStatusCode(), status.getReasonPhrase());
+        }
+    }
+
+
+    /**
+     * Method start a reindex operation as a background task on the
+     * cluster, throttled to given rate
+     *
+     * @param sourceIndex           source index name
+     * @param destIndex             destination index name
+     * @param requestsPerSecond     max documents copied per second
+     * @return                      the task id
+     * @throws IOException
+     */
+    public String startReIndexLog(String sourceIndex, String destIndex, float requestsPerSecond) throws IOException {
+        String body = "{\"source\": {\"index\": \"" + sourceIndex + "\"},\"dest\": {\"index\": \"" + destIndex + "\"}}";
+
+        Request request = new Request("POST", "/_reindex");
+        request.addParameter("wait_for_completion", "false");
+        request.addParameter("requests_per_second", Float.toString(requestsPerSecond));
+        request.setJsonEntity(body);
+        Response response = client.performRequest(request);
+
+        StatusLine status = response.getStatusLine();
+        if (status.getStatusCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOElasticException(status.getStatusCode(), status.getReasonPhrase());
+        }
+
+        Matcher matcher = TASK_ID.matcher(EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8));
+        if (!matcher.find()) {
+            throw new IOException("Reindex response without task id");
+        }
+        return matcher.group(1);
+    }
+
+
+    /**
+     * Method check the outcome of a background task
+     *
+     * @param taskId                the task id
+     * @return                      true if completed without failures,
+     *                              false while running
+     * @throws IOTaskFailedException if the task completed with failures
+     * @throws IOException
+     */
+    public boolean isTaskCompleted(String taskId) throws IOException {
+        Response response = client.performRequest(new Request("GET", "/_tasks/" + taskId));
+        String body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+
+        if (!TASK_COMPLETED.matcher(body).find()) {
+            return false;
+        }
+        if (!NO_FAILURES.matcher(body).find()) {
+            throw new IOTaskFailedException(taskId, body);
+        }
+        return true;
+    }
+
+
     /**
      * Method implements elasticsearch reindex operation allows copy
      * all documents from source to destination index
@@ -137,6 +319,32 @@ public class ElasticSearchLogClient {
      * @param logEvent      log event that need to be putted
      */
     public void putLogEvent(String index, String app, LogEvent logEvent) throws IOException, InterruptedException {
+        bulkProcessor.add(index, TYPE, toJson(app, logEvent));
+    }
+
+    /**
+     * Method send a batch of log events to elastic search
+     *
+     * @param index         index name where log events need to be putted
+     * @param app           application name
+     * @param logEvents     log events that need to be putted
+     */
+    public void putLogEvents(String index, String app, List<LogEvent> logEvents) throws IOException, InterruptedException {
+        List<String> jsonDocs = new ArrayList<>(logEvents.size());
+        for (LogEvent logEvent : logEvents) {
+            jsonDocs.add(toJson(app, logEvent));
+        }
+        bulkProcessor.addAll(index, TYPE, jsonDocs);
+    }
+
+    /**
+     * Method build json document of log event
+     *
+     * @param app           application name
+     * @param logEvent      log event to convert
+     * @return              document in json format
+     */
+    private String toJson(String app, LogEvent logEvent) {
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try (PrintStream ps = new PrintStream(baos, true)) {
             Throwable throwable = logEvent.getThrowable();
@@ -148,16 +356,14 @@ public class ElasticSearchLogClient {
         String message = new String(baos.toByteArray(), java.nio.charset.StandardCharsets.UTF_8);
         message = StringEscapeUtils.escapeJava(message);
 
-        String body = "{" +
-                      "    \"date\" : \"" + logEvent.getDate().getTime() + "\"," +
-                      "    \"app\" : \"" + app + "\"," +
-                      "    \"logLevel\" : \"" + logEvent.getLogLevel() + "\"," +
-                      "    \"sourceClass\" : \"" + logEvent.getSourceClass() + "\"," +
-                      "    \"thread\" : \"" + logEvent.getThreadName() + "\"," +
-                      "    \"message\" : \"" + message + "\"" +
-                      "}";
-
-        bulkProcessor.add(index, TYPE, body);
+        return "{" +
+               "    \"date\" : \"" + logEvent.getTimeMillis() + "\"," +
+               "    \"app\" : \"" + app + "\"," +
+               "    \"logLevel\" : \"" + logEvent.getLogLevel() + "\"," +
+               "    \"sourceClass\" : \"" + logEvent.getSourceClass() + "\"," +
+               "    \"thread\" : \"" + logEvent.getThreadName() + "\"," +
+               "    \"message\" : \"" + message + "\"" +
+               "}";
     }
 
     /**
@@ -170,6 +376,26 @@ public class ElasticSearchLogClient {
         }
     }
 
+    /**
+     * Method to set the check run before log events are sent, while it
+     * fails they are spilled or dropped
+     *
+     * @param readyCheck    the check, null to always send
+     */
+    public void setReadyCheck(BooleanSupplier readyCheck) {
+        bulkProcessor.setReadyCheck(readyCheck);
+    }
+
+    /**
+     * Method check if log events are kept on disk, because elasticsearch
+     * was unreachable, until they are replayed
+     *
+     * @return              true while the spill queue is not drained
+     */
+    public boolean isSpilling() {
+        return bulkProcessor.isSpilling();
+    }
+
     /**
      * Method check, if index exist
      *
@@ -1,20 +1,39 @@
 package org.gmagnotta.log.impl.elasticsearch;
 
 import org.apache.logging.log4j.util.Strings;
+import org.gmagnotta.log.BatchLogEventWriter;
 import org.gmagnotta.log.LogEvent;
-import org.gmagnotta.log.LogEventWriter;
+import org.gmagnotta.log.OverflowPolicy;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
-public class ElasticSearchLogEventWriter implements LogEventWriter {
+/**
+ * Log writer based on elastic search. Log events are written through an
+ * alias, so the index can be renamed without moving documents.
+ */
+public class ElasticSearchLogEventWriter implements BatchLogEventWriter {
 
-    private String index;
+    private static final float REINDEX_REQUESTS_PER_SECOND = 500;
+    private static final long REINDEX_CHECK_INTERVAL = 10;     // seconds
+    private static final long RESOLVE_INTERVAL = 10 * 1000L;   // ms
+
+    private volatile String index;
     private String app;
     private ElasticSearchLogClient client;
-    private boolean stopped = false;
+    private volatile boolean stopped = false;
+
+    // Access is guarded by this, reads of a resolved write index aren't
+    private volatile String writeIndex;
+    private long resolveMillis;
+    private boolean aliased;
+    private String reindexTaskId;
+    private ScheduledExecutorService executor;
 
     @Override
     public void write(LogEvent logEvent) {
@@ -28,8 +47,34 @@ public class ElasticSearchLogEventWriter implements LogEventWriter {
     }
 
     @Override
-    public void stop() {
+    public void write(List<LogEvent> logEvents) {
+        if (client != null && !stopped) {
+            try {
+                client.putLogEvents(index, app, logEvents);
+            } catch (IOException | InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A cluster that can't keep up must not delay the other writers, the
+     * oldest queued events are dropped instead
+     */
+    @Override
+    public OverflowPolicy getOverflowPolicy() {
+        return OverflowPolicy.dropOldest();
+    }
+
+    @Override
+    public synchronized void stop() {
         stopped = true;
+
+        // A running reindex completes on the cluster, the old index is kept
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
     }
 
     public void deleteLog() {
@@ -51,6 +96,32 @@ public class ElasticSearchLogEventWriter implements LogEventWriter {
      * @param app                   application name
      */
     public ElasticSearchLogEventWriter(URL elasticSearchUrl, String index, String app) {
+        this(elasticSearchUrl, index, app, false);
+    }
+
+    /**
+     * Start elastic search writer
+     *
+     * @param elasticSearchUrl      url of elastic search
+     * @param index                 index name where log events will be putted
+     * @param app                   application name
+     * @param compressRequests      true to gzip bulk requests, for metered links
+     */
+    public ElasticSearchLogEventWriter(URL elasticSearchUrl, String index, String app, boolean compressRequests) {
+        this(elasticSearchUrl, index, app, compressRequests, null);
+    }
+
+    /**
+     * Start elastic search writer
+     *
+     * @param elasticSearchUrl      url of elastic search
+     * @param index                 index name where log events will be putted
+     * @param app                   application name
+     * @param compressRequests      true to gzip bulk requests, for metered links
+     * @param spillQueue            queue keeping log events on disk while
+     *                              elastic search is unreachable, null to drop them
+     */
+    public ElasticSearchLogEventWriter(URL elasticSearchUrl, String index, String app, boolean compressRequests, SpillQueue spillQueue) {
         if (elasticSearchUrl == null) {
             throw new IllegalArgumentException("Elasticsearch url can't be null");
         }
@@ -63,68 +134,238 @@ public class ElasticSearchLogEventWriter implements LogEventWriter {
             throw new IllegalArgumentException("App can't be null or empty");
         }
 
+        this.app = app;
+        this.index = index;
+
         try {
-            this.app = app;
-            this.index = index;
+            client = new ElasticSearchLogClient(elasticSearchUrl, compressRequests, spillQueue);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        start();
+    }
+
+    /**
+     * Start elastic search writer on given client
+     *
+     * @param client                client of elastic search
+     * @param index                 index name where log events will be putted
+     * @param app                   application name
+     */
+    ElasticSearchLogEventWriter(ElasticSearchLogClient client, String index, String app) {
+        this.client = client;
+        this.app = app;
+        this.index = index;
+
+        start();
+    }
+
+    /**
+     * Resolve the index behind the alias, or leave it to the first events
+     * sent if the cluster is unreachable
+     */
+    private void start() {
+        // Events would create a plain index named like the alias
+        client.setReadyCheck(this::isWriteIndexResolved);
 
-            client = new ElasticSearchLogClient(elasticSearchUrl);
-            if (!client.isLogIndexExist(index)) {
-                client.createLogIndex(index);
+        try {
+            synchronized (this) {
+                resolveMillis = System.currentTimeMillis();
+                resolveWriteIndex();
             }
         } catch (IOException e) {
+            // Cluster unreachable, resolved once events are sent
             e.printStackTrace();
         }
     }
 
     /**
-     * Method allows to set index name, where to put log messages
-     * In case if some messages already was written on old index
-     * they will be moved (reindex) to new index and delete old
-     * index.
+     * Check if the index behind the alias is known, else try to resolve it
+     * at most every resolve interval
+     */
+    private boolean isWriteIndexResolved() {
+        if (writeIndex != null) {
+            return true;
+        }
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (writeIndex == null && now - resolveMillis >= RESOLVE_INTERVAL) {
+                resolveMillis = now;
+                try {
+                    resolveWriteIndex();
+                } catch (IOException e) {
+                    // Still unreachable, events are spilled or dropped
+                }
+            }
+            return writeIndex != null;
+        }
+    }
+
+    /**
+     * Find the index behind the alias, creating both if needed, caller
+     * must hold this lock
+     */
+    private void resolveWriteIndex() throws IOException {
+        String resolved = client.getLogAliasWriteIndex(index);
+        if (resolved != null) {
+            aliased = true;
+        } else if (client.isLogIndexExist(index)) {
+            // Index created before aliases, renames add aliases to it
+            resolved = index;
+            aliased = false;
+        } else {
+            resolved = newIndexName(index);
+            client.createLogIndex(resolved, index);
+            aliased = true;
+        }
+        writeIndex = resolved;
+    }
+
+    /**
+     * Method allows to set index name, where to put log messages.
+     * The name is an alias, so it is atomically moved to the index holding
+     * the messages written so far, without copying them.
      *
      * @param newIndex      new name of index
-     * @return
+     * @return              true if the index was renamed
      */
     public boolean renameIndex(String newIndex) {
+        return renameIndex(newIndex, false);
+    }
+
+    /**
+     * Method allows to set index name, where to put log messages.
+     * The name is an alias, so it is atomically moved to the index holding
+     * the messages written so far.
+     *
+     * With reindex, new messages go to a new index and the old ones are
+     * copied there by a throttled background task on the cluster. The old
+     * index is deleted once the copy completes, meanwhile the new name
+     * reads both indices and copied messages appear twice. Refused while
+     * messages spilled to disk are not replayed, as they would reach the
+     * old index after the copy started.
+     *
+     * @param newIndex      new name of index
+     * @param reindex       true to also move messages to a new index
+     * @return              true if the index was renamed
+     */
+    public synchronized boolean renameIndex(String newIndex, boolean reindex) {
         if (client == null || Strings.isBlank(newIndex) || stopped) {
             return false;
         }
 
-        // ElasticSearch doesn't have renaming operation, so we need to create new index,
-        // move all documents to new index and delete old index.
-        try {
-            if (!client.isLogIndexExist(newIndex)) {
-                client.createLogIndex(newIndex);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        // The new name would not cover the documents still being copied
+        if (reindexTaskId != null) {
+            return false;
+        }
+
+        // Spilled events target the old name, they would miss the copy
+        if (reindex && client.isSpilling()) {
+            return false;
         }
 
-        String oldIndex = this.index;
-        this.index = newIndex;
+        try {
+            // Offline at start, the old name needs its index first
+            if (writeIndex == null) {
+                resolveMillis = System.currentTimeMillis();
+                resolveWriteIndex();
+            }
 
-        // Since moving documents can take much time, we run this task in separated
-        // thread as async operation.
-        Executors.newSingleThreadExecutor().execute(() -> {
+            // Buffered events target the old name, send them first. A failure
+            // of earlier requests is unrelated to the rename, report it only
             try {
-                // Send all buffered events to elasticsearch before switching to new index
                 client.flushLogEvents();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
 
-                // After flush, documents have to be processed by elasticsearch node
-                // so we wait for 3 seconds before reindex. I wasn't able to find any
-                // better solution.
-                Thread.sleep(3000);
+            // Spilled events too, so the old name is kept until they are replayed
+            String oldAlias = aliased && !client.isSpilling() ? index : null;
 
-                // if prev index exist - reindex documents to new index
-                if (oldIndex != null) {
-                    client.reIndexLog(oldIndex, newIndex);
-                    client.deleteLogIndex(oldIndex);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+            if (reindex && client.isSpilling()) {
+                // Started spilling while flushing
+                return false;
+            } else if (reindex) {
+                String oldIndex = writeIndex;
+                String newWriteIndex = newIndexName(newIndex);
+                client.createLogIndex(newWriteIndex);
+                client.moveLogAlias(oldAlias, newIndex, oldIndex, newWriteIndex);
+                writeIndex = newWriteIndex;
+
+                reindexTaskId = client.startReIndexLog(oldIndex, newWriteIndex, REINDEX_REQUESTS_PER_SECOND);
+                scheduleReindexCheck(oldIndex);
+            } else {
+                client.moveLogAlias(oldAlias, newIndex, writeIndex);
             }
-        });
 
-        return true;
+            index = newIndex;
+            aliased = true;
+            return true;
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Check the reindex task later, caller must hold this lock
+     *
+     * @param oldIndex      index to delete once the task completes
+     */
+    private void scheduleReindexCheck(String oldIndex) {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "LoggerReindex");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        executor.schedule(() -> checkReindex(oldIndex), REINDEX_CHECK_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Delete the old index once the reindex task completed
+     */
+    private synchronized void checkReindex(String oldIndex) {
+        if (stopped) {
+            return;
+        }
+
+        boolean completed;
+        try {
+            completed = client.isTaskCompleted(reindexTaskId);
+        } catch (IOTaskFailedException e) {
+            // Documents not copied are still in the old index, which is kept
+            reindexTaskId = null;
+            e.printStackTrace();
+            return;
+        } catch (IOException e) {
+            // Cluster unreachable, check again later
+            completed = false;
+        }
+
+        if (!completed) {
+            scheduleReindexCheck(oldIndex);
+            return;
+        }
+
+        reindexTaskId = null;
+
+        try {
+            client.deleteLogIndex(oldIndex);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Get a new index name for given alias
+     */
+    private static String newIndexName(String alias) {
+        return alias + "-" + System.currentTimeMillis();
     }
 }
@@ -0,0 +1,10 @@
+package org.gmagnotta.log.impl.elasticsearch;
+
+import java.io.IOException;
+
+public class IOTaskFailedException extends IOException {
+
+    public IOTaskFailedException(String taskId, String task) {
+        super("Task " + taskId + " completed with failures: " + task);
+    }
+}
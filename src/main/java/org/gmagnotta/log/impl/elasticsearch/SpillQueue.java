@@ -0,0 +1,253 @@
+package org.gmagnotta.log.impl.elasticsearch;
+
+import org.gmagnotta.log.impl.filesystem.FileSystemLogStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Append-only on-disk queue of bulk actions, used by {@link BulkProcessor}
+ * while elasticsearch can't keep up or is unreachable.
+ *
+ * Actions are appended to the segments of a {@link FileSystemLogStore}, which
+ * rotates them and caps their total size: when the budget is exceeded the
+ * oldest segments, and the actions they hold, are dropped. Actions are read
+ * back in order from a cursor, segments fully read are deleted. The cursor is
+ * kept in memory, so after a restart the queue is read again from the oldest
+ * segment and some actions may be sent twice. A crash may leave a truncated
+ * action at the end of the last segment, which is skipped: actions appended
+ * after a restart go to a new segment, so they are not joined to it.
+ */
+public class SpillQueue {
+
+    private static final int READ_SIZE = 64 * 1024;
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private final FileSystemLogStore logStore;
+
+    // Access is guarded by this
+    private String activeSegmentName;
+    private FileChannel activeSegmentChannel;
+    private String cursorSegmentName;
+    private long cursorOffset;
+    private long readOffset;
+    private boolean recovered;
+
+    /**
+     * Constructor
+     *
+     * @param folder            folder holding the queue segments
+     * @param maxTotalSize      max size of the queue in bytes
+     */
+    public SpillQueue(File folder, long maxTotalSize) {
+        if (maxTotalSize <= 0) {
+            throw new IllegalArgumentException("Max total size must be positive");
+        }
+
+        // Several segments fit in the budget, so eviction drops a small part
+        int maxSegmentSize = (int) Math.max(1024, Math.min(MAX_SEGMENT_SIZE, maxTotalSize / 8));
+
+        logStore = new FileSystemLogStore(maxSegmentSize, Integer.MAX_VALUE, 0, Deflater.DEFAULT_COMPRESSION,
+                maxTotalSize, folder);
+    }
+
+    /**
+     * Append the actions held by given buffer
+     *
+     * @param bulk              the actions to append
+     * @throws IOException      if an error occurs writing the queue
+     */
+    synchronized void append(BulkBuffer bulk) throws IOException {
+        append(bulk.getBuffer(), 0, bulk.size());
+    }
+
+    /**
+     * Append whole actions, each made of an action line and a document line
+     */
+    synchronized void append(byte[] bytes, int offset, int length) throws IOException {
+        if (!recovered) {
+            // The last segment of a previous run may end with a truncated action
+            List<String> segmentNames = logStore.getReversedOrderedLogFileNames();
+            if (!segmentNames.isEmpty() && logStore.getLogFileSize(segmentNames.get(segmentNames.size() - 1)) > 0) {
+                logStore.rotateLogFile(System.currentTimeMillis());
+            }
+            recovered = true;
+        }
+
+        String segmentName = logStore.getActiveLogFileName();
+
+        if (!segmentName.equals(activeSegmentName)) {
+            closeActiveSegment();
+            activeSegmentChannel = logStore.getLogFileChannel(segmentName);
+            activeSegmentName = segmentName;
+        }
+
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes, offset, length);
+        while (byteBuffer.hasRemaining()) {
+            activeSegmentChannel.write(byteBuffer);
+        }
+
+        logStore.onBytesWritten(segmentName, length);
+    }
+
+    /**
+     * Read next actions from the cursor into given buffer. The cursor moves
+     * only on {@link #commit()}, so reading again without commit returns the
+     * same actions
+     *
+     * @param bulk              the buffer receiving the actions
+     * @param maxActions        max number of actions to read
+     * @return                  the number of actions read
+     * @throws IOException      if an error occurs reading the queue
+     */
+    synchronized int read(BulkBuffer bulk, int maxActions) throws IOException {
+        while (true) {
+            List<String> segmentNames = logStore.getReversedOrderedLogFileNames();
+
+            if (segmentNames.isEmpty()) {
+                return 0;
+            }
+
+            if (cursorSegmentName == null || !segmentNames.contains(cursorSegmentName)) {
+                // Start over from the oldest segment, the cursor one may be evicted
+                cursorSegmentName = segmentNames.get(0);
+                cursorOffset = 0;
+            }
+
+            long size = logStore.getLogFileSize(cursorSegmentName);
+
+            if (cursorOffset < size) {
+                readOffset = cursorOffset + read(cursorSegmentName, cursorOffset, size, bulk, maxActions);
+                return bulk.getActionCount();
+            }
+
+            if (cursorSegmentName.equals(segmentNames.get(segmentNames.size() - 1))) {
+                // Everything is read
+                readOffset = cursorOffset;
+                return 0;
+            }
+
+            // Older segment fully read
+            logStore.deleteLogFile(cursorSegmentName);
+            cursorSegmentName = null;
+        }
+    }
+
+    /**
+     * Move the cursor past the actions returned by last read
+     */
+    synchronized void commit() {
+        cursorOffset = readOffset;
+    }
+
+    /**
+     * Check if every action has been read and committed. An empty queue
+     * deletes its last segment, so it takes no space
+     *
+     * @return                  true if there is nothing to read
+     * @throws IOException      if an error occurs deleting the last segment
+     */
+    synchronized boolean isEmpty() throws IOException {
+        List<String> segmentNames = logStore.getReversedOrderedLogFileNames();
+
+        if (segmentNames.isEmpty()) {
+            return true;
+        }
+
+        if (segmentNames.size() > 1 || !segmentNames.get(0).equals(cursorSegmentName)
+                || cursorOffset < logStore.getLogFileSize(cursorSegmentName)) {
+            return false;
+        }
+
+        closeActiveSegment();
+        logStore.deleteLogFile(cursorSegmentName);
+        cursorSegmentName = null;
+        cursorOffset = 0;
+
+        return true;
+    }
+
+    /**
+     * Get the size of the queue, including actions already read
+     *
+     * @return                  the size in bytes
+     * @throws IOException      if an error occurs reading the queue
+     */
+    public long getSize() throws IOException {
+        return logStore.getTotalSize();
+    }
+
+    /**
+     * Close the queue, actions are kept on disk
+     *
+     * @throws IOException      if an error occurs closing the active segment
+     */
+    public synchronized void close() throws IOException {
+        closeActiveSegment();
+    }
+
+    /**
+     * Read whole actions of given segment into given buffer
+     *
+     * @return                  the number of bytes consumed
+     */
+    private long read(String segmentName, long offset, long size, BulkBuffer bulk, int maxActions) throws IOException {
+        try (FileChannel channel = logStore.getLogFileReadChannel(segmentName)) {
+            ByteBuffer byteBuffer = ByteBuffer.allocate((int) Math.min(READ_SIZE, size - offset));
+            long consumed = 0;
+
+            while (bulk.getActionCount() < maxActions && offset + consumed < size) {
+                byteBuffer.clear();
+                byteBuffer.limit((int) Math.min(byteBuffer.capacity(), size - offset - consumed));
+                while (byteBuffer.hasRemaining() && channel.read(byteBuffer, offset + consumed + byteBuffer.position()) > 0) {
+                    // Read until the buffer is full
+                }
+
+                byte[] bytes = byteBuffer.array();
+                int length = byteBuffer.position();
+                int actionStart = 0;
+                int lines = 0;
+
+                for (int i = 0; i < length && bulk.getActionCount() < maxActions; i++) {
+                    // Two lines per action
+                    if (bytes[i] == '\n' && ++lines == 2) {
+                        bulk.startAction();
+                        bulk.write(bytes, actionStart, i + 1 - actionStart);
+                        actionStart = i + 1;
+                        lines = 0;
+                    }
+                }
+
+                if (actionStart == 0) {
+                    if (length == byteBuffer.capacity() && offset + consumed + length < size) {
+                        // Action larger than the buffer
+                        byteBuffer = ByteBuffer.allocate(byteBuffer.capacity() * 2);
+                        continue;
+                    }
+
+                    // Truncated action left by a crash
+                    return size - offset;
+                }
+
+                consumed += actionStart;
+            }
+
+            return consumed;
+        }
+    }
+
+    private void closeActiveSegment() throws IOException {
+        if (activeSegmentChannel != null) {
+            try {
+                activeSegmentChannel.close();
+            } finally {
+                activeSegmentChannel = null;
+                activeSegmentName = null;
+            }
+        }
+    }
+}
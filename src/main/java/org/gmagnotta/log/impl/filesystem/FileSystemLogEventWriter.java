@@ -1,44 +1,138 @@
 package org.gmagnotta.log.impl.filesystem;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
+import org.gmagnotta.log.BatchLogEventWriter;
+import org.gmagnotta.log.Layout;
 import org.gmagnotta.log.LogEvent;
-import org.gmagnotta.log.LogEventWriter;
+import org.gmagnotta.log.impl.layout.DefaultLayout;
 
-public class FileSystemLogEventWriter implements LogEventWriter {
+public class FileSystemLogEventWriter implements BatchLogEventWriter {
+
+	private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
 
 	private FileSystemLogStore logStore;
-	private Thread thread;
 	private FileSystemSpooler fileSystemSpooler;
 
 	public FileSystemLogEventWriter(FileSystemLogStore logStore) {
 
+		this(logStore, new DefaultLayout());
+
+	}
+
+	/**
+	 * Create new writer that formats lines with given layout
+	 * 
+	 * @param logStore
+	 *            the log store
+	 * @param layout
+	 *            the layout
+	 */
+	public FileSystemLogEventWriter(FileSystemLogStore logStore, Layout layout) {
+
+		this(logStore, layout, FlushPolicy.EVERY_BATCH);
+
+	}
+
+	/**
+	 * Create new writer
+	 * 
+	 * @param logStore
+	 *            the log store
+	 * @param layout
+	 *            the layout
+	 * @param flushPolicy
+	 *            when buffered lines are written to the log file
+	 */
+	public FileSystemLogEventWriter(FileSystemLogStore logStore, Layout layout, FlushPolicy flushPolicy) {
+
+		this(logStore, layout, flushPolicy, SyncPolicy.none());
+
+	}
+
+	/**
+	 * Create new writer
+	 * 
+	 * @param logStore
+	 *            the log store
+	 * @param layout
+	 *            the layout
+	 * @param flushPolicy
+	 *            when buffered lines are written to the log file
+	 * @param syncPolicy
+	 *            when the log file is forced to disk
+	 */
+	public FileSystemLogEventWriter(FileSystemLogStore logStore, Layout layout, FlushPolicy flushPolicy,
+			SyncPolicy syncPolicy) {
+
+		this(logStore, layout, flushPolicy, syncPolicy, WriteMode.CHANNEL);
+
+	}
+
+	/**
+	 * Create new writer
+	 * 
+	 * @param logStore
+	 *            the log store
+	 * @param layout
+	 *            the layout
+	 * @param flushPolicy
+	 *            when buffered lines are written to the log file
+	 * @param syncPolicy
+	 *            when the log file is forced to disk
+	 * @param writeMode
+	 *            how lines are appended to the log file
+	 */
+	public FileSystemLogEventWriter(FileSystemLogStore logStore, Layout layout, FlushPolicy flushPolicy,
+			SyncPolicy syncPolicy, WriteMode writeMode) {
+
 		this.logStore = logStore;
-		this.fileSystemSpooler = new FileSystemSpooler(logStore);
+		this.fileSystemSpooler = new FileSystemSpooler(logStore, layout, flushPolicy, syncPolicy, writeMode);
 
-		thread = new Thread(fileSystemSpooler, "FileSystemSpooler");
-		thread.start();
+	}
+
+	@Override
+	public void write(List<LogEvent> logEvents) {
+
+		fileSystemSpooler.write(logEvents);
 
 	}
 
 	@Override
 	public void write(LogEvent log) {
 
-		fileSystemSpooler.add(log);
+		fileSystemSpooler.write(Collections.singletonList(log));
 
 	}
 
 	@Override
 	public void stop() {
 
-		// Interrupt spooler
-		thread.interrupt();
+		try {
+
+			// Write buffered lines and release the active log file
+			fileSystemSpooler.close();
+
+		} catch (IOException ex) {
+
+			// Lines still buffered are lost
+
+		}
 
 	}
 
 	/**
-	 * Export log files data to given output stream
+	 * Export log files data to given output stream, archived log files are
+	 * decompressed
 	 * 
 	 * @param outputStream
 	 *            the target output stream
@@ -47,29 +141,173 @@ public class FileSystemLogEventWriter implements LogEventWriter {
 	 */
 	public synchronized void export(OutputStream outputStream) throws IOException {
 
-		// Get log file names
-		List<String> logFileNames = logStore.getReversedOrderedLogFileNames();
+		// Export buffered lines too
+		fileSystemSpooler.flush();
+
+		// Archived log files are older
+		for (String logFileName : logStore.getReversedOrderedArchivedLogFileNames()) {
+
+			// Export archived log file
+			export(logFileName, Long.MAX_VALUE, outputStream);
+
+		}
 
-		for (String logFileName : logFileNames) {
+		for (String logFileName : logStore.getReversedOrderedLogFileNames()) {
 
-			// Export log file
-			export(logFileName, outputStream);
+			// Export log file, a mapped one is preallocated past its data
+			export(logFileName, logStore.getLogFileSize(logFileName), outputStream);
 
 		}
 
 	}
 	
+	/**
+	 * Export log files data selected by given filter to given channel. Log
+	 * files, or their part in the time range, are transferred from the file
+	 * system to the channel, without copies in the JVM, unless they are
+	 * archived, filtered by line or compressed. Export doesn't block writes,
+	 * log files rotated or deleted meanwhile are exported as far as they are
+	 * still readable
+	 * 
+	 * @param channel
+	 *            the target channel, left open
+	 * @param filter
+	 *            selects the exported data
+	 * @param compress
+	 *            true to gzip the whole exported stream
+	 * @throws IOException
+	 *             if an error occurs exporting log files data
+	 */
+	public void export(WritableByteChannel channel, LogExportFilter filter, boolean compress) throws IOException {
+
+		// Export buffered lines too
+		fileSystemSpooler.flush();
+
+		// Archived log files are older
+		List<String> archivedLogFileNames = logStore.getReversedOrderedArchivedLogFileNames();
+
+		List<String> logFileNames = new ArrayList<>(archivedLogFileNames);
+		logFileNames.addAll(logStore.getReversedOrderedLogFileNames());
+
+		GZIPOutputStream gzipOutputStream = null;
+
+		if (compress) {
+
+			gzipOutputStream = new GZIPOutputStream(Channels.newOutputStream(channel), EXPORT_BUFFER_SIZE);
+			channel = Channels.newChannel(gzipOutputStream);
+
+		}
+
+		long startMillis = getLogFileMillis(logFileNames, 0);
+
+		for (int i = 0; i < logFileNames.size(); i++) {
+
+			// A log file holds data until the next one is created
+			long endMillis = getLogFileMillis(logFileNames, i + 1);
+
+			if (filter.accept(startMillis, endMillis)) {
+
+				export(logFileNames.get(i), filter, channel);
+
+			}
+
+			startMillis = endMillis;
+
+		}
+
+		if (gzipOutputStream != null) {
+
+			// Write the gzip trailer, the target channel stays open
+			gzipOutputStream.finish();
+
+		}
+
+	}
+
+	/**
+	 * Export data selected by given filter from log file with given name to
+	 * given channel
+	 * 
+	 * @param logFileName
+	 *            the log file name
+	 * @param filter
+	 *            selects the exported data
+	 * @param channel
+	 *            the target channel
+	 * @throws IOException
+	 *             if an error occurs exporting log file data
+	 */
+	private void export(String logFileName, LogExportFilter filter, WritableByteChannel channel)
+			throws IOException {
+
+		if (!filter.isLineFilter()) {
+
+			// Write log file name
+			writeFully(ByteBuffer.wrap(logFileName.getBytes()), channel);
+
+			try {
+
+				// Transfer the part in the time range
+				logStore.query(logFileName, filter.getFromMillis(), filter.getToMillis(), channel);
+
+			} catch (FileNotFoundException ex) {
+
+				// Deleted meanwhile
+
+			}
+
+			return;
+
+		}
+
+		InputStream inputStream = null;
+
+		try {
+
+			// Get input stream from the part in the time range
+			inputStream = logStore.getLogFileInputStream(logFileName, filter.getFromMillis(), filter.getToMillis());
+
+		} catch (FileNotFoundException ex) {
+
+			// Deleted meanwhile
+			return;
+
+		}
+
+		try {
+
+			OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(channel),
+					EXPORT_BUFFER_SIZE);
+
+			// Write log file name
+			outputStream.write(logFileName.getBytes());
+
+			// Transfer selected lines
+			transfer(new BufferedInputStream(inputStream, EXPORT_BUFFER_SIZE), outputStream, filter);
+
+			outputStream.flush();
+
+		} finally {
+
+			inputStream.close();
+
+		}
+
+	}
+
 	/**
 	 * Export data from log file with given name to given output stream
 	 * 
 	 * @param logFileName
 	 *            the log file name
+	 * @param length
+	 *            the max number of bytes to export
 	 * @param outputStream
 	 *            the target output stream
 	 * @throws IOException
 	 *             if an error occurs exporting log file dra
 	 */
-	private void export(String logFileName, OutputStream outputStream) throws IOException {
+	private void export(String logFileName, long length, OutputStream outputStream) throws IOException {
 
 		InputStream inputStream = null;
 
@@ -79,8 +317,16 @@ public class FileSystemLogEventWriter implements LogEventWriter {
 		// Get input stream from log file
 		inputStream = logStore.getLogFileInputStream(logFileName);
 
-		// Transfer data
-		transfer(inputStream, outputStream, 64 * 1024);
+		try {
+
+			// Transfer data
+			transfer(inputStream, outputStream, length, 64 * 1024);
+
+		} finally {
+
+			inputStream.close();
+
+		}
 
 	}
 	
@@ -91,12 +337,15 @@ public class FileSystemLogEventWriter implements LogEventWriter {
 	 *            input stream from which read data
 	 * @param outputStream
 	 *            output stream on which write data
+	 * @param maxLength
+	 *            the max number of bytes to transfer
 	 * @param bufferSize
 	 *            buffer size
 	 * @throws IOException
 	 *             if an error occurs during transfer
 	 */
-	private static void transfer(InputStream inputStream, OutputStream outputStream, int bufferSize) throws IOException {
+	private static void transfer(InputStream inputStream, OutputStream outputStream, long maxLength,
+			int bufferSize) throws IOException {
 
 		// Create buffer
 		byte[] buffer = new byte[bufferSize];
@@ -104,11 +353,124 @@ public class FileSystemLogEventWriter implements LogEventWriter {
 		int length = -1;
 
 		// Read from input stream
-		while ((length = inputStream.read(buffer)) != -1) {
+		while (maxLength > 0 && (length = inputStream.read(buffer, 0, (int) Math.min(bufferSize, maxLength))) != -1) {
 
 			// Write to output stream
 			outputStream.write(buffer, 0, length);
 
+			maxLength -= length;
+
+		}
+
+	}
+
+	/**
+	 * Transfer log lines selected by given filter from input stream to output
+	 * stream
+	 * 
+	 * @param inputStream
+	 *            input stream from which read lines
+	 * @param outputStream
+	 *            output stream on which write lines
+	 * @param filter
+	 *            selects the log lines
+	 * @throws IOException
+	 *             if an error occurs during transfer
+	 */
+	private static void transfer(InputStream inputStream, OutputStream outputStream, LogExportFilter filter)
+			throws IOException {
+
+		ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+
+		// Lines before the first log record belong to the previous log file
+		boolean selected = false;
+
+		while (true) {
+
+			int b = inputStream.read();
+
+			if (b != -1) {
+
+				line.write(b);
+
+				if (b != '\n') {
+					continue;
+				}
+
+			}
+
+			if (line.size() > 0) {
+
+				// Bytes map to chars, so level and markers are found in any
+				// ASCII compatible charset
+				Boolean accepted = filter.accept(line.toString(StandardCharsets.ISO_8859_1.name()));
+
+				// Lines without a level follow the log record
+				if (accepted != null) {
+					selected = accepted.booleanValue();
+				}
+
+				if (selected) {
+					line.writeTo(outputStream);
+				}
+
+				line.reset();
+
+			}
+
+			if (b == -1) {
+				break;
+			}
+
+		}
+
+	}
+
+	/**
+	 * Write the whole content of given buffer to given channel
+	 * 
+	 * @param buffer
+	 *            the buffer
+	 * @param channel
+	 *            the target channel
+	 * @throws IOException
+	 *             if an error occurs writing
+	 */
+	private static void writeFully(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+
+		while (buffer.hasRemaining()) {
+
+			channel.write(buffer);
+
+		}
+
+	}
+
+	/**
+	 * Get the creation time of the log file at given index
+	 * 
+	 * @param logFileNames
+	 *            the log file names from the older to the newest
+	 * @param index
+	 *            the index
+	 * @return the creation time, {@link Long#MAX_VALUE} past the newest log
+	 *         file
+	 */
+	private static long getLogFileMillis(List<String> logFileNames, int index) {
+
+		if (index >= logFileNames.size()) {
+			return Long.MAX_VALUE;
+		}
+
+		try {
+
+			return LogFileNameUtil.getLogFileDate(logFileNames.get(index)).getTime();
+
+		} catch (ParseException ex) {
+
+			// Log store only indexes valid log file names
+			throw new IllegalStateException(ex);
+
 		}
 
 	}
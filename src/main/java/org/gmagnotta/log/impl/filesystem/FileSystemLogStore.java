@@ -2,25 +2,83 @@ package org.gmagnotta.log.impl.filesystem;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * The standard file system log store implementation
+ * The standard file system log store implementation.<br>
+ * The log files and their sizes are kept in an in-memory index, built from
+ * the log folder on first use and updated as log files are created, written
+ * and deleted, so rotation decisions don't touch the file system.<br>
+ * Log files exceeding the max file count can be archived: they are gzipped on
+ * a low priority background thread, so writers never wait for compression.<br>
+ * An optional byte budget caps the size of log files and archives together:
+ * it is checked from the indexed sizes as bytes are written and the oldest
+ * files are deleted first.<br>
+ * Log files can also be rotated on a time window; the end of the window of
+ * the active log file is computed once, when it is created. Log file names
+ * hold the creation time and a sequence number.<br>
+ * Writers keep a sparse time index next to each log file, one entry every
+ * given number of events, so time range queries read only the matching part
+ * of log files
  */
 public class FileSystemLogStore {
 
+	private static final int ARCHIVE_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The default number of events between time index entries
+	 */
+	public static final int DEFAULT_INDEX_INTERVAL = 64;
+
+	/**
+	 * The size of a time index entry: the event time and the offset of its
+	 * line in the log file
+	 */
+	static final int INDEX_ENTRY_SIZE = 2 * Long.BYTES;
+
 	private int maxFileSize;
 	private int maxFileCount;
+	private int maxArchiveCount;
+	private int compressionLevel;
+	private long maxTotalSize;
+	private RotationPeriod rotationPeriod;
+	private int indexInterval;
 
 	private File logFolder;
-	
+
+	// Log files from the oldest to the newest, access is guarded by this
+	private List<LogSegment> logSegments;
+	private List<LogSegment> archivedLogSegments;
+	private long totalSize;
+	private long nextSequence;
+	private long nextRotationMillis;
+	private ExecutorService archiveExecutor;
+
 	/**
 	 * Create new file system log store
 	 * 
@@ -33,8 +91,138 @@ public class FileSystemLogStore {
 	 */
 	public FileSystemLogStore(int maxFileSize, int maxFileCount, File logFolder) {
 
+		this(maxFileSize, maxFileCount, 0, Deflater.DEFAULT_COMPRESSION, logFolder);
+
+	}
+
+	/**
+	 * Create new file system log store that archives old log files
+	 * 
+	 * @param maxFileSize
+	 *            the max file size
+	 * @param maxFileCount
+	 *            the max file count
+	 * @param maxArchiveCount
+	 *            the max archived file count, 0 to delete old log files
+	 *            without archiving them
+	 * @param compressionLevel
+	 *            the {@link Deflater} compression level of archives, from 0
+	 *            to 9 or -1 for the default
+	 * @param logFolder
+	 *            the log files folder
+	 */
+	public FileSystemLogStore(int maxFileSize, int maxFileCount, int maxArchiveCount, int compressionLevel,
+			File logFolder) {
+
+		this(maxFileSize, maxFileCount, maxArchiveCount, compressionLevel, 0, logFolder);
+
+	}
+
+	/**
+	 * Create new file system log store with a byte budget
+	 * 
+	 * @param maxFileSize
+	 *            the max file size
+	 * @param maxFileCount
+	 *            the max file count
+	 * @param maxArchiveCount
+	 *            the max archived file count, 0 to delete old log files
+	 *            without archiving them
+	 * @param compressionLevel
+	 *            the {@link Deflater} compression level of archives, from 0
+	 *            to 9 or -1 for the default
+	 * @param maxTotalSize
+	 *            the max size of log files and archives together, 0 for no
+	 *            limit. It should be well above the max file size, as the
+	 *            active log file is never deleted
+	 * @param logFolder
+	 *            the log files folder
+	 */
+	public FileSystemLogStore(int maxFileSize, int maxFileCount, int maxArchiveCount, int compressionLevel,
+			long maxTotalSize, File logFolder) {
+
+		this(maxFileSize, maxFileCount, maxArchiveCount, compressionLevel, maxTotalSize, RotationPeriod.NONE,
+				logFolder);
+
+	}
+
+	/**
+	 * Create new file system log store with a byte budget and time based
+	 * rotation
+	 * 
+	 * @param maxFileSize
+	 *            the max file size
+	 * @param maxFileCount
+	 *            the max file count
+	 * @param maxArchiveCount
+	 *            the max archived file count, 0 to delete old log files
+	 *            without archiving them
+	 * @param compressionLevel
+	 *            the {@link Deflater} compression level of archives, from 0
+	 *            to 9 or -1 for the default
+	 * @param maxTotalSize
+	 *            the max size of log files and archives together, 0 for no
+	 *            limit. It should be well above the max file size, as the
+	 *            active log file is never deleted
+	 * @param rotationPeriod
+	 *            the time window of log files, combined with the max file
+	 *            size
+	 * @param logFolder
+	 *            the log files folder
+	 */
+	public FileSystemLogStore(int maxFileSize, int maxFileCount, int maxArchiveCount, int compressionLevel,
+			long maxTotalSize, RotationPeriod rotationPeriod, File logFolder) {
+
+		this(maxFileSize, maxFileCount, maxArchiveCount, compressionLevel, maxTotalSize, rotationPeriod,
+				DEFAULT_INDEX_INTERVAL, logFolder);
+
+	}
+
+	/**
+	 * Create new file system log store with a byte budget, time based
+	 * rotation and time index
+	 * 
+	 * @param maxFileSize
+	 *            the max file size
+	 * @param maxFileCount
+	 *            the max file count
+	 * @param maxArchiveCount
+	 *            the max archived file count, 0 to delete old log files
+	 *            without archiving them
+	 * @param compressionLevel
+	 *            the {@link Deflater} compression level of archives, from 0
+	 *            to 9 or -1 for the default
+	 * @param maxTotalSize
+	 *            the max size of log files and archives together, 0 for no
+	 *            limit. It should be well above the max file size, as the
+	 *            active log file is never deleted
+	 * @param rotationPeriod
+	 *            the time window of log files, combined with the max file
+	 *            size
+	 * @param indexInterval
+	 *            the number of events between time index entries, 0 to
+	 *            disable the time index
+	 * @param logFolder
+	 *            the log files folder
+	 */
+	public FileSystemLogStore(int maxFileSize, int maxFileCount, int maxArchiveCount, int compressionLevel,
+			long maxTotalSize, RotationPeriod rotationPeriod, int indexInterval, File logFolder) {
+
+		if (indexInterval < 0) {
+			throw new IllegalArgumentException("Invalid index interval: " + indexInterval);
+		}
+
+		if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+		}
+
 		this.maxFileSize = maxFileSize;
 		this.maxFileCount = maxFileCount;
+		this.maxArchiveCount = maxArchiveCount;
+		this.compressionLevel = compressionLevel;
+		this.maxTotalSize = maxTotalSize;
+		this.rotationPeriod = rotationPeriod;
+		this.indexInterval = indexInterval;
 		this.logFolder = logFolder;
 
 	}
@@ -46,13 +234,17 @@ public class FileSystemLogStore {
 	 * @throws IOException
 	 *             if an error occurs getting log file names
 	 */
-	public List<String> getOrderedLogFileNames() throws IOException {
+	public synchronized List<String> getOrderedLogFileNames() throws IOException {
 
-		// Get log file names
-		List<String> logFileNames = getLogFileNames();
+		List<LogSegment> logSegments = getLogSegments();
+
+		List<String> logFileNames = new ArrayList<>(logSegments.size());
 
-		// Order log file names
-		Collections.sort(logFileNames, new LogFileNameComparator());
+		for (int i = logSegments.size() - 1; i >= 0; i--) {
+
+			logFileNames.add(logSegments.get(i).getName());
+
+		}
 
 		return logFileNames;
 
@@ -65,13 +257,37 @@ public class FileSystemLogStore {
 	 * @throws IOException
 	 *             if an error occurs getting log file names
 	 */
-	public List<String> getReversedOrderedLogFileNames() throws IOException {
+	public synchronized List<String> getReversedOrderedLogFileNames() throws IOException {
 
-		// Get log file names
 		List<String> logFileNames = getOrderedLogFileNames();
 
-		// Order log file names
-		Collections.sort(logFileNames, new LogFileNameComparator(true));
+		Collections.reverse(logFileNames);
+
+		return logFileNames;
+
+	}
+
+	/**
+	 * Get list of archived log file names order from the older to the newest.
+	 * Names are the ones of the original log files, see
+	 * {@link #getLogFileInputStream(String)}
+	 * 
+	 * @return a list of log file names as {@link String}
+	 * @throws IOException
+	 *             if an error occurs getting archived log file names
+	 */
+	public synchronized List<String> getReversedOrderedArchivedLogFileNames() throws IOException {
+
+		// Build the indexes
+		getLogSegments();
+
+		List<String> logFileNames = new ArrayList<>(archivedLogSegments.size());
+
+		for (LogSegment logSegment : archivedLogSegments) {
+
+			logFileNames.add(logSegment.getName());
+
+		}
 
 		return logFileNames;
 
@@ -80,40 +296,37 @@ public class FileSystemLogStore {
 	/**
 	 * Get the active log file name, means the log file name that can be used in
 	 * order to append logs.<br>
-	 * Based on log file size limit and log file count limit this method will
-	 * create, store and delete log files.
+	 * Based on log file size limit, time window and log file count limit this
+	 * method will create, store and delete log files.
 	 * 
 	 * @return the active log file name
 	 * @throws IOException
 	 *             if an error occurs getting active file name
 	 */
-	public String getActiveLogFileName() throws IOException {
+	public synchronized String getActiveLogFileName() throws IOException {
 
-		// Get orderer log file names
-		List<String> logFileNames = getOrderedLogFileNames();
-
-		// Get log file name count
-		int logFileNameCount = logFileNames.size();
+		// Get log files
+		List<LogSegment> logSegments = getLogSegments();
 
-		if (logFileNameCount == 0) {
+		if (logSegments.isEmpty()) {
 
 			// Create new log file
-			String newLogFileName = createNewLogFile();
+			String newLogFileName = createNewLogFile(System.currentTimeMillis());
 
 			return newLogFileName;
 
 		} else {
 
-			// Get last log file name
-			String lastLogFileName = (String) logFileNames.get(0);
+			// Get last log file
+			LogSegment lastLogSegment = logSegments.get(logSegments.size() - 1);
 
-			// Get last log file size
-			long lastLogFileSize = getLogFileSize(lastLogFileName);
+			// Get last log file name
+			String lastLogFileName = lastLogSegment.getName();
 
-			if (lastLogFileSize > maxFileSize) {
+			if (lastLogSegment.getSize() > maxFileSize || System.currentTimeMillis() >= nextRotationMillis) {
 
 				// Create new log file
-				String newLogFileName = createNewLogFile();
+				String newLogFileName = createNewLogFile(System.currentTimeMillis());
 
 				return newLogFileName;
 
@@ -128,16 +341,96 @@ public class FileSystemLogStore {
 	}
 
 	/**
-	 * Create a new log file which name is base on current time
+	 * Close the active log file and create a new one. Writers call this
+	 * before a write that would take the active log file past the max file
+	 * size or its time window
+	 * 
+	 * @param timeMillis
+	 *            the time of the first event of the new log file
+	 * @return the new active log file name
+	 * @throws IOException
+	 *             if an error occurs creating new log file
+	 */
+	public synchronized String rotateLogFile(long timeMillis) throws IOException {
+
+		// Build the index
+		getLogSegments();
+
+		// The window of the new log file must hold the event
+		return createNewLogFile(Math.max(timeMillis, System.currentTimeMillis()));
+
+	}
+
+	/**
+	 * Get the time the active log file must be rotated at. Writers check it
+	 * against event times, to rotate in the middle of a batch
+	 * 
+	 * @return the end of the time window of the active log file in
+	 *         milliseconds since the epoch, {@link Long#MAX_VALUE} for none
+	 * @throws IOException
+	 *             if an error occurs building the index
+	 */
+	public synchronized long getNextRotationMillis() throws IOException {
+
+		// Build the index
+		getLogSegments();
+
+		return nextRotationMillis;
+
+	}
+
+	/**
+	 * Get the number of events between time index entries
+	 * 
+	 * @return the index interval, 0 if the time index is disabled
+	 */
+	public int getIndexInterval() {
+
+		return indexInterval;
+
+	}
+
+	/**
+	 * Get the max file size
+	 * 
+	 * @return the max file size
+	 */
+	public int getMaxFileSize() {
+
+		return maxFileSize;
+
+	}
+
+	/**
+	 * Get the size of log files, archives and their time indexes together, as
+	 * indexed
+	 * 
+	 * @return the total size
+	 * @throws IOException
+	 *             if an error occurs building the index
+	 */
+	public synchronized long getTotalSize() throws IOException {
+
+		// Build the index
+		getLogSegments();
+
+		return totalSize;
+
+	}
+
+	/**
+	 * Create a new log file which name is base on given time
 	 * 
+	 * @param timeMillis
+	 *            the creation time
 	 * @return the new log file name
 	 * @throws IOException
 	 *             if an error occurs creating new log file
 	 */
-	private String createNewLogFile() throws IOException {
+	private String createNewLogFile(long timeMillis) throws IOException {
 
-		// Create log file name
-		String logFileName = LogFileNameUtil.getLogFileName(new Date());
+		// Create log file name, the sequence number keeps names unique
+		String logFileName = LogFileNameUtil.getLogFileName(new Date(timeMillis), nextSequence);
 
 		// Create new log file
 		createLogFile(logFileName);
@@ -176,25 +469,180 @@ public class FileSystemLogStore {
 
 		for (String logFileName : logFileNames) {
 
-			// Archive log file
-			archive(logFileName);
+			if (maxArchiveCount > 0) {
 
-			// Delte log file
-			deleteLogFile(logFileName);
+				// Archive log file, it is deleted once compressed
+				archive(logFileName);
+
+			} else {
+
+				// Delte log file
+				deleteLogFile(logFileName);
+
+			}
 
 		}
 
 	}
 
 	/**
-	 * Archive log file with given name
+	 * Archive log file with given name. The log file moves from the log files
+	 * index to the archive index right away, compression happens in background
 	 * 
 	 * @param logFileName
 	 *            the log file name to be archived
 	 */
 	private void archive(String logFileName) {
 
-		// DO NOTHING
+		int index = indexOf(logFileName);
+
+		if (index < 0) {
+			return;
+		}
+
+		LogSegment logSegment = logSegments.remove(index);
+
+		archivedLogSegments.add(logSegment);
+
+		if (archiveExecutor == null) {
+
+			archiveExecutor = Executors.newSingleThreadExecutor(runnable -> {
+
+				Thread thread = new Thread(runnable, "FileSystemLogStore-archiver");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+
+				return thread;
+
+			});
+
+		}
+
+		archiveExecutor.execute(() -> compress(logSegment));
+
+	}
+
+	/**
+	 * Compress given log file to its archive and delete it, then apply the
+	 * archive retention. Runs on the archive thread
+	 * 
+	 * @param logSegment
+	 *            the log file to compress
+	 */
+	private void compress(LogSegment logSegment) {
+
+		String logFileName = logSegment.getName();
+
+		File logFile = new File(logFolder, logFileName);
+		File archiveFile = new File(logFolder, LogFileNameUtil.getArchiveFileName(logFileName));
+		File temporaryFile = new File(logFolder, archiveFile.getName() + ".tmp");
+
+		try {
+
+			// Compress to a temporary file, so a crash never leaves half an
+			// archive with a valid name
+			try (InputStream inputStream = new FileInputStream(logFile);
+					OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(temporaryFile),
+							ARCHIVE_BUFFER_SIZE) {
+
+						{
+							def.setLevel(compressionLevel);
+						}
+
+					}) {
+
+				byte[] buffer = new byte[ARCHIVE_BUFFER_SIZE];
+				int length;
+
+				while ((length = inputStream.read(buffer)) != -1) {
+					outputStream.write(buffer, 0, length);
+				}
+
+			}
+
+			synchronized (this) {
+
+				if (!archivedLogSegments.contains(logSegment)) {
+
+					// Evicted by the byte budget meanwhile
+					temporaryFile.delete();
+
+					return;
+
+				}
+
+				if (!temporaryFile.renameTo(archiveFile)) {
+					throw new IOException("an error occurs renaming archive: " + temporaryFile.getPath());
+				}
+
+				logFile.delete();
+
+				long archiveSize = archiveFile.length();
+
+				totalSize += archiveSize - logSegment.getSize();
+				logSegment.setSize(archiveSize);
+
+				// Apply retention, the oldest archives first
+				while (archivedLogSegments.size() > maxArchiveCount) {
+
+					deleteArchive(archivedLogSegments.remove(0));
+
+				}
+
+				enforceMaxTotalSize();
+
+			}
+
+		} catch (IOException ex) {
+
+			// Keep the uncompressed log file, it is still readable
+			temporaryFile.delete();
+
+		}
+
+	}
+
+	/**
+	 * Delete the archive of given log file, or the log file itself if it is
+	 * not compressed yet
+	 * 
+	 * @param logSegment
+	 *            the archived log file
+	 */
+	private void deleteArchive(LogSegment logSegment) {
+
+		totalSize -= logSegment.getSize() + logSegment.getIndexSize();
+
+		new File(logFolder, LogFileNameUtil.getArchiveFileName(logSegment.getName())).delete();
+		new File(logFolder, LogFileNameUtil.getIndexFileName(logSegment.getName())).delete();
+		new File(logFolder, logSegment.getName()).delete();
+
+	}
+
+	/**
+	 * Wait for the archive thread to compress pending log files and stop it.
+	 * The thread is started again on next rotation
+	 * 
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public void stop() throws InterruptedException {
+
+		ExecutorService executor;
+
+		synchronized (this) {
+
+			executor = archiveExecutor;
+			archiveExecutor = null;
+
+		}
+
+		if (executor != null) {
+
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+		}
 
 	}
 
@@ -226,7 +674,10 @@ public class FileSystemLogStore {
 	 * @see com.phoenix2.embedded.client.common.logger.impl.filesystem.LogStore#
 	 * createLogFile(java.lang.String)
 	 */
-	public void createLogFile(String logFileName) throws IOException {
+	public synchronized void createLogFile(String logFileName) throws IOException {
+
+		// Get log files
+		List<LogSegment> logSegments = getLogSegments();
 
 		// Get log file
 		File logFile = new File(logFolder, logFileName);
@@ -241,6 +692,26 @@ public class FileSystemLogStore {
 
 		}
 
+		// Add to index, usually as the newest
+		LogSegment logSegment = newLogSegment(logFileName, 0);
+
+		int index = logSegments.size();
+
+		while (index > 0 && logSegments.get(index - 1).compareTo(logSegment) > 0) {
+			index--;
+		}
+
+		logSegments.add(index, logSegment);
+
+		nextSequence = Math.max(nextSequence, logSegment.getSequence() + 1);
+
+		if (index == logSegments.size() - 1) {
+
+			// New active log file, compute the end of its window
+			nextRotationMillis = rotationPeriod.getNextBoundary(logSegment.getTimeMillis());
+
+		}
+
 	}
 
 	/*
@@ -249,13 +720,16 @@ public class FileSystemLogStore {
 	 * @see com.phoenix2.embedded.client.common.logger.impl.filesystem.LogStore#
 	 * deleteLogFile(java.lang.String)
 	 */
-	public void deleteLogFile(String logFileName) throws IOException {
+	public synchronized void deleteLogFile(String logFileName) throws IOException {
+
+		// Get log files
+		List<LogSegment> logSegments = getLogSegments();
 
 		// Get log file
 		File logFile = new File(logFolder, logFileName);
 
-		// Delete file
-		boolean result = logFile.delete();
+		// Delete file, it may have been removed by someone else
+		boolean result = logFile.delete() || !logFile.exists();
 
 		if (!result) {
 
@@ -264,6 +738,20 @@ public class FileSystemLogStore {
 
 		}
 
+		// The time index goes with the log file
+		new File(logFolder, LogFileNameUtil.getIndexFileName(logFileName)).delete();
+
+		// Remove from index
+		int index = indexOf(logFileName);
+
+		if (index >= 0) {
+
+			LogSegment logSegment = logSegments.remove(index);
+
+			totalSize -= logSegment.getSize() + logSegment.getIndexSize();
+
+		}
+
 	}
 
 	/*
@@ -272,7 +760,16 @@ public class FileSystemLogStore {
 	 * @see com.phoenix2.embedded.client.common.logger.impl.filesystem.LogStore#
 	 * getLogFileSize(java.lang.String)
 	 */
-	public long getLogFileSize(String logFileName) throws IOException {
+	public synchronized long getLogFileSize(String logFileName) throws IOException {
+
+		// Get log files
+		List<LogSegment> logSegments = getLogSegments();
+
+		int index = indexOf(logFileName);
+
+		if (index >= 0) {
+			return logSegments.get(index).getSize();
+		}
 
 		// Get log file
 		File logFile = new File(logFolder, logFileName);
@@ -284,41 +781,879 @@ public class FileSystemLogStore {
 
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Account bytes appended to the log file with given name. Writers must call
+	 * this after writing to a log file, so the index tracks its size
 	 * 
-	 * @see com.phoenix2.embedded.client.common.logger.impl.filesystem.LogStore#
-	 * getLogFileOutputStream(java.lang.String)
+	 * @param logFileName
+	 *            the log file name
+	 * @param byteCount
+	 *            the number of bytes written
+	 * @throws IOException
+	 *             if an error occurs building the index
 	 */
-	public OutputStream getLogFileOutputStream(String logFileName)
-			throws IOException {
+	public synchronized void onBytesWritten(String logFileName, long byteCount) throws IOException {
 
-		// Get log file
-		File logFile = new File(logFolder, logFileName);
+		// Get log files
+		List<LogSegment> logSegments = getLogSegments();
 
-		// Get file output stream
-		OutputStream outputStream = new FileOutputStream(logFile, true);
+		// The active log file is the newest, look at it first
+		for (int i = logSegments.size() - 1; i >= 0; i--) {
 
-		return outputStream;
+			LogSegment logSegment = logSegments.get(i);
 
-	}
+			if (logSegment.getName().equals(logFileName)) {
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see com.phoenix2.embedded.client.common.logger.impl.filesystem.LogStore#
-	 * getLogFileInputStream(java.lang.String)
-	 */
+				logSegment.setSize(logSegment.getSize() + byteCount);
+
+				totalSize += byteCount;
+
+				enforceMaxTotalSize();
+
+				return;
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Account bytes appended to the time index of the log file with given
+	 * name, so the byte budget covers time indexes too
+	 * 
+	 * @param logFileName
+	 *            the log file name
+	 * @param byteCount
+	 *            the number of bytes written
+	 * @throws IOException
+	 *             if an error occurs building the index
+	 */
+	public synchronized void onIndexBytesWritten(String logFileName, long byteCount) throws IOException {
+
+		// Get log files
+		List<LogSegment> logSegments = getLogSegments();
+
+		// The active log file is the newest, look at it first
+		for (int i = logSegments.size() - 1; i >= 0; i--) {
+
+			LogSegment logSegment = logSegments.get(i);
+
+			if (logSegment.getName().equals(logFileName)) {
+
+				logSegment.setIndexSize(logSegment.getIndexSize() + byteCount);
+
+				totalSize += byteCount;
+
+				enforceMaxTotalSize();
+
+				return;
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Get the index of log files, building it from the log folder on first use
+	 * 
+	 * @return the log files from the oldest to the newest
+	 * @throws IOException
+	 *             if an error occurs listing the log folder
+	 */
+	private List<LogSegment> getLogSegments() throws IOException {
+
+		if (logSegments == null) {
+
+			// Get log file names
+			List<String> logFileNames = getLogFileNames();
+
+			List<LogSegment> segments = new ArrayList<>(logFileNames.size());
+
+			for (String logFileName : logFileNames) {
+
+				segments.add(newLogSegment(logFileName, new File(logFolder, logFileName).length()));
+
+			}
+
+			// Order from the oldest to the newest
+			Collections.sort(segments);
+
+			if (!segments.isEmpty()) {
+
+				// The newest log file may be left preallocated by a crash
+				LogSegment newestLogSegment = segments.get(segments.size() - 1);
+
+				newestLogSegment.setSize(recover(new File(logFolder, newestLogSegment.getName())));
+
+			}
+
+			List<LogSegment> archivedSegments = new ArrayList<>();
+
+			for (File file : listFiles()) {
+
+				String fileName = file.getName();
+
+				if (LogFileNameUtil.isValidArchive(fileName)) {
+
+					archivedSegments.add(newLogSegment(LogFileNameUtil.getBasename(fileName), file.length()));
+
+				} else if (fileName.endsWith(".tmp")) {
+
+					// Left by a compression that didn't complete
+					file.delete();
+
+				}
+
+			}
+
+			Collections.sort(archivedSegments);
+
+			Map<String, LogSegment> segmentsByName = new HashMap<>();
+
+			for (LogSegment logSegment : segments) {
+				segmentsByName.put(logSegment.getName(), logSegment);
+			}
+
+			for (LogSegment logSegment : archivedSegments) {
+				segmentsByName.put(logSegment.getName(), logSegment);
+			}
+
+			for (File file : listFiles()) {
+
+				String fileName = file.getName();
+
+				if (LogFileNameUtil.isValidIndex(fileName)) {
+
+					LogSegment logSegment = segmentsByName.get(LogFileNameUtil.getBasename(fileName));
+
+					if (logSegment != null) {
+
+						logSegment.setIndexSize(file.length());
+
+					} else {
+
+						// Left by a log file deleted outside the store
+						file.delete();
+
+					}
+
+				}
+
+			}
+
+			logSegments = segments;
+			archivedLogSegments = archivedSegments;
+
+			totalSize = 0;
+			nextSequence = 1;
+
+			for (LogSegment logSegment : segments) {
+				totalSize += logSegment.getSize() + logSegment.getIndexSize();
+				nextSequence = Math.max(nextSequence, logSegment.getSequence() + 1);
+			}
+
+			for (LogSegment logSegment : archivedSegments) {
+				totalSize += logSegment.getSize() + logSegment.getIndexSize();
+				nextSequence = Math.max(nextSequence, logSegment.getSequence() + 1);
+			}
+
+			nextRotationMillis = segments.isEmpty() ? Long.MAX_VALUE
+					: rotationPeriod.getNextBoundary(segments.get(segments.size() - 1).getTimeMillis());
+
+			enforceMaxTotalSize();
+
+		}
+
+		return logSegments;
+
+	}
+
+	/**
+	 * Delete the oldest archives, then the oldest log files, until log files
+	 * and archives fit in the byte budget. The active log file is kept
+	 * 
+	 * @throws IOException
+	 *             if an error occurs deleting a log file
+	 */
+	private void enforceMaxTotalSize() throws IOException {
+
+		if (maxTotalSize <= 0) {
+			return;
+		}
+
+		while (totalSize > maxTotalSize) {
+
+			if (!archivedLogSegments.isEmpty()) {
+
+				deleteArchive(archivedLogSegments.remove(0));
+
+			} else if (logSegments.size() > 1) {
+
+				deleteLogFile(logSegments.get(0).getName());
+
+			} else {
+
+				// Only the active log file is left
+				return;
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Truncate the trailing zeros of given log file, left when a preallocated
+	 * log file was not closed. Log lines never end with a zero byte
+	 * 
+	 * @param logFile
+	 *            the log file
+	 * @return the log file size
+	 * @throws IOException
+	 *             if an error occurs reading or truncating the log file
+	 */
+	private static long recover(File logFile) throws IOException {
+
+		try (FileChannel fileChannel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+
+			long size = fileChannel.size();
+
+			ByteBuffer buffer = ByteBuffer.allocate(ARCHIVE_BUFFER_SIZE);
+
+			long end = size;
+
+			// Scan backward for the last byte of data
+			while (end > 0) {
+
+				long start = Math.max(0, end - buffer.capacity());
+
+				buffer.clear();
+				buffer.limit((int) (end - start));
+
+				while (buffer.hasRemaining()) {
+
+					if (fileChannel.read(buffer, start + buffer.position()) < 0) {
+						break;
+					}
+
+				}
+
+				int index = buffer.position() - 1;
+
+				while (index >= 0 && buffer.get(index) == 0) {
+					index--;
+				}
+
+				if (index >= 0) {
+					end = start + index + 1;
+					break;
+				}
+
+				end = start;
+
+			}
+
+			if (end < size) {
+				fileChannel.truncate(end);
+			}
+
+			return end;
+
+		}
+
+	}
+
+	/**
+	 * List the files in the log folder
+	 * 
+	 * @return the files
+	 * @throws IOException
+	 *             if an error occurs listing the log folder
+	 */
+	private File[] listFiles() throws IOException {
+
+		File[] files = logFolder.listFiles();
+
+		if (files == null) {
+			throw new IOException("an error occurs listing log folder");
+		}
+
+		return files;
+
+	}
+
+	/**
+	 * Get the position of given log file in the index
+	 * 
+	 * @param logFileName
+	 *            the log file name
+	 * @return the position or -1 if the log file is not indexed
+	 */
+	private int indexOf(String logFileName) {
+
+		for (int i = 0; i < logSegments.size(); i++) {
+
+			if (logSegments.get(i).getName().equals(logFileName)) {
+
+				return i;
+
+			}
+
+		}
+
+		return -1;
+
+	}
+
+	/**
+	 * Create the index entry of given log file
+	 * 
+	 * @param logFileName
+	 *            the log file name
+	 * @param size
+	 *            the log file size
+	 * @return the index entry
+	 * @throws IOException
+	 *             if the log file name is not valid
+	 */
+	private static LogSegment newLogSegment(String logFileName, long size) throws IOException {
+
+		try {
+
+			return new LogSegment(logFileName, LogFileNameUtil.getLogFileDate(logFileName).getTime(),
+					LogFileNameUtil.getLogFileSequence(logFileName), size);
+
+		} catch (ParseException ex) {
+
+			throw new IOException("invalid log file name: " + logFileName, ex);
+
+		}
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.phoenix2.embedded.client.common.logger.impl.filesystem.LogStore#
+	 * getLogFileOutputStream(java.lang.String)
+	 */
+	public OutputStream getLogFileOutputStream(String logFileName)
+			throws IOException {
+
+		// Get log file
+		File logFile = new File(logFolder, logFileName);
+
+		// Get file output stream
+		OutputStream outputStream = new FileOutputStream(logFile, true);
+
+		return outputStream;
+
+	}
+
+	/**
+	 * Open a channel that appends to the log file with given name
+	 * 
+	 * @param logFileName
+	 *            the log file name
+	 * @return the channel, to be closed by the caller
+	 * @throws IOException
+	 *             if an error occurs opening the log file
+	 */
+	public FileChannel getLogFileChannel(String logFileName) throws IOException {
+
+		// Get log file
+		File logFile = new File(logFolder, logFileName);
+
+		// Open file channel
+		FileChannel fileChannel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+
+		return fileChannel;
+
+	}
+
+	/**
+	 * Open a read and write channel of the log file with given name, used to
+	 * map it
+	 * 
+	 * @param logFileName
+	 *            the log file name
+	 * @return the channel, to be closed by the caller
+	 * @throws IOException
+	 *             if an error occurs opening the log file
+	 */
+	public FileChannel getLogFileReadWriteChannel(String logFileName) throws IOException {
+
+		// Get log file
+		File logFile = new File(logFolder, logFileName);
+
+		// Open file channel
+		FileChannel fileChannel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		return fileChannel;
+
+	}
+
+	/**
+	 * Open a channel that appends to the time index of the log file with given
+	 * name, creating it if needed
+	 * 
+	 * @param logFileName
+	 *            the log file name
+	 * @return the channel, to be closed by the caller
+	 * @throws IOException
+	 *             if an error occurs opening the time index
+	 */
+	public FileChannel getLogFileIndexChannel(String logFileName) throws IOException {
+
+		// Get index file
+		File indexFile = new File(logFolder, LogFileNameUtil.getIndexFileName(logFileName));
+
+		// Open file channel
+		FileChannel fileChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+		return fileChannel;
+
+	}
+
+	/**
+	 * Open a read only channel of the log file with given name, used to
+	 * export it
+	 * 
+	 * @param logFileName
+	 *            the log file name
+	 * @return the channel, to be closed by the caller
+	 * @throws IOException
+	 *             if an error occurs opening the log file
+	 */
+	public FileChannel getLogFileReadChannel(String logFileName) throws IOException {
+
+		// Get log file
+		File logFile = new File(logFolder, logFileName);
+
+		// Open file channel
+		FileChannel fileChannel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ);
+
+		return fileChannel;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.phoenix2.embedded.client.common.logger.impl.filesystem.LogStore#
+	 * getLogFileInputStream(java.lang.String)
+	 */
 	public InputStream getLogFileInputStream(String logFileName)
 			throws IOException {
 
 		// Get log file
 		File logFile = new File(logFolder, logFileName);
 
-		// Get file input stream
-		InputStream inputStream = new FileInputStream(logFile);
+		try {
+
+			// Get file input stream
+			InputStream inputStream = new FileInputStream(logFile);
+
+			return inputStream;
+
+		} catch (FileNotFoundException ex) {
+
+			// Archived log files are decompressed on the fly
+			File archiveFile = new File(logFolder, LogFileNameUtil.getArchiveFileName(logFileName));
+
+			if (!archiveFile.exists()) {
+				throw ex;
+			}
+
+			return new GZIPInputStream(new FileInputStream(archiveFile), ARCHIVE_BUFFER_SIZE);
+
+		}
+
+	}
+
+	/**
+	 * Get an input stream of the part of the log file with given name that
+	 * holds lines in given time range. The part is found with the time index,
+	 * so it is rounded to index entries: callers needing exact bounds must
+	 * check line times. Without time index the whole log file is read
+	 * 
+	 * @param logFileName
+	 *            the log file name, archived or not
+	 * @param fromMillis
+	 *            the start of the time range in milliseconds since the epoch
+	 * @param toMillis
+	 *            the end of the time range in milliseconds since the epoch,
+	 *            inclusive
+	 * @return the input stream, to be closed by the caller
+	 * @throws IOException
+	 *             if an error occurs opening the log file
+	 */
+	public InputStream getLogFileInputStream(String logFileName, long fromMillis, long toMillis)
+			throws IOException {
+
+		long[] range = getLogFileRange(logFileName, fromMillis, toMillis);
+
+		InputStream inputStream = getLogFileInputStream(logFileName);
+
+		try {
+
+			// Archives are decompressed up to the start
+			long position = 0;
+
+			while (position < range[0]) {
+
+				long count = inputStream.skip(range[0] - position);
+
+				if (count <= 0) {
+
+					if (inputStream.read() < 0) {
+						break;
+					}
+
+					count = 1;
+
+				}
+
+				position += count;
+
+			}
+
+		} catch (IOException ex) {
+
+			inputStream.close();
+
+			throw ex;
+
+		}
+
+		return new RangeInputStream(inputStream, range[1] - range[0]);
+
+	}
+
+	/**
+	 * Write to given channel the part of the log file with given name that
+	 * holds lines in given time range, see
+	 * {@link #getLogFileInputStream(String, long, long)}. Log files are
+	 * transferred from the file system to the channel, archives are
+	 * decompressed
+	 * 
+	 * @param logFileName
+	 *            the log file name, archived or not
+	 * @param fromMillis
+	 *            the start of the time range in milliseconds since the epoch
+	 * @param toMillis
+	 *            the end of the time range in milliseconds since the epoch,
+	 *            inclusive
+	 * @param channel
+	 *            the target channel
+	 * @throws IOException
+	 *             if an error occurs reading the log file or writing
+	 */
+	public void query(String logFileName, long fromMillis, long toMillis, WritableByteChannel channel)
+			throws IOException {
+
+		FileChannel fileChannel;
+
+		try {
+
+			// Get channel from log file
+			fileChannel = getLogFileReadChannel(logFileName);
+
+		} catch (NoSuchFileException ex) {
+
+			// Archived, maybe meanwhile
+			try (InputStream inputStream = getLogFileInputStream(logFileName, fromMillis, toMillis)) {
+
+				byte[] buffer = new byte[ARCHIVE_BUFFER_SIZE];
+				int length;
+
+				while ((length = inputStream.read(buffer)) != -1) {
+
+					ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+
+					while (byteBuffer.hasRemaining()) {
+						channel.write(byteBuffer);
+					}
+
+				}
+
+			}
+
+			return;
+
+		}
+
+		try {
+
+			long[] range = getLogFileRange(logFileName, fromMillis, toMillis);
+
+			// A mapped log file is preallocated past its data
+			long end = Math.min(range[1], fileChannel.size());
+			long position = range[0];
+
+			while (position < end) {
+
+				long count = fileChannel.transferTo(position, end - position, channel);
+
+				if (count <= 0) {
+					break;
+				}
+
+				position += count;
+
+			}
+
+		} finally {
+
+			fileChannel.close();
+
+		}
+
+	}
+
+	/**
+	 * Write to given channel the data of archives and log files, from the
+	 * oldest, that holds lines in given time range, see
+	 * {@link #query(String, long, long, WritableByteChannel)}. Files deleted
+	 * meanwhile are skipped
+	 * 
+	 * @param fromMillis
+	 *            the start of the time range in milliseconds since the epoch
+	 * @param toMillis
+	 *            the end of the time range in milliseconds since the epoch,
+	 *            inclusive
+	 * @param channel
+	 *            the target channel
+	 * @throws IOException
+	 *             if an error occurs reading log files or writing
+	 */
+	public void query(long fromMillis, long toMillis, WritableByteChannel channel) throws IOException {
+
+		List<LogSegment> segments;
+
+		synchronized (this) {
+
+			// Archived log files are older
+			segments = new ArrayList<>(getLogSegments().size() + archivedLogSegments.size());
+			segments.addAll(archivedLogSegments);
+			segments.addAll(logSegments);
+
+		}
+
+		for (int i = 0; i < segments.size(); i++) {
+
+			// A log file holds lines until the next one is created
+			long startMillis = segments.get(i).getTimeMillis();
+			long endMillis = i + 1 < segments.size() ? segments.get(i + 1).getTimeMillis() : Long.MAX_VALUE;
+
+			if (startMillis <= toMillis && endMillis > fromMillis) {
+
+				try {
+
+					query(segments.get(i).getName(), fromMillis, toMillis, channel);
+
+				} catch (FileNotFoundException ex) {
+
+					// Deleted meanwhile
+
+				}
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Find with the time index the part of the log file with given name that
+	 * holds lines in given time range
+	 * 
+	 * @param logFileName
+	 *            the log file name, archived or not
+	 * @param fromMillis
+	 *            the start of the time range
+	 * @param toMillis
+	 *            the end of the time range, inclusive
+	 * @return the start and end offsets of the part
+	 * @throws IOException
+	 *             if an error occurs reading the time index
+	 */
+	private long[] getLogFileRange(String logFileName, long fromMillis, long toMillis) throws IOException {
+
+		long size;
+
+		synchronized (this) {
+
+			getLogSegments();
+
+			int index = indexOf(logFileName);
+
+			// Archives are read up to their end
+			size = index >= 0 ? logSegments.get(index).getSize() : Long.MAX_VALUE;
+
+		}
+
+		long start = 0;
+		long end = size;
+
+		if (fromMillis != Long.MIN_VALUE || toMillis != Long.MAX_VALUE) {
+
+			ByteBuffer entries;
+
+			try {
+
+				entries = ByteBuffer.wrap(Files.readAllBytes(
+						new File(logFolder, LogFileNameUtil.getIndexFileName(logFileName)).toPath()));
+
+			} catch (NoSuchFileException ex) {
+
+				// Not indexed
+				entries = ByteBuffer.allocate(0);
+
+			}
+
+			// An entry may be half written
+			int count = entries.capacity() / INDEX_ENTRY_SIZE;
+
+			if (fromMillis != Long.MIN_VALUE) {
+
+				// Start at the last entry before the range
+				int index = getFirstIndexEntryAfter(entries, count, fromMillis - 1);
+
+				if (index > 0) {
+					start = entries.getLong((index - 1) * INDEX_ENTRY_SIZE + Long.BYTES);
+				}
+
+			}
+
+			// End at the first entry after the range
+			int index = getFirstIndexEntryAfter(entries, count, toMillis);
+
+			if (index < count) {
+				end = entries.getLong(index * INDEX_ENTRY_SIZE + Long.BYTES);
+			}
+
+		}
+
+		// Entries written before a crash may point past the data
+		start = Math.min(start, size);
+		end = Math.max(start, Math.min(end, size));
+
+		return new long[] { start, end };
+
+	}
 
-		return inputStream;
+	/**
+	 * Binary search given time index for the first entry after given time
+	 * 
+	 * @param entries
+	 *            the time index entries
+	 * @param count
+	 *            the number of entries
+	 * @param timeMillis
+	 *            the time
+	 * @return the position of the entry, count if there is none
+	 */
+	private static int getFirstIndexEntryAfter(ByteBuffer entries, int count, long timeMillis) {
+
+		int low = 0;
+		int high = count;
+
+		while (low < high) {
+
+			int middle = (low + high) >>> 1;
+
+			if (entries.getLong(middle * INDEX_ENTRY_SIZE) > timeMillis) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+
+		}
+
+		return low;
+
+	}
+
+	/**
+	 * An input stream that ends after given number of bytes
+	 */
+	private static class RangeInputStream extends FilterInputStream {
+
+		private long remaining;
+
+		RangeInputStream(InputStream inputStream, long length) {
+
+			super(inputStream);
+
+			this.remaining = length;
+
+		}
+
+		@Override
+		public int read() throws IOException {
+
+			if (remaining <= 0) {
+				return -1;
+			}
+
+			int b = in.read();
+
+			if (b >= 0) {
+				remaining--;
+			}
+
+			return b;
+
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+
+			if (remaining <= 0) {
+				return -1;
+			}
+
+			int count = in.read(buffer, offset, (int) Math.min(length, remaining));
+
+			if (count > 0) {
+				remaining -= count;
+			}
+
+			return count;
+
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+
+			long count = in.skip(Math.min(n, remaining));
+
+			remaining -= count;
+
+			return count;
+
+		}
+
+		@Override
+		public int available() throws IOException {
+
+			return (int) Math.min(in.available(), remaining);
+
+		}
+
+		@Override
+		public boolean markSupported() {
+
+			return false;
+
+		}
 
 	}
 
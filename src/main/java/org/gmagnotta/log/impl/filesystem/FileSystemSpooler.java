@@ -1,123 +1,552 @@
 package org.gmagnotta.log.impl.filesystem;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.LinkedList;
-
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.gmagnotta.log.Layout;
 import org.gmagnotta.log.LogEvent;
-import org.gmagnotta.log.LogLevel;
+import org.gmagnotta.log.impl.layout.ChannelByteBufferDestination;
+import org.gmagnotta.log.impl.layout.DefaultLayout;
+
+/**
+ * Writes batches of log events to the active log file of a
+ * {@link FileSystemLogStore}.<br>
+ * The active log file is kept open and lines are collected in a large buffer;
+ * the file is reopened only when the log store rotates it. The buffer is
+ * written to the file channel or, in {@link WriteMode#MAPPED}, copied to a
+ * mapping of the file.<br>
+ * Every given number of events the time and offset of the line are added to
+ * the time index of the log file, written along with the lines.<br>
+ * If the {@link SyncPolicy} bounds how long lines stay unforced, a timer
+ * forces the last lines when logging goes idle
+ */
+public class FileSystemSpooler {
+
+	private static final int INDEX_BUFFER_SIZE = 256 * FileSystemLogStore.INDEX_ENTRY_SIZE;
 
-import sun.rmi.runtime.Log;
+	private FileSystemLogStore logStore;
 
-public class FileSystemSpooler implements Runnable {
+	// Access is guarded by this
+	private final Layout layout;
+	private final FlushPolicy flushPolicy;
+	private final SyncPolicy syncPolicy;
+	private final WriteMode writeMode;
+	private final ChannelByteBufferDestination destination;
+	private final ByteBuffer indexBuffer;
+	private String activeLogFileName;
+	private FileChannel activeLogFileChannel;
+	private MappedLogFile activeMappedLogFile;
+	private FileChannel activeIndexChannel;
+	private int unindexedEventCount;
+	private long reportedByteCount;
+	private long lastSyncMillis;
+	private long nextRotationMillis;
+	private boolean unforced;
+	private boolean syncScheduled;
+	private ScheduledExecutorService syncExecutor;
 
-	private static final String defaultDateFormat = "dd/MM/yyyy HH:mm:ss.SSS";
-	private static final int MAX_ELEMENTS_TO_SPOOL = 100;
+	public FileSystemSpooler(FileSystemLogStore logStore) {
 
-	private FileSystemLogStore logStore;
-	private LinkedList<LogEvent> logEventsQueue;
+		this(logStore, new DefaultLayout());
 
-	public FileSystemSpooler(FileSystemLogStore logStore) {
+	}
 
-		this.logStore = logStore;
-		this.logEventsQueue = new LinkedList<LogEvent>();
+	public FileSystemSpooler(FileSystemLogStore logStore, Layout layout) {
+
+		this(logStore, layout, FlushPolicy.EVERY_BATCH);
 
 	}
 
 	/**
-	 * Add logEvent
-	 * 
-	 * @param logEvent
+	 * Create new spooler
+	 *
+	 * @param logStore
+	 *            the log store
+	 * @param layout
+	 *            the layout of the lines
+	 * @param flushPolicy
+	 *            when buffered lines are written to the log file
 	 */
-	public void add(LogEvent logEvent) {
+	public FileSystemSpooler(FileSystemLogStore logStore, Layout layout, FlushPolicy flushPolicy) {
 
-		synchronized (logEventsQueue) {
+		this(logStore, layout, flushPolicy, SyncPolicy.none());
 
-			logEventsQueue.add(logEvent);
-			logEventsQueue.notify();
+	}
 
-		}
+	/**
+	 * Create new spooler
+	 *
+	 * @param logStore
+	 *            the log store
+	 * @param layout
+	 *            the layout of the lines
+	 * @param flushPolicy
+	 *            when buffered lines are written to the log file
+	 * @param syncPolicy
+	 *            when the log file is forced to disk
+	 */
+	public FileSystemSpooler(FileSystemLogStore logStore, Layout layout, FlushPolicy flushPolicy,
+			SyncPolicy syncPolicy) {
+
+		this(logStore, layout, flushPolicy, syncPolicy, WriteMode.CHANNEL);
 
 	}
 
-	@Override
-	public void run() {
+	/**
+	 * Create new spooler
+	 *
+	 * @param logStore
+	 *            the log store
+	 * @param layout
+	 *            the layout of the lines
+	 * @param flushPolicy
+	 *            when buffered lines are written to the log file
+	 * @param syncPolicy
+	 *            when the log file is forced to disk
+	 * @param writeMode
+	 *            how lines are appended to the log file
+	 */
+	public FileSystemSpooler(FileSystemLogStore logStore, Layout layout, FlushPolicy flushPolicy,
+			SyncPolicy syncPolicy, WriteMode writeMode) {
 
-		while (!Thread.currentThread().isInterrupted()) {
+		this.logStore = logStore;
+		this.layout = layout;
+		this.flushPolicy = flushPolicy;
+		this.syncPolicy = syncPolicy;
+		this.writeMode = writeMode;
+		this.destination = new ChannelByteBufferDestination();
+		this.indexBuffer = ByteBuffer.allocate(INDEX_BUFFER_SIZE);
+		this.lastSyncMillis = System.currentTimeMillis();
 
-			try {
+	}
 
-				ArrayList<LogEvent> elements = new ArrayList<LogEvent>();
+	/**
+	 * Write given batch of log events to the active log file
+	 *
+	 * @param logEvents
+	 *            the log events to be wrote
+	 */
+	public synchronized void write(List<LogEvent> logEvents) {
 
-				synchronized (logEventsQueue) {
+		try {
 
-					while (logEventsQueue.size() == 0) {
+			long now = System.currentTimeMillis();
 
-						logEventsQueue.wait();
+			// Decided up front, a rotation in the middle of the batch forces
+			// the old file too
+			boolean syncNeeded = syncPolicy.isSyncNeeded(logEvents, now - lastSyncMillis);
 
-					}
+			// Get active log file name
+			String logFileName = logStore.getActiveLogFileName();
+
+			if (!logFileName.equals(activeLogFileName)) {
 
-					// Fetch max 100 element
-					int count = Math.min(logEventsQueue.size(), MAX_ELEMENTS_TO_SPOOL);
+				// Rotated: the old file gets what is buffered
+				close();
 
-					while (count-- > 0) {
+				open(logFileName);
 
-						LogEvent event = logEventsQueue.removeFirst();
+			}
 
-						elements.add(event);
+			for (int i = 0; i < logEvents.size(); i++) {
 
-					}
+				LogEvent logEvent = logEvents.get(i);
+
+				// Rotate before the first line past the time window
+				if (logEvent.getTimeMillis() >= nextRotationMillis && getActiveLogFileSize() > 0) {
+
+					rotate(destination.getBufferedByteCount(), logEvent.getTimeMillis(), syncNeeded);
 
 				}
-				
-				// We don't check if we were terminated here. We flush what we read before
 
-				try {
+				String lineLogFileName = activeLogFileName;
+				int lineStart = destination.getBufferedByteCount();
+				long writtenByteCount = destination.getWrittenByteCount();
 
-					// Get active log file name
-					String activeLogFileName = logStore.getActiveLogFileName();
+				// Write log
+				layout.encode(logEvent, destination);
 
-					OutputStream outputStream = null;
+				// Rotate before the line if it would take the file past the
+				// max size. Lines longer than the buffer are left where they
+				// started
+				if (destination.getWrittenByteCount() == writtenByteCount) {
 
-					try {
+					long fileSize = getActiveLogFileSize() - destination.getBufferedByteCount() + lineStart;
 
-						// Get log file output stream
-						outputStream = logStore.getLogFileOutputStream(activeLogFileName);
+					int lineSize = destination.getBufferedByteCount() - lineStart;
 
-						// Create print writer
-						PrintWriter printWriter = new PrintWriter(outputStream, true);
+					if (fileSize > 0 && fileSize + lineSize > logStore.getMaxFileSize()) {
 
-						for (LogEvent log : elements) {
+						rotate(lineStart, logEvent.getTimeMillis(), syncNeeded);
 
-							// Write log
-							write(log, printWriter);
+					}
 
-						}
+				}
 
-					} catch (IOException ex) {
+				if (logStore.getIndexInterval() > 0 && ++unindexedEventCount >= logStore.getIndexInterval()) {
 
-						// TODO
+					// The offset is known while the line is buffered in the
+					// same log file, a line starting a log file needs no entry
+					if (lineLogFileName.equals(activeLogFileName)
+							&& destination.getWrittenByteCount() == writtenByteCount) {
 
-					} finally {
+						int lineSize = destination.getBufferedByteCount() - lineStart;
 
-						outputStream.close();
+						index(logEvent.getTimeMillis(), getActiveLogFileSize() - lineSize);
 
 					}
 
-				} catch (Exception ex) {
+					unindexedEventCount = 0;
+
+				}
+
+				if (flushPolicy == FlushPolicy.EVERY_EVENT) {
+					destination.flush();
+				}
+
+			}
+
+			if (syncNeeded) {
+
+				// One force for the whole batch
+				destination.flush();
+				force();
+
+				lastSyncMillis = now;
+				unforced = false;
 
-					// TODO
+			} else {
 
+				if (flushPolicy == FlushPolicy.EVERY_BATCH) {
+					destination.flush();
 				}
 
-			} catch (InterruptedException ex) {
+				unforced = true;
+
+				scheduleSync(now);
+
+			}
+
+			writeIndex();
+
+			reportWrittenBytes();
+
+		} catch (Exception ex) {
+
+			// Start over with a new channel on next batch, what is buffered is
+			// lost
+			destination.discard();
+			indexBuffer.clear();
+			closeQuietly();
+
+		}
+
+	}
+
+	/**
+	 * Write the buffered bytes before given position to the active log file
+	 * and continue on a new log file with the rest
+	 *
+	 * @param byteCount
+	 *            the number of buffered bytes that belong to the active log
+	 *            file
+	 * @param timeMillis
+	 *            the time of the first event of the new log file
+	 * @param force
+	 *            true to force the active log file to disk before closing it
+	 * @throws IOException
+	 *             if an error occurs writing or creating the new log file
+	 */
+	private void rotate(int byteCount, long timeMillis, boolean force) throws IOException {
+
+		destination.flush(byteCount);
+
+		// The timer only covers the new log file
+		if (force || syncPolicy.getMaxUnforcedMillis() >= 0) {
+			force();
+		}
+
+		closeQuietly();
+
+		open(logStore.rotateLogFile(timeMillis));
+
+	}
+
+	/**
+	 * Schedule a force of the lines written so far, if the sync policy bounds
+	 * how long they stay unforced and none is pending
+	 *
+	 * @param now
+	 *            the current time
+	 */
+	private void scheduleSync(long now) {
+
+		long maxUnforcedMillis = syncPolicy.getMaxUnforcedMillis();
+
+		if (maxUnforcedMillis < 0 || syncScheduled) {
+			return;
+		}
+
+		if (syncExecutor == null) {
+
+			syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+
+				Thread thread = new Thread(runnable, "FileSystemSpooler-sync");
+				thread.setDaemon(true);
+
+				return thread;
+
+			});
+
+		}
+
+		long delay = Math.max(0, lastSyncMillis + maxUnforcedMillis - now);
+
+		try {
+
+			syncExecutor.schedule(this::sync, delay, TimeUnit.MILLISECONDS);
+
+			syncScheduled = true;
+
+		} catch (RejectedExecutionException ex) {
+
+			// Closed meanwhile
+
+		}
+
+	}
+
+	/**
+	 * Write and force the lines left unforced by the last batches
+	 */
+	private synchronized void sync() {
+
+		syncScheduled = false;
+
+		if (!unforced || activeLogFileChannel == null) {
+			return;
+		}
+
+		try {
+
+			destination.flush();
+			force();
+
+			writeIndex();
+
+			reportWrittenBytes();
+
+			lastSyncMillis = System.currentTimeMillis();
+			unforced = false;
+
+		} catch (IOException ex) {
+
+			// Next batch starts over with a new channel
+			destination.discard();
+			indexBuffer.clear();
+			closeQuietly();
+
+		}
+
+	}
+
+	/**
+	 * Add an entry to the time index of the active log file
+	 *
+	 * @param timeMillis
+	 *            the event time
+	 * @param offset
+	 *            the offset of the line in the log file
+	 * @throws IOException
+	 *             if an error occurs writing the time index
+	 */
+	private void index(long timeMillis, long offset) throws IOException {
+
+		if (indexBuffer.remaining() < FileSystemLogStore.INDEX_ENTRY_SIZE) {
+			writeIndex();
+		}
+
+		indexBuffer.putLong(timeMillis);
+		indexBuffer.putLong(offset);
+
+	}
+
+	/**
+	 * Write the buffered entries to the time index of the active log file,
+	 * created on first entry
+	 *
+	 * @throws IOException
+	 *             if an error occurs writing the time index
+	 */
+	private void writeIndex() throws IOException {
+
+		if (indexBuffer.position() == 0) {
+			return;
+		}
+
+		if (activeIndexChannel == null) {
+			activeIndexChannel = logStore.getLogFileIndexChannel(activeLogFileName);
+		}
+
+		indexBuffer.flip();
+
+		int byteCount = indexBuffer.remaining();
+
+		try {
+
+			while (indexBuffer.hasRemaining()) {
+				activeIndexChannel.write(indexBuffer);
+			}
+
+		} finally {
+
+			indexBuffer.clear();
+
+		}
+
+		// Time indexes count in the byte budget
+		logStore.onIndexBytesWritten(activeLogFileName, byteCount);
+
+	}
+
+	/**
+	 * Force the active log file to disk
+	 *
+	 * @throws IOException
+	 *             if an error occurs forcing
+	 */
+	private void force() throws IOException {
+
+		if (activeMappedLogFile != null) {
+
+			activeMappedLogFile.force();
+
+		} else {
+
+			activeLogFileChannel.force(false);
+
+		}
+
+	}
+
+	/**
+	 * Get the size of the active log file including the buffered bytes
+	 *
+	 * @return the size
+	 * @throws IOException
+	 *             if an error occurs reading the size
+	 */
+	private long getActiveLogFileSize() throws IOException {
+
+		return logStore.getLogFileSize(activeLogFileName)
+				+ (destination.getWrittenByteCount() - reportedByteCount) + destination.getBufferedByteCount();
+
+	}
+
+	/**
+	 * Open given log file as the active one
+	 *
+	 * @param logFileName
+	 *            the log file name
+	 * @throws IOException
+	 *             if an error occurs opening the log file
+	 */
+	private void open(String logFileName) throws IOException {
+
+		if (writeMode == WriteMode.MAPPED) {
+
+			activeLogFileChannel = logStore.getLogFileReadWriteChannel(logFileName);
+
+			try {
+
+				activeMappedLogFile = new MappedLogFile(activeLogFileChannel, logStore.getMaxFileSize());
+
+			} catch (IOException ex) {
+
+				// Likely a full partition, append through the channel to this
+				// log file, next one tries mapping again
+				activeLogFileChannel.close();
+
+			}
+
+		}
+
+		if (activeMappedLogFile != null) {
+
+			destination.setChannel(activeMappedLogFile);
+
+		} else {
+
+			activeLogFileChannel = logStore.getLogFileChannel(logFileName);
+
+			destination.setChannel(activeLogFileChannel);
+
+		}
+
+		activeLogFileName = logFileName;
+		nextRotationMillis = logStore.getNextRotationMillis();
+		unindexedEventCount = 0;
+
+	}
+
+	/**
+	 * Write buffered lines to the active log file
+	 *
+	 * @throws IOException
+	 *             if an error occurs writing
+	 */
+	public synchronized void flush() throws IOException {
+
+		if (activeLogFileChannel != null) {
+
+			destination.flush();
+
+			writeIndex();
+
+			reportWrittenBytes();
+
+		}
+
+	}
+
+	/**
+	 * Write buffered lines and close the active log file. It is reopened by
+	 * next write
+	 *
+	 * @throws IOException
+	 *             if an error occurs writing or closing
+	 */
+	public synchronized void close() throws IOException {
+
+		try {
 
-				break;
+			flush();
+
+			// Lines are not left unforced once the timer is gone
+			if (unforced && syncPolicy.getMaxUnforcedMillis() >= 0 && activeLogFileChannel != null) {
+
+				force();
+
+				unforced = false;
+
+			}
+
+		} finally {
+
+			closeQuietly();
+
+			if (syncExecutor != null) {
+
+				syncExecutor.shutdownNow();
+
+				syncExecutor = null;
+				syncScheduled = false;
 
 			}
 
@@ -126,58 +555,84 @@ public class FileSystemSpooler implements Runnable {
 	}
 
 	/**
-	 * Write given {@link Log} to given {@link PrintWriter}
-	 * 
-	 * @param log
-	 *            the log to be wrote
-	 * @param printWriter
-	 *            the target print writer
+	 * Let the log store know how many bytes reached the active log file
+	 *
 	 * @throws IOException
-	 *             if an error occurs writing log
+	 *             if an error occurs updating the log store
+	 */
+	private void reportWrittenBytes() throws IOException {
+
+		long writtenByteCount = destination.getWrittenByteCount();
+
+		if (writtenByteCount > reportedByteCount) {
+
+			logStore.onBytesWritten(activeLogFileName, writtenByteCount - reportedByteCount);
+
+		}
+
+		reportedByteCount = writtenByteCount;
+
+	}
+
+	/**
+	 * Close the active log file, if any, ignoring errors
 	 */
-	private void write(LogEvent log, PrintWriter printWriter) throws IOException {
+	private void closeQuietly() {
 
-		// Get log detail
-		LogLevel logLevel = log.getLogLevel();
-		String sourceClass = log.getSourceClass();
-		Date date = log.getDate();
-		String threadName = log.getThreadName();
-		String message = log.getMessage();
-		Throwable throwable = log.getThrowable();
+		if (activeLogFileChannel != null) {
 
-		// Create date format
-		DateFormat dateFormatter = new SimpleDateFormat(defaultDateFormat);
+			try {
 
-		StringBuilder buf = new StringBuilder(32);
+				reportWrittenBytes();
 
-		// Append date
-		buf.append(dateFormatter.format(date));
-		buf.append(' ');
+			} catch (IOException ex) {
 
-		// Append Thread name
-		buf.append(threadName);
-		buf.append(' ');
+				// Only the size in the index is affected
 
-		// Append Level in brackets
-		buf.append('[');
-		buf.append(logLevel.toString());
-		buf.append(']');
-		buf.append(' ');
+			}
+
+			try {
 
-		// Append name
-		buf.append(sourceClass);
-		buf.append(' ');
+				writeIndex();
 
-		// Append message
-		buf.append(message);
-		buf.append(' ');
+				if (activeIndexChannel != null) {
+					activeIndexChannel.close();
+				}
+
+			} catch (IOException ex) {
+
+				// Queries read more of the log file
+
+			}
+
+			try {
+
+				if (activeMappedLogFile != null) {
+
+					// Truncate to the data written
+					activeMappedLogFile.close();
+
+				}
+
+				activeLogFileChannel.close();
+
+			} catch (IOException ex) {
+
+				// Nothing we can do, a preallocated log file is recovered
+				// on restart
+
+			}
 
-		printWriter.println(buf.toString());
-		if (throwable != null) {
-			throwable.printStackTrace(printWriter);
 		}
 
-		printWriter.flush();
+		activeLogFileChannel = null;
+		activeMappedLogFile = null;
+		activeIndexChannel = null;
+		activeLogFileName = null;
+
+		indexBuffer.clear();
+
+		destination.setChannel(null);
 
 	}
 
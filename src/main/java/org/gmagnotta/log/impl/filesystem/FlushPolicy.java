@@ -0,0 +1,25 @@
+package org.gmagnotta.log.impl.filesystem;
+
+/**
+ * When {@link FileSystemSpooler} hands its buffered lines to the operating
+ * system
+ */
+public enum FlushPolicy {
+
+	/**
+	 * After every line: the slowest, a line is never held in the buffer
+	 */
+	EVERY_EVENT,
+
+	/**
+	 * After every batch handed to the writer
+	 */
+	EVERY_BATCH,
+
+	/**
+	 * Only when the buffer is full, on rotation and on stop: the fastest, but
+	 * lines can stay in the buffer for a long time
+	 */
+	WHEN_FULL
+
+}
@@ -0,0 +1,226 @@
+package org.gmagnotta.log.impl.filesystem;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.gmagnotta.log.LogLevel;
+
+/**
+ * Selects the log data exported by
+ * {@link FileSystemLogEventWriter#export(java.nio.channels.WritableByteChannel, LogExportFilter, boolean)}.
+ * <br>
+ * The time range selects log files, by the time span between their creation
+ * and the creation of the next one, then the part of them found with the time
+ * index, rounded to index entries. Level and markers select log
+ * lines: they need the level rendered in brackets as the first bracketed
+ * token, as the default layout and <i>[%p]</i> do, and markers rendered with
+ * <i>%marker</i> before the level or right after it. The message is never
+ * searched. Lines without a level, like stack traces, follow the line before
+ * them
+ */
+public class LogExportFilter {
+
+	private static final LogLevel[] LOG_LEVELS = LogLevel.values();
+	private static final String[] LOG_LEVEL_TOKENS = new String[LOG_LEVELS.length];
+
+	static {
+
+		for (int i = 0; i < LOG_LEVELS.length; i++) {
+			LOG_LEVEL_TOKENS[i] = "[" + LOG_LEVELS[i].name() + "]";
+		}
+
+	}
+
+	private long fromMillis;
+	private long toMillis;
+	private LogLevel minLogLevel;
+	private Set<String> markers;
+
+	/**
+	 * Create a filter that selects everything
+	 */
+	public LogExportFilter() {
+
+		this(Long.MIN_VALUE, Long.MAX_VALUE, LogLevel.TRACE, Collections.<String> emptySet());
+
+	}
+
+	/**
+	 * Create new filter
+	 *
+	 * @param fromMillis
+	 *            the start of the time range in milliseconds since the epoch
+	 * @param toMillis
+	 *            the end of the time range in milliseconds since the epoch,
+	 *            inclusive
+	 * @param minLogLevel
+	 *            the lowest level exported
+	 * @param markers
+	 *            the markers exported, empty for all
+	 */
+	public LogExportFilter(long fromMillis, long toMillis, LogLevel minLogLevel, Set<String> markers) {
+
+		if (minLogLevel == null || markers == null) {
+			throw new IllegalArgumentException("Level and markers can't be null");
+		}
+
+		this.fromMillis = fromMillis;
+		this.toMillis = toMillis;
+		this.minLogLevel = minLogLevel;
+		this.markers = Collections.unmodifiableSet(new HashSet<>(markers));
+
+	}
+
+	public long getFromMillis() {
+		return fromMillis;
+	}
+
+	public long getToMillis() {
+		return toMillis;
+	}
+
+	public LogLevel getMinLogLevel() {
+		return minLogLevel;
+	}
+
+	public Set<String> getMarkers() {
+		return markers;
+	}
+
+	/**
+	 * Tell if log lines must be read to apply this filter
+	 *
+	 * @return true if level or markers select lines
+	 */
+	public boolean isLineFilter() {
+
+		return minLogLevel != LogLevel.TRACE || !markers.isEmpty();
+
+	}
+
+	/**
+	 * Tell if a log file created at given time, and followed by one created
+	 * at the other given time, may hold data in the time range
+	 *
+	 * @param startMillis
+	 *            the log file creation time
+	 * @param endMillis
+	 *            the creation time of the next log file, or
+	 *            {@link Long#MAX_VALUE}
+	 * @return true if the log file must be exported
+	 */
+	public boolean accept(long startMillis, long endMillis) {
+
+		return startMillis <= toMillis && endMillis > fromMillis;
+
+	}
+
+	/**
+	 * Tell if given log line starts a log record, and if it must be exported
+	 *
+	 * @param line
+	 *            the log line, as ISO-8859-1 so bytes map to chars
+	 * @return null if the line doesn't start a log record, otherwise if it must
+	 *         be exported
+	 */
+	Boolean accept(String line) {
+
+		// The level is the first bracketed token
+		int levelStart = -1;
+		int levelEnd = -1;
+		int position = 0;
+
+		while ((position = skipWhitespace(line, position)) < line.length()) {
+
+			int end = skipToken(line, position);
+
+			if (line.charAt(position) == '[' && line.charAt(end - 1) == ']') {
+				levelStart = position;
+				levelEnd = end;
+				break;
+			}
+
+			position = end;
+
+		}
+
+		LogLevel logLevel = levelStart < 0 ? null : toLogLevel(line, levelStart, levelEnd);
+
+		if (logLevel == null) {
+			return null;
+		}
+
+		if (!logLevel.isHigherOrEqual(minLogLevel)) {
+			return Boolean.FALSE;
+		}
+
+		if (markers.isEmpty()) {
+			return Boolean.TRUE;
+		}
+
+		// Markers are before the level or the token right after it
+		position = 0;
+
+		while ((position = skipWhitespace(line, position)) < line.length()) {
+
+			int end = skipToken(line, position);
+
+			if (markers.contains(line.substring(position, end))) {
+				return Boolean.TRUE;
+			}
+
+			if (position >= levelEnd) {
+				break;
+			}
+
+			position = end;
+
+		}
+
+		return Boolean.FALSE;
+
+	}
+
+	/**
+	 * Get the level rendered in given bracketed token
+	 *
+	 * @return the level or null if the token is not a level
+	 */
+	private static LogLevel toLogLevel(String line, int start, int end) {
+
+		for (int i = 0; i < LOG_LEVELS.length; i++) {
+
+			String token = LOG_LEVEL_TOKENS[i];
+
+			if (token.length() == end - start && line.startsWith(token, start)) {
+				return LOG_LEVELS[i];
+			}
+
+		}
+
+		return null;
+
+	}
+
+	private static int skipWhitespace(String line, int position) {
+
+		while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+			position++;
+		}
+
+		return position;
+
+	}
+
+	private static int skipToken(String line, int position) {
+
+		while (position < line.length() && !Character.isWhitespace(line.charAt(position))) {
+			position++;
+		}
+
+		return position;
+
+	}
+
+}
@@ -31,6 +31,14 @@ public class LogFileNameComparator implements Comparator<String> {
 			// Get result
 			int result = compare(logFileDate1, logFileDate2);
 
+			if (result == 0) {
+
+				// Same date, the higher sequence number is newer
+				result = Long.compare(LogFileNameUtil.getLogFileSequence(logFileName2),
+						LogFileNameUtil.getLogFileSequence(logFileName1));
+
+			}
+
 			if (reverse) {
 				return -result;
 			}
@@ -51,7 +59,8 @@ public class LogFileNameComparator implements Comparator<String> {
 	 *            the first log file date
 	 * @param logFileDate2
 	 *            the second log file date
-	 * @return an integer that is the difference of the two date in milliseconds
+	 * @return a negative integer, zero, or a positive integer as the second
+	 *         date is before, equal to or after the first one
 	 */
 	private int compare(Date logFileDate1, Date logFileDate2) {
 
@@ -59,8 +68,8 @@ public class LogFileNameComparator implements Comparator<String> {
 		long time1 = logFileDate1.getTime();
 		long time2 = logFileDate2.getTime();
 
-		// Get result
-		int result = new Long(time2 - time1).intValue();
+		// Get result, subtracting could overflow
+		int result = Long.compare(time2, time1);
 
 		return result;
 
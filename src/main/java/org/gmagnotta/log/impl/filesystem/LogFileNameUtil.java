@@ -2,6 +2,7 @@ package org.gmagnotta.log.impl.filesystem;
 
 import java.io.File;
 import java.text.ParseException;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -16,17 +17,33 @@ public class LogFileNameUtil {
 	 */
 	private static final String DATE_PATTERN = "yyyy-MM-dd_HH-mm-ss-SSS";
 
+	/**
+	 * Separates the date from the sequence number in log file names
+	 */
+	private static final char SEQUENCE_SEPARATOR = '_';
+
 	/**
 	 * The log file extension
 	 */
 	private static final String LOG_FILE_EXTENSION = "log";
 
+	/**
+	 * The archived log file extension, appended to the log file name
+	 */
+	private static final String ARCHIVE_FILE_EXTENSION = "gz";
+
+	/**
+	 * The time index extension, appended to the log file name
+	 */
+	private static final String INDEX_FILE_EXTENSION = "idx";
+
 	/**
 	 * Check if given log file name is valid. In order to be valid a log file
 	 * must have:
 	 * <ul>
 	 * <li><i>.log</i> extensions;</li>
-	 * <li>a base name that match <i>yyyy-MM-dd_HH-mm-ss-SSS</i> date pattern.</li>
+	 * <li>a base name that match <i>yyyy-MM-dd_HH-mm-ss-SSS</i> date pattern,
+	 * optionally followed by <i>_</i> and a sequence number.</li>
 	 * </ul>
 	 * 
 	 * @param logFileName
@@ -55,6 +72,70 @@ public class LogFileNameUtil {
 
 	}
 
+	/**
+	 * Check if given file name is the name of an archived log file, that is a
+	 * valid log file name followed by <i>.gz</i>
+	 * 
+	 * @param archiveFileName
+	 *            the file name to be validated
+	 * @return true if given file name is a valid archive file name, false
+	 *         otherwise
+	 */
+	public static final boolean isValidArchive(String archiveFileName) {
+
+		if (!ARCHIVE_FILE_EXTENSION.equals(getExtension(archiveFileName))) {
+			return false;
+		}
+
+		return isValid(getBasename(archiveFileName));
+
+	}
+
+	/**
+	 * Get the name of the archive of given log file
+	 * 
+	 * @param logFileName
+	 *            the log file name
+	 * @return the archive file name
+	 */
+	public static final String getArchiveFileName(String logFileName) {
+
+		return logFileName.concat(".").concat(ARCHIVE_FILE_EXTENSION);
+
+	}
+
+	/**
+	 * Check if given file name is the name of a time index, that is a valid
+	 * log file name followed by <i>.idx</i>
+	 * 
+	 * @param indexFileName
+	 *            the file name to be validated
+	 * @return true if given file name is a valid index file name, false
+	 *         otherwise
+	 */
+	public static final boolean isValidIndex(String indexFileName) {
+
+		if (!INDEX_FILE_EXTENSION.equals(getExtension(indexFileName))) {
+			return false;
+		}
+
+		return isValid(getBasename(indexFileName));
+
+	}
+
+	/**
+	 * Get the name of the time index of given log file
+	 * 
+	 * @param logFileName
+	 *            the log file name
+	 * @return the index file name
+	 */
+	public static final String getIndexFileName(String logFileName) {
+
+		return logFileName.concat(".").concat(INDEX_FILE_EXTENSION);
+
+	}
+
 	/**
 	 * Get log file date from given log file name
 	 * 
@@ -73,13 +154,87 @@ public class LogFileNameUtil {
 		// Create simple date format
 		SimpleDateFormat simpleDateFormat = new SimpleDateFormat(DATE_PATTERN);
 
-		// Parse log file base name
-		Date logFileDate = simpleDateFormat.parse(logFileBaseName);
+		// Parse log file base name, only a sequence number may follow the date
+		ParsePosition parsePosition = new ParsePosition(0);
+		Date logFileDate = simpleDateFormat.parse(logFileBaseName, parsePosition);
+
+		if (logFileDate == null || !isSequence(logFileBaseName, parsePosition.getIndex())) {
+			throw new ParseException("invalid log file name: " + logFileName, parsePosition.getErrorIndex());
+		}
 
 		return logFileDate;
 
 	}
 
+	/**
+	 * Get log file sequence number from given log file name
+	 * 
+	 * @param logFileName
+	 *            the log file name
+	 * @return the sequence number, 0 for log file names without one
+	 * @throws ParseException
+	 *             if an error occurs parsing log file name
+	 */
+	public static final long getLogFileSequence(String logFileName)
+			throws ParseException {
+
+		// Get log file base name
+		String logFileBaseName = getBasename(logFileName);
+
+		// Create simple date format
+		SimpleDateFormat simpleDateFormat = new SimpleDateFormat(DATE_PATTERN);
+
+		// Parse log file base name
+		ParsePosition parsePosition = new ParsePosition(0);
+		Date logFileDate = simpleDateFormat.parse(logFileBaseName, parsePosition);
+
+		int index = parsePosition.getIndex();
+
+		if (logFileDate == null || !isSequence(logFileBaseName, index)) {
+			throw new ParseException("invalid log file name: " + logFileName, parsePosition.getErrorIndex());
+		}
+
+		if (index == logFileBaseName.length()) {
+			return 0;
+		}
+
+		return Long.parseLong(logFileBaseName.substring(index + 1));
+
+	}
+
+	/**
+	 * Check if given base name ends with a valid sequence number, or with
+	 * nothing, from given index
+	 * 
+	 * @param logFileBaseName
+	 *            the log file base name
+	 * @param index
+	 *            the index following the date
+	 * @return true if the rest of the base name is valid
+	 */
+	private static boolean isSequence(String logFileBaseName, int index) {
+
+		if (index == logFileBaseName.length()) {
+			return true;
+		}
+
+		if (logFileBaseName.charAt(index) != SEQUENCE_SEPARATOR || index + 1 == logFileBaseName.length()
+				|| logFileBaseName.length() - index > 19) {
+			return false;
+		}
+
+		for (int i = index + 1; i < logFileBaseName.length(); i++) {
+
+			if (!Character.isDigit(logFileBaseName.charAt(i))) {
+				return false;
+			}
+
+		}
+
+		return true;
+
+	}
+
 	/**
 	 * Get log file name from given log file date
 	 * 
@@ -89,12 +244,31 @@ public class LogFileNameUtil {
 	 */
 	public static final String getLogFileName(Date logFileDate) {
 
+		return getLogFileName(logFileDate, 0);
+
+	}
+
+	/**
+	 * Get log file name from given log file date and sequence number
+	 * 
+	 * @param logFileDate
+	 *            the log file date
+	 * @param sequence
+	 *            the sequence number, 0 for none
+	 * @return the log file name
+	 */
+	public static final String getLogFileName(Date logFileDate, long sequence) {
+
 		// Create simple date format
 		SimpleDateFormat simpleDateFormat = new SimpleDateFormat(DATE_PATTERN);
 
 		// Format log file base name
 		String logFileBaseName = simpleDateFormat.format(logFileDate);
 
+		if (sequence > 0) {
+			logFileBaseName = logFileBaseName + SEQUENCE_SEPARATOR + sequence;
+		}
+
 		// Get log file name
 		String logFileName = logFileBaseName.concat(".").concat(
 				LOG_FILE_EXTENSION);
@@ -0,0 +1,77 @@
+package org.gmagnotta.log.impl.filesystem;
+
+/**
+ * Entry of the log file index kept by {@link FileSystemLogStore}. Entries
+ * are ordered by date and sequence number, from the oldest
+ */
+class LogSegment implements Comparable<LogSegment> {
+
+	private final String name;
+	private final long timeMillis;
+	private final long sequence;
+	private long size;
+	private long indexSize;
+
+	/**
+	 * Create new entry
+	 *
+	 * @param name
+	 *            the log file name
+	 * @param timeMillis
+	 *            the log file date parsed from its name
+	 * @param sequence
+	 *            the log file sequence number parsed from its name
+	 * @param size
+	 *            the log file size
+	 */
+	LogSegment(String name, long timeMillis, long sequence, long size) {
+
+		this.name = name;
+		this.timeMillis = timeMillis;
+		this.sequence = sequence;
+		this.size = size;
+
+	}
+
+	String getName() {
+		return name;
+	}
+
+	long getTimeMillis() {
+		return timeMillis;
+	}
+
+	long getSequence() {
+		return sequence;
+	}
+
+	long getSize() {
+		return size;
+	}
+
+	void setSize(long size) {
+		this.size = size;
+	}
+
+	long getIndexSize() {
+		return indexSize;
+	}
+
+	void setIndexSize(long indexSize) {
+		this.indexSize = indexSize;
+	}
+
+	@Override
+	public int compareTo(LogSegment logSegment) {
+
+		int result = Long.compare(timeMillis, logSegment.timeMillis);
+
+		if (result == 0) {
+			result = Long.compare(sequence, logSegment.sequence);
+		}
+
+		return result;
+
+	}
+
+}
@@ -0,0 +1,183 @@
+package org.gmagnotta.log.impl.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Appends to a log file through a {@link MappedByteBuffer}. The region
+ * following the data is zero filled and mapped up front, which reserves the
+ * disk blocks of the log file: a full partition fails here with an
+ * {@link IOException} rather than later on a page fault. Closing truncates
+ * the log file to the data written
+ */
+class MappedLogFile implements WritableByteChannel {
+
+	private static final int MIN_REGION_SIZE = 64 * 1024;
+	private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(MIN_REGION_SIZE);
+
+	private final FileChannel fileChannel;
+	private long regionStart;
+	private MappedByteBuffer region;
+
+	/**
+	 * Map the log file from its end
+	 *
+	 * @param fileChannel
+	 *            a read and write channel of the log file, closed with this
+	 * @param size
+	 *            the size to preallocate the log file to
+	 * @throws IOException
+	 *             if an error occurs reserving or mapping the log file, which
+	 *             is left as it was
+	 */
+	MappedLogFile(FileChannel fileChannel, long size) throws IOException {
+
+		this.fileChannel = fileChannel;
+
+		long start = fileChannel.size();
+
+		map(start, Math.max(size - start, MIN_REGION_SIZE));
+
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+
+		if (region == null) {
+			throw new ClosedChannelException();
+		}
+
+		int length = src.remaining();
+
+		if (region.remaining() < length) {
+
+			// Past the preallocated size, map some more
+			map(regionStart + region.position(), Math.max(length, MIN_REGION_SIZE));
+
+		}
+
+		try {
+
+			region.put(src);
+
+		} catch (InternalError ex) {
+
+			// A page fault the reservation didn't prevent, e.g. the log file
+			// was truncated by someone else
+			throw new IOException("Error writing mapped log file", ex);
+
+		}
+
+		return length;
+
+	}
+
+	/**
+	 * Force written data to disk. Regions mapped before the current one are
+	 * forced when they are swapped out
+	 */
+	void force() {
+
+		region.force();
+
+	}
+
+	@Override
+	public boolean isOpen() {
+
+		return region != null;
+
+	}
+
+	/**
+	 * Truncate the log file to the data written and close it
+	 */
+	@Override
+	public void close() throws IOException {
+
+		if (region == null) {
+			return;
+		}
+
+		long end = regionStart + region.position();
+
+		// The mapping is released by the garbage collector
+		region = null;
+
+		try {
+
+			fileChannel.truncate(end);
+
+		} finally {
+
+			fileChannel.close();
+
+		}
+
+	}
+
+	/**
+	 * Reserve and map given region of the log file
+	 *
+	 * @param start
+	 *            the region start
+	 * @param size
+	 *            the region size
+	 * @throws IOException
+	 *             if an error occurs reserving or mapping the log file
+	 */
+	private void map(long start, long size) throws IOException {
+
+		long end = start + size;
+		long position = fileChannel.size();
+
+		try {
+
+			// Mapping past the end only extends the file sparsely, write the
+			// zeros so the blocks are really allocated
+			while (position < end) {
+
+				ByteBuffer zeros = ZEROS.duplicate();
+				zeros.limit((int) Math.min(zeros.capacity(), end - position));
+
+				position += fileChannel.write(zeros, position);
+
+			}
+
+			MappedByteBuffer mapped = fileChannel.map(FileChannel.MapMode.READ_WRITE, start, size);
+
+			// force() only sees the current region, the data written to the
+			// outgoing one must not be left behind
+			if (region != null) {
+
+				region.force();
+
+			}
+
+			region = mapped;
+			regionStart = start;
+
+		} catch (IOException ex) {
+
+			// Give back what was reserved
+			try {
+
+				fileChannel.truncate(start);
+
+			} catch (IOException truncateEx) {
+
+				ex.addSuppressed(truncateEx);
+
+			}
+
+			throw ex;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,79 @@
+package org.gmagnotta.log.impl.filesystem;
+
+import java.util.Calendar;
+
+/**
+ * Time window of a log file: when the window of the active log file ends a
+ * new log file is started, whatever its size
+ */
+public enum RotationPeriod {
+
+	/**
+	 * Log files are rotated by size only
+	 */
+	NONE {
+
+		@Override
+		public long getNextBoundary(long timeMillis) {
+
+			return Long.MAX_VALUE;
+
+		}
+
+	},
+
+	/**
+	 * A new log file every hour
+	 */
+	HOURLY {
+
+		@Override
+		public long getNextBoundary(long timeMillis) {
+
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTimeInMillis(timeMillis);
+
+			calendar.set(Calendar.MINUTE, 0);
+			calendar.set(Calendar.SECOND, 0);
+			calendar.set(Calendar.MILLISECOND, 0);
+			calendar.add(Calendar.HOUR_OF_DAY, 1);
+
+			return calendar.getTimeInMillis();
+
+		}
+
+	},
+
+	/**
+	 * A new log file every day, at local midnight
+	 */
+	DAILY {
+
+		@Override
+		public long getNextBoundary(long timeMillis) {
+
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTimeInMillis(timeMillis);
+
+			calendar.set(Calendar.HOUR_OF_DAY, 0);
+			calendar.set(Calendar.MINUTE, 0);
+			calendar.set(Calendar.SECOND, 0);
+			calendar.set(Calendar.MILLISECOND, 0);
+			calendar.add(Calendar.DAY_OF_MONTH, 1);
+
+			return calendar.getTimeInMillis();
+
+		}
+
+	};
+
+	/**
+	 * Get the end of the window holding given time
+	 *
+	 * @param timeMillis
+	 *            the time in milliseconds since the epoch
+	 * @return the first millisecond of the next window
+	 */
+	public abstract long getNextBoundary(long timeMillis);
+
+}
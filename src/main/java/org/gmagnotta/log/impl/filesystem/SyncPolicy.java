@@ -0,0 +1,119 @@
+package org.gmagnotta.log.impl.filesystem;
+
+import java.util.List;
+
+import org.gmagnotta.log.LogEvent;
+import org.gmagnotta.log.LogLevel;
+
+/**
+ * Interface that allow to implement Strategy design Pattern for deciding when
+ * {@link FileSystemSpooler} forces the active log file to disk.<br>
+ * The policy is checked once per batch and a single force covers the whole
+ * batch. A policy can also bound how long written lines stay unforced, so
+ * they are forced even if no batch follows
+ */
+public interface SyncPolicy {
+
+	/**
+	 * Tell if the log file must be forced to disk after given batch
+	 *
+	 * @param logEvents
+	 *            the batch just written
+	 * @param millisSinceLastSync
+	 *            milliseconds elapsed since the log file was last forced
+	 * @return true to force the log file to disk
+	 */
+	public boolean isSyncNeeded(List<LogEvent> logEvents, long millisSinceLastSync);
+
+	/**
+	 * Get the max time written lines may stay unforced when logging goes
+	 * idle
+	 *
+	 * @return the time in milliseconds or -1 to wait for the next batch
+	 */
+	public default long getMaxUnforcedMillis() {
+
+		return -1;
+
+	}
+
+	/**
+	 * Never force, leave it to the operating system
+	 *
+	 * @return the policy
+	 */
+	public static SyncPolicy none() {
+
+		return (logEvents, millisSinceLastSync) -> false;
+
+	}
+
+	/**
+	 * Force after every batch
+	 *
+	 * @return the policy
+	 */
+	public static SyncPolicy everyBatch() {
+
+		return (logEvents, millisSinceLastSync) -> true;
+
+	}
+
+	/**
+	 * Force after a batch if the log file was not forced in the given
+	 * interval. If logging goes idle, the last lines are forced once the
+	 * interval elapses
+	 *
+	 * @param millis
+	 *            the interval in milliseconds
+	 * @return the policy
+	 */
+	public static SyncPolicy interval(long millis) {
+
+		return new SyncPolicy() {
+
+			@Override
+			public boolean isSyncNeeded(List<LogEvent> logEvents, long millisSinceLastSync) {
+
+				return millisSinceLastSync >= millis;
+
+			}
+
+			@Override
+			public long getMaxUnforcedMillis() {
+
+				return millis;
+
+			}
+
+		};
+
+	}
+
+	/**
+	 * Force after a batch holding an event of given level or higher, before
+	 * the batch write returns
+	 *
+	 * @param logLevel
+	 *            the lowest level that is forced
+	 * @return the policy
+	 */
+	public static SyncPolicy onLevel(LogLevel logLevel) {
+
+		return (logEvents, millisSinceLastSync) -> {
+
+			for (int i = 0; i < logEvents.size(); i++) {
+
+				if (logEvents.get(i).getLogLevel().isHigherOrEqual(logLevel)) {
+					return true;
+				}
+
+			}
+
+			return false;
+
+		};
+
+	}
+
+}
@@ -0,0 +1,23 @@
+package org.gmagnotta.log.impl.filesystem;
+
+/**
+ * How {@link FileSystemSpooler} appends to the active log file
+ */
+public enum WriteMode {
+
+	/**
+	 * Buffered writes to a {@link java.nio.channels.FileChannel}
+	 */
+	CHANNEL,
+
+	/**
+	 * Copies to a {@link java.nio.MappedByteBuffer} over the log file,
+	 * preallocated to the max file size. No system call per write; the log
+	 * file is truncated to its real length on rotation and on stop, and
+	 * recovered by {@link FileSystemLogStore} after a crash.<br>
+	 * The log file can't be truncated while mapped on some platforms, like
+	 * Windows: use it on Linux
+	 */
+	MAPPED
+
+}
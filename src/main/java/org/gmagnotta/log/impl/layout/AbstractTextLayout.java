@@ -0,0 +1,180 @@
+package org.gmagnotta.log.impl.layout;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import org.gmagnotta.log.ByteBufferDestination;
+import org.gmagnotta.log.Layout;
+import org.gmagnotta.log.LogEvent;
+
+/**
+ * Base class for layouts that render a line of text. The line is built in a
+ * reusable {@link StringBuilder} and encoded with a cached
+ * {@link CharsetEncoder} straight into the buffer of the destination, so no
+ * String is created per line
+ */
+public abstract class AbstractTextLayout implements Layout {
+
+	private static final int DEFAULT_BUFFER_SIZE = 512;
+
+	private final Charset charset;
+	private final CharsetEncoder charsetEncoder;
+	private final StringBuilder buf;
+	private final PrintWriter stackTraceWriter;
+	private char[] chars;
+	private CharBuffer charBuffer;
+
+	public AbstractTextLayout(Charset charset) {
+
+		this.charset = charset;
+		this.charsetEncoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.buf = new StringBuilder(DEFAULT_BUFFER_SIZE);
+		this.stackTraceWriter = new PrintWriter(new StringBuilderWriter(buf));
+		this.chars = new char[DEFAULT_BUFFER_SIZE];
+		this.charBuffer = CharBuffer.wrap(chars);
+
+	}
+
+	/**
+	 * Get the charset used to encode lines
+	 *
+	 * @return the charset
+	 */
+	public Charset getCharset() {
+
+		return charset;
+
+	}
+
+	@Override
+	public void encode(LogEvent logEvent, ByteBufferDestination destination) {
+
+		buf.setLength(0);
+
+		append(logEvent, buf);
+
+		encode(buf, destination);
+
+	}
+
+	/**
+	 * Render given log event to given buffer
+	 *
+	 * @param logEvent
+	 *            the log event to render
+	 * @param buf
+	 *            the target buffer
+	 */
+	protected abstract void append(LogEvent logEvent, StringBuilder buf);
+
+	/**
+	 * Append the stack trace of given throwable to the buffer passed to
+	 * {@link #append(LogEvent, StringBuilder)}
+	 *
+	 * @param throwable
+	 *            the throwable
+	 */
+	protected void appendStackTrace(Throwable throwable) {
+
+		throwable.printStackTrace(stackTraceWriter);
+
+		stackTraceWriter.flush();
+
+	}
+
+	/**
+	 * Encode given text into the buffer of given destination
+	 *
+	 * @param text
+	 *            the text to encode
+	 * @param destination
+	 *            the destination
+	 */
+	private void encode(StringBuilder text, ByteBufferDestination destination) {
+
+		int length = text.length();
+
+		if (length > chars.length) {
+
+			chars = new char[Math.max(length, chars.length * 2)];
+			charBuffer = CharBuffer.wrap(chars);
+
+		}
+
+		text.getChars(0, length, chars, 0);
+
+		charBuffer.clear();
+		charBuffer.limit(length);
+
+		charsetEncoder.reset();
+
+		ByteBuffer byteBuffer = destination.getByteBuffer();
+
+		CoderResult result;
+
+		do {
+
+			result = charsetEncoder.encode(charBuffer, byteBuffer, true);
+
+			if (result.isOverflow()) {
+				byteBuffer = destination.drain(byteBuffer);
+			}
+
+		} while (result.isOverflow());
+
+		while (charsetEncoder.flush(byteBuffer).isOverflow()) {
+
+			byteBuffer = destination.drain(byteBuffer);
+
+		}
+
+	}
+
+	/**
+	 * Writer that appends to a {@link StringBuilder}, used to render stack
+	 * traces
+	 */
+	private static class StringBuilderWriter extends Writer {
+
+		private final StringBuilder buf;
+
+		public StringBuilderWriter(StringBuilder buf) {
+
+			this.buf = buf;
+
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+
+			buf.append(cbuf, off, len);
+
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+
+			buf.append(str, off, off + len);
+
+		}
+
+		@Override
+		public void flush() {
+			// NOTHING TO DO
+		}
+
+		@Override
+		public void close() {
+			// NOTHING TO DO
+		}
+
+	}
+
+}
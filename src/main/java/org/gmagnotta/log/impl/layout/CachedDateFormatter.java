@@ -0,0 +1,160 @@
+package org.gmagnotta.log.impl.layout;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Formats timestamps with a {@link SimpleDateFormat} pattern, rendering the
+ * text only once per second.<br>
+ * The text of the current second is cached and only the milliseconds are
+ * patched in, as long as they are rendered as a fixed run of three digits (the
+ * usual SSS). Other patterns still work, they are just formatted every time.
+ * <br>
+ * Not thread safe: each layout owns its formatter
+ */
+public class CachedDateFormatter {
+
+	// Values of millisIndex for seconds that can't be patched
+	private static final int NO_MILLIS = -1;
+	private static final int NOT_CACHEABLE = -2;
+
+	private final DateFormat dateFormatter;
+	private final Date date;
+
+	private long cachedSecond;
+	private char[] cachedText;
+	private int millisIndex;
+
+	/**
+	 * Create new formatter using the default time zone
+	 *
+	 * @param dateFormat
+	 *            the {@link SimpleDateFormat} pattern
+	 */
+	public CachedDateFormatter(String dateFormat) {
+
+		this(dateFormat, TimeZone.getDefault());
+
+	}
+
+	/**
+	 * Create new formatter
+	 *
+	 * @param dateFormat
+	 *            the {@link SimpleDateFormat} pattern
+	 * @param timeZone
+	 *            the time zone
+	 */
+	public CachedDateFormatter(String dateFormat, TimeZone timeZone) {
+
+		this.dateFormatter = new SimpleDateFormat(dateFormat);
+		this.dateFormatter.setTimeZone(timeZone);
+		this.date = new Date();
+		this.cachedSecond = Long.MIN_VALUE;
+
+	}
+
+	/**
+	 * Append given time to given buffer
+	 *
+	 * @param timeMillis
+	 *            the time in milliseconds since the epoch
+	 * @param buf
+	 *            the target buffer
+	 */
+	public void format(long timeMillis, StringBuilder buf) {
+
+		long second = Math.floorDiv(timeMillis, 1000);
+
+		if (second != cachedSecond) {
+
+			cache(second);
+
+		}
+
+		if (millisIndex == NO_MILLIS) {
+
+			buf.append(cachedText);
+
+		} else if (millisIndex == NOT_CACHEABLE) {
+
+			buf.append(format(timeMillis));
+
+		} else {
+
+			int millis = (int) Math.floorMod(timeMillis, 1000);
+
+			buf.append(cachedText, 0, millisIndex);
+			buf.append((char) ('0' + millis / 100));
+			buf.append((char) ('0' + millis / 10 % 10));
+			buf.append((char) ('0' + millis % 10));
+			buf.append(cachedText, millisIndex + 3, cachedText.length - millisIndex - 3);
+
+		}
+
+	}
+
+	/**
+	 * Render the given second and find where its milliseconds are
+	 *
+	 * @param second
+	 *            the seconds since the epoch
+	 */
+	private void cache(long second) {
+
+		// Compare the first and the last millisecond of the second: they must
+		// only differ by a 000/999 run
+		String first = format(second * 1000);
+		String last = format(second * 1000 + 999);
+
+		cachedSecond = second;
+		cachedText = first.toCharArray();
+
+		if (first.equals(last)) {
+
+			millisIndex = NO_MILLIS;
+
+		} else if (first.length() != last.length()) {
+
+			millisIndex = NOT_CACHEABLE;
+
+		} else {
+
+			int start = 0;
+			while (first.charAt(start) == last.charAt(start)) {
+				start++;
+			}
+
+			int end = first.length();
+			while (first.charAt(end - 1) == last.charAt(end - 1)) {
+				end--;
+			}
+
+			if (end - start == 3 && first.startsWith("000", start) && last.startsWith("999", start)) {
+				millisIndex = start;
+			} else {
+				millisIndex = NOT_CACHEABLE;
+			}
+
+		}
+
+	}
+
+	/**
+	 * Format given time with the date format
+	 *
+	 * @param timeMillis
+	 *            the time in milliseconds since the epoch
+	 * @return the formatted time
+	 */
+	private String format(long timeMillis) {
+
+		date.setTime(timeMillis);
+
+		return dateFormatter.format(date);
+
+	}
+
+}
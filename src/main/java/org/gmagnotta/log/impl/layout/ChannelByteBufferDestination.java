@@ -0,0 +1,177 @@
+package org.gmagnotta.log.impl.layout;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.gmagnotta.log.ByteBufferDestination;
+
+/**
+ * A {@link ByteBufferDestination} that drains a reusable direct buffer to a
+ * {@link WritableByteChannel}, so a large buffer costs a single write. Not
+ * thread safe: access must be guarded by the owner
+ */
+public class ChannelByteBufferDestination implements ByteBufferDestination {
+
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+	private final ByteBuffer byteBuffer;
+	private WritableByteChannel channel;
+	private long writtenByteCount;
+
+	public ChannelByteBufferDestination() {
+
+		this(DEFAULT_BUFFER_SIZE);
+
+	}
+
+	/**
+	 * Create new destination
+	 *
+	 * @param bufferSize
+	 *            the size of the buffer
+	 */
+	public ChannelByteBufferDestination(int bufferSize) {
+
+		this.byteBuffer = ByteBuffer.allocateDirect(bufferSize);
+
+	}
+
+	/**
+	 * Set the channel that receives the bytes
+	 *
+	 * @param channel
+	 *            the target channel
+	 */
+	public void setChannel(WritableByteChannel channel) {
+
+		this.channel = channel;
+
+	}
+
+	@Override
+	public ByteBuffer getByteBuffer() {
+
+		return byteBuffer;
+
+	}
+
+	@Override
+	public ByteBuffer drain(ByteBuffer buf) {
+
+		try {
+
+			write(buf);
+
+		} catch (IOException ex) {
+
+			throw new UncheckedIOException(ex);
+
+		}
+
+		return buf;
+
+	}
+
+	/**
+	 * Write the buffered bytes to the channel
+	 *
+	 * @throws IOException
+	 *             if an error occurs writing
+	 */
+	public void flush() throws IOException {
+
+		write(byteBuffer);
+
+	}
+
+	/**
+	 * Write the first buffered bytes to the channel and keep the others
+	 *
+	 * @param byteCount
+	 *            the number of bytes to write
+	 * @throws IOException
+	 *             if an error occurs writing
+	 */
+	public void flush(int byteCount) throws IOException {
+
+		int position = byteBuffer.position();
+
+		byteBuffer.flip();
+		byteBuffer.limit(byteCount);
+
+		try {
+
+			while (byteBuffer.hasRemaining()) {
+				writtenByteCount += channel.write(byteBuffer);
+			}
+
+		} finally {
+
+			// Move the bytes left to the beginning
+			byteBuffer.limit(position);
+			byteBuffer.compact();
+
+		}
+
+	}
+
+	/**
+	 * Get the number of bytes waiting to be written
+	 *
+	 * @return buffered byte count
+	 */
+	public int getBufferedByteCount() {
+
+		return byteBuffer.position();
+
+	}
+
+	/**
+	 * Get the number of bytes written to channels so far
+	 *
+	 * @return written byte count
+	 */
+	public long getWrittenByteCount() {
+
+		return writtenByteCount;
+
+	}
+
+	/**
+	 * Discard the bytes waiting to be written
+	 */
+	public void discard() {
+
+		byteBuffer.clear();
+
+	}
+
+	/**
+	 * Write the content of given buffer to the channel and clear it
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @throws IOException
+	 *             if an error occurs writing
+	 */
+	private void write(ByteBuffer buf) throws IOException {
+
+		buf.flip();
+
+		try {
+
+			while (buf.hasRemaining()) {
+				writtenByteCount += channel.write(buf);
+			}
+
+		} finally {
+
+			buf.clear();
+
+		}
+
+	}
+
+}
@@ -0,0 +1,95 @@
+package org.gmagnotta.log.impl.layout;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+
+import org.gmagnotta.log.LogEvent;
+
+/**
+ * The standard line layout: date, thread name, level in brackets, source
+ * class and message, optionally followed by the stack trace
+ */
+public class DefaultLayout extends AbstractTextLayout {
+
+	public static final String DEFAULT_DATE_FORMAT = "dd/MM/yyyy HH:mm:ss.SSS";
+
+	private final boolean includeStackTrace;
+	private final CachedDateFormatter dateFormatter;
+
+	public DefaultLayout() {
+
+		this(DEFAULT_DATE_FORMAT, true);
+
+	}
+
+	/**
+	 * Create new layout using the default charset
+	 *
+	 * @param dateFormat
+	 *            the {@link SimpleDateFormat} pattern of the date
+	 * @param includeStackTrace
+	 *            true to append the stack trace of the throwable
+	 */
+	public DefaultLayout(String dateFormat, boolean includeStackTrace) {
+
+		this(dateFormat, includeStackTrace, Charset.defaultCharset());
+
+	}
+
+	/**
+	 * Create new layout
+	 *
+	 * @param dateFormat
+	 *            the {@link SimpleDateFormat} pattern of the date
+	 * @param includeStackTrace
+	 *            true to append the stack trace of the throwable
+	 * @param charset
+	 *            the charset used to encode lines
+	 */
+	public DefaultLayout(String dateFormat, boolean includeStackTrace, Charset charset) {
+
+		super(charset);
+
+		this.includeStackTrace = includeStackTrace;
+		this.dateFormatter = new CachedDateFormatter(dateFormat);
+
+	}
+
+	@Override
+	protected void append(LogEvent logEvent, StringBuilder buf) {
+
+		// Append date
+		dateFormatter.format(logEvent.getTimeMillis(), buf);
+		buf.append(' ');
+
+		// Append Thread name
+		buf.append(logEvent.getThreadName());
+		buf.append(' ');
+
+		// Append Level in brackets
+		buf.append('[');
+		buf.append(logEvent.getLogLevel().toString());
+		buf.append(']');
+		buf.append(' ');
+
+		// Append name
+		buf.append(logEvent.getSourceClass());
+		buf.append(' ');
+
+		// Append message
+		logEvent.appendMessage(buf);
+		buf.append(' ');
+
+		buf.append(System.lineSeparator());
+
+		Throwable throwable = logEvent.getThrowable();
+
+		if (includeStackTrace && throwable != null) {
+
+			appendStackTrace(throwable);
+
+		}
+
+	}
+
+}
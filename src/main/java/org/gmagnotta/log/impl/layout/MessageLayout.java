@@ -0,0 +1,64 @@
+package org.gmagnotta.log.impl.layout;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+
+import org.gmagnotta.log.LogEvent;
+
+/**
+ * A short line layout made of date and message only
+ */
+public class MessageLayout extends AbstractTextLayout {
+
+	private final CachedDateFormatter dateFormatter;
+
+	public MessageLayout() {
+
+		this(DefaultLayout.DEFAULT_DATE_FORMAT);
+
+	}
+
+	/**
+	 * Create new layout using the default charset
+	 *
+	 * @param dateFormat
+	 *            the {@link SimpleDateFormat} pattern of the date
+	 */
+	public MessageLayout(String dateFormat) {
+
+		this(dateFormat, Charset.defaultCharset());
+
+	}
+
+	/**
+	 * Create new layout
+	 *
+	 * @param dateFormat
+	 *            the {@link SimpleDateFormat} pattern of the date
+	 * @param charset
+	 *            the charset used to encode lines
+	 */
+	public MessageLayout(String dateFormat, Charset charset) {
+
+		super(charset);
+
+		this.dateFormatter = new CachedDateFormatter(dateFormat);
+
+	}
+
+	@Override
+	protected void append(LogEvent logEvent, StringBuilder buf) {
+
+		// Append date
+		dateFormatter.format(logEvent.getTimeMillis(), buf);
+		buf.append(' ');
+
+		// Append message
+		logEvent.appendMessage(buf);
+		buf.append(' ');
+
+		buf.append(System.lineSeparator());
+
+	}
+
+}
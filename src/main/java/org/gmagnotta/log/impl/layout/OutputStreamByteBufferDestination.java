@@ -0,0 +1,115 @@
+package org.gmagnotta.log.impl.layout;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+import org.gmagnotta.log.ByteBufferDestination;
+
+/**
+ * A {@link ByteBufferDestination} that drains a reusable heap buffer to an
+ * {@link OutputStream}. Not thread safe: access must be guarded by the owner
+ */
+public class OutputStreamByteBufferDestination implements ByteBufferDestination {
+
+	public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+	private final ByteBuffer byteBuffer;
+	private OutputStream outputStream;
+
+	public OutputStreamByteBufferDestination() {
+
+		this(DEFAULT_BUFFER_SIZE);
+
+	}
+
+	/**
+	 * Create new destination
+	 *
+	 * @param bufferSize
+	 *            the size of the buffer
+	 */
+	public OutputStreamByteBufferDestination(int bufferSize) {
+
+		this.byteBuffer = ByteBuffer.allocate(bufferSize);
+
+	}
+
+	/**
+	 * Set the stream that receives the bytes
+	 *
+	 * @param outputStream
+	 *            the target output stream
+	 */
+	public void setOutputStream(OutputStream outputStream) {
+
+		this.outputStream = outputStream;
+
+	}
+
+	@Override
+	public ByteBuffer getByteBuffer() {
+
+		return byteBuffer;
+
+	}
+
+	@Override
+	public ByteBuffer drain(ByteBuffer buf) {
+
+		try {
+
+			write(buf);
+
+		} catch (IOException ex) {
+
+			throw new UncheckedIOException(ex);
+
+		}
+
+		return buf;
+
+	}
+
+	/**
+	 * Write the buffered bytes to the output stream and flush it
+	 *
+	 * @throws IOException
+	 *             if an error occurs writing
+	 */
+	public void flush() throws IOException {
+
+		write(byteBuffer);
+
+		outputStream.flush();
+
+	}
+
+	/**
+	 * Write the content of given buffer to the output stream and clear it
+	 *
+	 * @param buf
+	 *            the buffer
+	 * @throws IOException
+	 *             if an error occurs writing
+	 */
+	private void write(ByteBuffer buf) throws IOException {
+
+		buf.flip();
+
+		try {
+
+			if (buf.hasRemaining()) {
+				outputStream.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+			}
+
+		} finally {
+
+			buf.clear();
+
+		}
+
+	}
+
+}
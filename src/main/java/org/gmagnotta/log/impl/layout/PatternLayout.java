@@ -0,0 +1,256 @@
+package org.gmagnotta.log.impl.layout;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gmagnotta.log.LogEvent;
+
+/**
+ * A layout driven by a conversion pattern. The pattern is parsed once into an
+ * array of converters, each event just runs through them.<br>
+ * Supported conversions:
+ * <ul>
+ * <li>%d or %d{format}: date, format is a {@link java.text.SimpleDateFormat}
+ * pattern, {@value DefaultLayout#DEFAULT_DATE_FORMAT} by default</li>
+ * <li>%t: thread name</li>
+ * <li>%p: level</li>
+ * <li>%c: source class</li>
+ * <li>%m: message</li>
+ * <li>%marker: marker</li>
+ * <li>%ex: stack trace of the throwable, if any</li>
+ * <li>%n: line separator</li>
+ * <li>%%: a percent sign</li>
+ * </ul>
+ */
+public class PatternLayout extends AbstractTextLayout {
+
+	/**
+	 * The pattern of {@link DefaultLayout}
+	 */
+	public static final String DEFAULT_PATTERN = "%d{" + DefaultLayout.DEFAULT_DATE_FORMAT + "} %t [%p] %c %m %n%ex";
+
+	private final String pattern;
+	private final Converter[] converters;
+
+	public PatternLayout() {
+
+		this(DEFAULT_PATTERN);
+
+	}
+
+	/**
+	 * Create new layout using the default charset
+	 *
+	 * @param pattern
+	 *            the conversion pattern
+	 * @throws IllegalArgumentException
+	 *             if the pattern is not valid
+	 */
+	public PatternLayout(String pattern) {
+
+		this(pattern, Charset.defaultCharset());
+
+	}
+
+	/**
+	 * Create new layout
+	 *
+	 * @param pattern
+	 *            the conversion pattern
+	 * @param charset
+	 *            the charset used to encode lines
+	 * @throws IllegalArgumentException
+	 *             if the pattern is not valid
+	 */
+	public PatternLayout(String pattern, Charset charset) {
+
+		super(charset);
+
+		this.pattern = pattern;
+		this.converters = parse(pattern);
+
+	}
+
+	/**
+	 * Get the conversion pattern
+	 *
+	 * @return the pattern
+	 */
+	public String getPattern() {
+
+		return pattern;
+
+	}
+
+	@Override
+	protected void append(LogEvent logEvent, StringBuilder buf) {
+
+		for (int i = 0; i < converters.length; i++) {
+
+			converters[i].append(logEvent, buf);
+
+		}
+
+	}
+
+	/**
+	 * Parse given pattern into converters
+	 *
+	 * @param pattern
+	 *            the conversion pattern
+	 * @return the converters
+	 */
+	private Converter[] parse(String pattern) {
+
+		List<Converter> converters = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+
+		int i = 0;
+
+		while (i < pattern.length()) {
+
+			char c = pattern.charAt(i++);
+
+			if (c != '%') {
+				literal.append(c);
+				continue;
+			}
+
+			if (i == pattern.length()) {
+				throw new IllegalArgumentException("Pattern ends with %: " + pattern);
+			}
+
+			if (pattern.charAt(i) == '%') {
+				literal.append('%');
+				i++;
+				continue;
+			}
+
+			// Longest names first
+			Converter converter;
+
+			if (pattern.startsWith("marker", i)) {
+
+				converter = (logEvent, buf) -> buf.append(logEvent.getMarker());
+				i += 6;
+
+			} else if (pattern.startsWith("ex", i)) {
+
+				converter = (logEvent, buf) -> {
+					if (logEvent.getThrowable() != null) {
+						appendStackTrace(logEvent.getThrowable());
+					}
+				};
+				i += 2;
+
+			} else {
+
+				switch (pattern.charAt(i++)) {
+
+				case 'd':
+
+					String dateFormat = DefaultLayout.DEFAULT_DATE_FORMAT;
+
+					if (i < pattern.length() && pattern.charAt(i) == '{') {
+
+						int end = pattern.indexOf('}', i);
+
+						if (end < 0) {
+							throw new IllegalArgumentException("Missing } in pattern: " + pattern);
+						}
+
+						dateFormat = pattern.substring(i + 1, end);
+						i = end + 1;
+
+					}
+
+					CachedDateFormatter dateFormatter = new CachedDateFormatter(dateFormat);
+					converter = (logEvent, buf) -> dateFormatter.format(logEvent.getTimeMillis(), buf);
+					break;
+
+				case 't':
+					converter = (logEvent, buf) -> buf.append(logEvent.getThreadName());
+					break;
+
+				case 'p':
+					converter = (logEvent, buf) -> buf.append(logEvent.getLogLevel().toString());
+					break;
+
+				case 'c':
+					converter = (logEvent, buf) -> buf.append(logEvent.getSourceClass());
+					break;
+
+				case 'm':
+					converter = (logEvent, buf) -> logEvent.appendMessage(buf);
+					break;
+
+				case 'n':
+					converter = new LiteralConverter(System.lineSeparator());
+					break;
+
+				default:
+					throw new IllegalArgumentException("Unknown conversion %" + pattern.charAt(i - 1)
+							+ " in pattern: " + pattern);
+
+				}
+
+			}
+
+			if (converter instanceof LiteralConverter) {
+
+				literal.append(((LiteralConverter) converter).text);
+
+			} else {
+
+				if (literal.length() > 0) {
+					converters.add(new LiteralConverter(literal.toString()));
+					literal.setLength(0);
+				}
+
+				converters.add(converter);
+
+			}
+
+		}
+
+		if (literal.length() > 0) {
+			converters.add(new LiteralConverter(literal.toString()));
+		}
+
+		return converters.toArray(new Converter[converters.size()]);
+
+	}
+
+	/**
+	 * Renders one part of the line
+	 */
+	private interface Converter {
+
+		public void append(LogEvent logEvent, StringBuilder buf);
+
+	}
+
+	/**
+	 * Renders a fixed text. Adjacent texts are merged in a single converter
+	 */
+	private static class LiteralConverter implements Converter {
+
+		private final String text;
+
+		public LiteralConverter(String text) {
+
+			this.text = text;
+
+		}
+
+		@Override
+		public void append(LogEvent logEvent, StringBuilder buf) {
+
+			buf.append(text);
+
+		}
+
+	}
+
+}
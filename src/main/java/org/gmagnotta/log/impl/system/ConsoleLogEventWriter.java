@@ -1,75 +1,97 @@
 package org.gmagnotta.log.impl.system;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
-import org.gmagnotta.log.LogLevel;
+import org.gmagnotta.log.BatchLogEventWriter;
+import org.gmagnotta.log.Layout;
 import org.gmagnotta.log.LogEvent;
-import org.gmagnotta.log.LogEventWriter;
+import org.gmagnotta.log.impl.layout.DefaultLayout;
+import org.gmagnotta.log.impl.layout.OutputStreamByteBufferDestination;
 
 /**
  * A logger strategy that redirects all output to System.out
  */
-public class ConsoleLogEventWriter implements LogEventWriter {
+public class ConsoleLogEventWriter implements BatchLogEventWriter {
 
-	private static final String DEFAULT_DATE_FORMAT = "dd/MM/yyyy HH:mm:ss.SSS";
-
-	private String dateFormat;
+	// Access is guarded by this
+	private final Layout layout;
+	private final OutputStreamByteBufferDestination destination;
+	private final boolean printStackTrace;
 
 	public ConsoleLogEventWriter() {
-		this(DEFAULT_DATE_FORMAT);
+		this(DefaultLayout.DEFAULT_DATE_FORMAT);
 	}
 
+	/**
+	 * Create new console writer using the default layout. Stack traces are
+	 * printed to System.err
+	 *
+	 * @param dateFormat
+	 *            the date format
+	 */
 	public ConsoleLogEventWriter(String dateFormat) {
-		this.dateFormat = dateFormat;
+		this(new DefaultLayout(dateFormat, false), true);
+	}
+
+	/**
+	 * Create new console writer using given layout. Stack traces are left to
+	 * the layout
+	 *
+	 * @param layout
+	 *            the layout
+	 */
+	public ConsoleLogEventWriter(Layout layout) {
+		this(layout, false);
+	}
+
+	private ConsoleLogEventWriter(Layout layout, boolean printStackTrace) {
+		this.layout = layout;
+		this.destination = new OutputStreamByteBufferDestination();
+		this.printStackTrace = printStackTrace;
 	}
 
 	@Override
-	public synchronized void write(LogEvent log) {
+	public void write(LogEvent log) {
+
+		write(Collections.singletonList(log));
+
+	}
+
+	@Override
+	public synchronized void write(List<LogEvent> logEvents) {
+
+		destination.setOutputStream(System.out);
+
+		try {
+
+			for (int i = 0; i < logEvents.size(); i++) {
 
-		// Get log detail
-		LogLevel logLevel = log.getLogLevel();
-		String sourceClass = log.getSourceClass();
-		Date date = log.getDate();
-		String threadName = log.getThreadName();
-		String message = log.getMessage();
-		Throwable throwable = log.getThrowable();
+				LogEvent log = logEvents.get(i);
 
-		// Create date format
-		DateFormat dateFormatter = new SimpleDateFormat(dateFormat);
+				layout.encode(log, destination);
 
-		StringBuilder buf = new StringBuilder(32);
+				Throwable throwable = log.getThrowable();
 
-		// Append date
-		buf.append(dateFormatter.format(date));
-		buf.append(' ');
+				// Check if throwable is not null
+				if (printStackTrace && throwable != null) {
 
-		// Append Thread name
-		buf.append(threadName);
-		buf.append(' ');
+					// Print lines so far to keep them before the stack trace
+					destination.flush();
 
-		// Append Level in brackets
-		buf.append('[');
-		buf.append(logLevel.toString());
-		buf.append(']');
-		buf.append(' ');
+					// Log throwable
+					throwable.printStackTrace();
 
-		// Append name
-		buf.append(sourceClass);
-		buf.append(' ');
+				}
 
-		// Append message
-		buf.append(message);
-		buf.append(' ');
+			}
 
-		System.out.println(buf.toString());
+			destination.flush();
 
-		// Check if throwable is not null
-		if (throwable != null) {
+		} catch (IOException ex) {
 
-			// Log throwable
-			throwable.printStackTrace();
+			// System.out never throws
 
 		}
 
@@ -1,64 +1,84 @@
 package org.gmagnotta.log.impl.system;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
 
+import org.gmagnotta.log.BatchLogEventWriter;
+import org.gmagnotta.log.Layout;
 import org.gmagnotta.log.LogEvent;
-import org.gmagnotta.log.LogEventWriter;
 import org.gmagnotta.log.LogLevel;
+import org.gmagnotta.log.impl.layout.DefaultLayout;
+import org.gmagnotta.log.impl.layout.MessageLayout;
+import org.gmagnotta.log.impl.layout.OutputStreamByteBufferDestination;
 
-public class MarkerAwareConsoleLogEventWriter implements LogEventWriter {
-
-	private static final String DEFAULT_DATE_FORMAT = "dd/MM/yyyy HH:mm:ss.SSS";
+public class MarkerAwareConsoleLogEventWriter implements BatchLogEventWriter {
 
 	private List<String> markers;
-	private String dateFormat;
+
+	// Access is guarded by this
+	private final Layout layout;
+	private final OutputStreamByteBufferDestination destination;
 
 	public MarkerAwareConsoleLogEventWriter(String marker) {
 
-		this(DEFAULT_DATE_FORMAT, toListString(marker));
+		this(DefaultLayout.DEFAULT_DATE_FORMAT, toListString(marker));
 
 	}
-	
+
 	public MarkerAwareConsoleLogEventWriter(List<String> markers) {
 
-		this(DEFAULT_DATE_FORMAT, markers);
+		this(DefaultLayout.DEFAULT_DATE_FORMAT, markers);
 
 	}
 
 	public MarkerAwareConsoleLogEventWriter(String dateFormat, List<String> markers) {
 
-		this.dateFormat = dateFormat;
+		this(new MessageLayout(dateFormat), markers);
+
+	}
+
+	public MarkerAwareConsoleLogEventWriter(Layout layout, List<String> markers) {
+
 		this.markers = markers;
+		this.layout = layout;
+		this.destination = new OutputStreamByteBufferDestination();
+
+	}
+
+	@Override
+	public void write(LogEvent log) {
+
+		write(Collections.singletonList(log));
+
 	}
 
 	@Override
-	public synchronized void write(LogEvent log) {
+	public synchronized void write(List<LogEvent> logEvents) {
+
+		destination.setOutputStream(System.out);
+
+		try {
 
-		if (markers.contains(log.getMarker()) &&
-				log.getLogLevel().isHigherOrEqual(LogLevel.INFO)) {
+			for (int i = 0; i < logEvents.size(); i++) {
 
-			// Get log detail
-			Date date = log.getDate();
-			String message = log.getMessage();
+				LogEvent log = logEvents.get(i);
 
-			// Create date format
-			DateFormat dateFormatter = new SimpleDateFormat(dateFormat);
+				if (markers.contains(log.getMarker()) &&
+						log.getLogLevel().isHigherOrEqual(LogLevel.INFO)) {
 
-			StringBuilder buf = new StringBuilder(32);
+					layout.encode(log, destination);
 
-			// Append date
-			buf.append(dateFormatter.format(date));
-			buf.append(' ');
+				}
 
-			// Append message
-			buf.append(message);
-			buf.append(' ');
+			}
 
-			System.out.println(buf.toString());
+			destination.flush();
+
+		} catch (IOException ex) {
+
+			// System.out never throws
 
 		}
 
@@ -70,12 +90,12 @@ public class MarkerAwareConsoleLogEventWriter implements LogEventWriter {
 	}
 
 	private static List<String> toListString(String string) {
-		
+
 		List<String> list = new ArrayList<>();
 		list.add(string);
-		
+
 		return list;
-		
+
 	}
 
 }
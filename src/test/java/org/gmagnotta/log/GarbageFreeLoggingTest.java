@@ -0,0 +1,262 @@
+package org.gmagnotta.log;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gmagnotta.log.impl.layout.DefaultLayout;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class GarbageFreeLoggingTest {
+
+	private static final int WARM_UP_EVENTS = 20000;
+	private static final int MEASURED_EVENTS = 1000;
+	private static final int MAX_MEASURED_ROUNDS = 10;
+
+	@Test
+	public void testSteadyStateLoggingDoesNotAllocate() throws Exception {
+
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+
+		final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+
+		Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+		final AtomicLong written = new AtomicLong();
+		final AtomicBoolean measuring = new AtomicBoolean();
+		final AtomicLong writerAllocatedBytes = new AtomicLong();
+
+		final Layout layout = new DefaultLayout();
+		final ByteBufferDestination destination = new ByteBufferDestination() {
+
+			private final ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
+
+			@Override
+			public ByteBuffer getByteBuffer() {
+				return byteBuffer;
+			}
+
+			@Override
+			public ByteBuffer drain(ByteBuffer buf) {
+				buf.clear();
+				return buf;
+			}
+		};
+
+		// Encodes like the real writers, measuring its own allocations
+		BatchLogEventWriter encodingWriter = new BatchLogEventWriter() {
+
+			@Override
+			public void write(List<LogEvent> logEvents) {
+
+				long writerThreadId = Thread.currentThread().getId();
+				boolean measured = measuring.get();
+				long before = 0;
+				long overhead = 0;
+
+				if (measured) {
+					before = threadMXBean.getThreadAllocatedBytes(writerThreadId);
+					overhead = threadMXBean.getThreadAllocatedBytes(writerThreadId) - before;
+					before = threadMXBean.getThreadAllocatedBytes(writerThreadId);
+				}
+
+				for (int i = 0; i < logEvents.size(); i++) {
+					layout.encode(logEvents.get(i), destination);
+					destination.getByteBuffer().clear();
+				}
+
+				if (measured) {
+					writerAllocatedBytes.addAndGet(
+							threadMXBean.getThreadAllocatedBytes(writerThreadId) - before - overhead);
+				}
+
+				written.addAndGet(logEvents.size());
+
+			}
+
+			@Override
+			public void write(LogEvent log) {
+				layout.encode(log, destination);
+				destination.getByteBuffer().clear();
+				written.incrementAndGet();
+			}
+
+			@Override
+			public void stop() {
+			}
+		};
+
+		LogEventCollector logEventCollector = LogEventCollector.getInstance();
+		logEventCollector.start();
+		logEventCollector.clearLogEventWriters();
+		logEventCollector.setLogLevelThreshold(LogLevel.INFO);
+		logEventCollector.addLogEventWriter(encodingWriter);
+		logEventCollector.setGarbageFree(true);
+
+		try {
+
+			Logger logger = Logger.getLogger(GarbageFreeLoggingTest.class);
+
+			for (int i = 0; i < WARM_UP_EVENTS; i++) {
+				logger.info("garbage free");
+				logger.debug("discarded");
+			}
+
+			waitForWrittenEvents(written, WARM_UP_EVENTS);
+
+			long threadId = Thread.currentThread().getId();
+
+			// Measure the cost of measuring
+			long before = threadMXBean.getThreadAllocatedBytes(threadId);
+			long after = threadMXBean.getThreadAllocatedBytes(threadId);
+			long overhead = after - before;
+
+			// A round may still see one-off allocations of the JIT or of a date
+			// rendered for a new second, while an allocating event would show
+			// in every round
+			long writtenEvents = WARM_UP_EVENTS;
+			long producerAllocatedBytes = -1;
+
+			for (int round = 0; round < MAX_MEASURED_ROUNDS
+					&& (producerAllocatedBytes != 0 || writerAllocatedBytes.get() != 0); round++) {
+
+				writerAllocatedBytes.set(0);
+				measuring.set(true);
+
+				before = threadMXBean.getThreadAllocatedBytes(threadId);
+
+				for (int i = 0; i < MEASURED_EVENTS; i++) {
+					logger.info("garbage free");
+					logger.debug("discarded");
+				}
+
+				after = threadMXBean.getThreadAllocatedBytes(threadId);
+				producerAllocatedBytes = after - before - overhead;
+
+				writtenEvents += MEASURED_EVENTS;
+				waitForWrittenEvents(written, writtenEvents);
+
+				measuring.set(false);
+
+			}
+
+			// Producer and writer side, layout and encoder included
+			Assert.assertEquals(0, producerAllocatedBytes);
+			Assert.assertEquals(0, writerAllocatedBytes.get());
+
+			// Every event written went back to the pool
+			LogEventPool logEventPool = logEventCollector.getLogEventPool();
+			long deadline = System.currentTimeMillis() + 10000;
+			while (logEventPool.getFreeLogEventCount() < logEventPool.getCapacity()
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			Assert.assertEquals(logEventPool.getCapacity(), logEventPool.getFreeLogEventCount());
+
+		} finally {
+
+			logEventCollector.setGarbageFree(false);
+			logEventCollector.removeLogEventWriter(encodingWriter);
+
+		}
+
+	}
+
+	@Test
+	public void testRemovedWriterGivesPooledEventsBack() throws Exception {
+
+		final CountDownLatch writing = new CountDownLatch(1);
+
+		// Swallows the interrupt of its lane, so only the stop flag ends it
+		LogEventWriter stuckWriter = new LogEventWriter() {
+
+			@Override
+			public void write(LogEvent log) {
+				writing.countDown();
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					// Ignored on purpose
+				}
+			}
+
+			@Override
+			public void stop() {
+			}
+		};
+
+		// Keeps the spooler dispatching once the stuck writer is removed
+		LogEventWriter otherWriter = new LogEventWriter() {
+
+			@Override
+			public void write(LogEvent log) {
+			}
+
+			@Override
+			public void stop() {
+			}
+		};
+
+		LogEventCollector logEventCollector = LogEventCollector.getInstance();
+		logEventCollector.start();
+		logEventCollector.clearLogEventWriters();
+		logEventCollector.setLogLevelThreshold(LogLevel.INFO);
+		logEventCollector.setGarbageFree(true);
+
+		LogEventPool logEventPool = logEventCollector.getLogEventPool();
+		int poolSize = logEventPool.getFreeLogEventCount();
+
+		try {
+
+			logEventCollector.addLogEventWriter(otherWriter);
+			logEventCollector.addLogEventWriter(stuckWriter, 16, OverflowPolicy.dropOldest());
+
+			Logger logger = Logger.getLogger(GarbageFreeLoggingTest.class);
+
+			for (int i = 0; i < 100; i++) {
+				logger.info("queued");
+			}
+
+			Assert.assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+			// Events still queued in the lane are released once it is removed
+			logEventCollector.removeLogEventWriter(stuckWriter);
+
+			long deadline = System.currentTimeMillis() + 10000;
+			while (logEventPool.getFreeLogEventCount() < poolSize && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+
+			Assert.assertEquals(poolSize, logEventPool.getFreeLogEventCount());
+
+		} finally {
+
+			logEventCollector.setGarbageFree(false);
+			logEventCollector.removeLogEventWriter(stuckWriter);
+			logEventCollector.removeLogEventWriter(otherWriter);
+
+		}
+
+	}
+
+	private static void waitForWrittenEvents(AtomicLong written, long expected) throws InterruptedException {
+
+		long deadline = System.currentTimeMillis() + 10000;
+
+		while (written.get() < expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		Assert.assertEquals(expected, written.get());
+
+	}
+
+}
@@ -1,6 +1,10 @@
 package org.gmagnotta.log;
 
 import java.util.Date;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -33,25 +37,118 @@ public class LogEventCollectorTest {
 	}
 
 	@Test
-	public void test() {
+	public void test() throws Exception {
 		
 		final LogEvent event = new LogEvent(LogLevel.INFO, "test", new Date(), "thread", "test");
+		final BlockingQueue<LogEvent> written = new LinkedBlockingQueue<>();
 		
-		logEventCollector.addLogEventWriter(new LogEventWriter() {
+		LogEventWriter logEventWriter = new LogEventWriter() {
 			
 			@Override
 			public void write(LogEvent log) {
-				Assert.assertEquals(event, log);
+				// Asserted on the test thread, failures here would be lost
+				written.add(log);
 			}
 			
 			@Override
 			public void stop() {
-				// TODO Auto-generated method stub
+			}
+		};
+
+		logEventCollector.addLogEventWriter(logEventWriter);
+
+		try {
+
+			logEventCollector.addLogEvent(event);
+
+			Assert.assertSame(event, written.poll(10, TimeUnit.SECONDS));
+
+		} finally {
+
+			logEventCollector.removeLogEventWriter(logEventWriter);
+
+		}
+
+	}
+
+	@Test
+	public void testInvalidQueuePropertiesFallBackToDefaults() {
 
+		try {
+
+			System.setProperty(LogEventCollector.QUEUE_CAPACITY_PROPERTY, "1000");
+			System.setProperty(LogEventCollector.WAIT_STRATEGY_PROPERTY, "SPIN");
+
+			Assert.assertEquals(LogEventSpooler.DEFAULT_CAPACITY, LogEventCollector.getQueueCapacity());
+			Assert.assertEquals(WaitStrategy.BLOCK, LogEventCollector.getWaitStrategy());
+
+			System.setProperty(LogEventCollector.QUEUE_CAPACITY_PROPERTY, "1024");
+			System.setProperty(LogEventCollector.WAIT_STRATEGY_PROPERTY, "yield");
+
+			Assert.assertEquals(1024, LogEventCollector.getQueueCapacity());
+			Assert.assertEquals(WaitStrategy.YIELD, LogEventCollector.getWaitStrategy());
+
+		} finally {
+
+			System.clearProperty(LogEventCollector.QUEUE_CAPACITY_PROPERTY);
+			System.clearProperty(LogEventCollector.WAIT_STRATEGY_PROPERTY);
+
+		}
+
+	}
+
+	@Test
+	public void testDroppedLogEventCount() throws Exception {
+
+		final CountDownLatch writing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		LogEventWriter slowWriter = new LogEventWriter() {
+
+			@Override
+			public void write(LogEvent log) {
+				writing.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
 			}
-		});
-		
-		logEventCollector.addLogEvent(event);
+
+			@Override
+			public void stop() {
+			}
+		};
+
+		long droppedBefore = logEventCollector.getDroppedLogEventCount();
+		logEventCollector.addLogEventWriter(slowWriter, 2, OverflowPolicy.dropNewest());
+
+		try {
+
+			// Writer is stuck on the first event
+			logEventCollector.addLogEvent(new LogEvent(LogLevel.INFO, "test", new Date(), "thread", "first"));
+			Assert.assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+			// Two fit in the lane queue, the others are dropped
+			for (int i = 0; i < 10; i++) {
+				logEventCollector.addLogEvent(new LogEvent(LogLevel.INFO, "test", new Date(), "thread", "test" + i));
+			}
+
+			long deadline = System.currentTimeMillis() + 10000;
+			while (logEventCollector.getDroppedLogEventCount(slowWriter) < 8 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+
+			Assert.assertEquals(8, logEventCollector.getDroppedLogEventCount(slowWriter));
+			Assert.assertTrue(logEventCollector.getDroppedLogEventCount() - droppedBefore >= 8);
+
+		} finally {
+
+			release.countDown();
+			logEventCollector.removeLogEventWriter(slowWriter);
+
+		}
+
 	}
 
 }
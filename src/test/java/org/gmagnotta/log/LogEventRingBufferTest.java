@@ -0,0 +1,165 @@
+package org.gmagnotta.log;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LogEventRingBufferTest {
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCapacityMustBePowerOfTwo() {
+
+		new LogEventRingBuffer(100, WaitStrategy.BUSY_SPIN);
+
+	}
+
+	@Test
+	public void testOfferAndPoll() {
+
+		LogEventRingBuffer ringBuffer = new LogEventRingBuffer(4, WaitStrategy.BUSY_SPIN);
+
+		Assert.assertNull(ringBuffer.poll());
+
+		for (int i = 0; i < 4; i++) {
+			Assert.assertTrue(ringBuffer.offer(newEvent(Integer.toString(i))));
+		}
+
+		// Buffer is full
+		Assert.assertFalse(ringBuffer.offer(newEvent("overflow")));
+		Assert.assertEquals(4, ringBuffer.size());
+
+		Assert.assertEquals("0", ringBuffer.poll().getMessage());
+		Assert.assertTrue(ringBuffer.offer(newEvent("4")));
+
+		List<LogEvent> events = new ArrayList<>();
+		Assert.assertEquals(4, ringBuffer.drainTo(events, 10));
+
+		for (int i = 0; i < 4; i++) {
+			Assert.assertEquals(Integer.toString(i + 1), events.get(i).getMessage());
+		}
+
+		Assert.assertTrue(ringBuffer.isEmpty());
+
+	}
+
+	@Test
+	public void testMultipleProducers() throws Exception {
+
+		final LogEventRingBuffer ringBuffer = new LogEventRingBuffer(64, WaitStrategy.YIELD);
+		final int producers = 4;
+		final int eventsPerProducer = 10000;
+
+		List<Thread> threads = new ArrayList<>();
+
+		for (int p = 0; p < producers; p++) {
+
+			final String name = "producer" + p;
+
+			Thread thread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+
+					try {
+
+						for (int i = 0; i < eventsPerProducer; i++) {
+							ringBuffer.put(new LogEvent(LogLevel.INFO, "test", new Date(), name, Integer.toString(i)));
+						}
+
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+
+				}
+
+			});
+
+			threads.add(thread);
+			thread.start();
+
+		}
+
+		int[] next = new int[producers];
+
+		for (int i = 0; i < producers * eventsPerProducer; i++) {
+
+			LogEvent event = ringBuffer.take();
+			int producer = Integer.parseInt(event.getThreadName().substring("producer".length()));
+
+			// Events of a single producer must keep their order
+			Assert.assertEquals(next[producer]++, Integer.parseInt(event.getMessage()));
+
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Assert.assertTrue(ringBuffer.isEmpty());
+
+	}
+
+	@Test
+	public void testBlockedThreadsAreSignalled() throws Exception {
+
+		final LogEventRingBuffer ringBuffer = new LogEventRingBuffer(2, WaitStrategy.BLOCK);
+		final List<String> taken = new ArrayList<>();
+
+		Thread consumer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+
+				try {
+
+					for (int i = 0; i < 100; i++) {
+
+						taken.add(ringBuffer.take().getMessage());
+
+						// Let the producer fill the buffer and block
+						if (i == 0) {
+							Thread.sleep(100);
+						}
+
+					}
+
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+
+			}
+
+		});
+
+		consumer.start();
+
+		// Consumer blocks on the empty buffer before the first event
+		long deadline = System.currentTimeMillis() + 5000;
+		while (consumer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(Thread.State.WAITING, consumer.getState());
+
+		for (int i = 0; i < 100; i++) {
+			ringBuffer.put(newEvent(Integer.toString(i)));
+		}
+
+		consumer.join(5000);
+		Assert.assertFalse(consumer.isAlive());
+
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals(Integer.toString(i), taken.get(i));
+		}
+
+	}
+
+	private static LogEvent newEvent(String message) {
+
+		return new LogEvent(LogLevel.INFO, "test", new Date(), "thread", message);
+
+	}
+
+}
@@ -0,0 +1,335 @@
+package org.gmagnotta.log;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogEventSpoolerTest {
+
+	private LogEventSpooler logEventSpooler;
+	private Thread thread;
+
+	@Before
+	public void setUp() throws Exception {
+		logEventSpooler = new LogEventSpooler(16, WaitStrategy.YIELD);
+		thread = new Thread(logEventSpooler, "LogEventSpoolerTest");
+		thread.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		thread.interrupt();
+		thread.join();
+	}
+
+	@Test
+	public void testSlowWriterDoesNotStallOthers() throws Exception {
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch written = new CountDownLatch(100);
+
+		LogEventWriter slowWriter = new LogEventWriter() {
+
+			@Override
+			public void write(LogEvent log) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void stop() {
+			}
+		};
+
+		LogEventWriter fastWriter = new LogEventWriter() {
+
+			@Override
+			public void write(LogEvent log) {
+				written.countDown();
+			}
+
+			@Override
+			public void stop() {
+			}
+		};
+
+		logEventSpooler.addLogEventWriter(slowWriter, 4, OverflowPolicy.dropNewest());
+		logEventSpooler.addLogEventWriter(fastWriter);
+
+		for (int i = 0; i < 100; i++) {
+			logEventSpooler.addLogEvent(new LogEvent(LogLevel.INFO, "test", new Date(), "thread", "test" + i));
+		}
+
+		Assert.assertTrue(written.await(10, TimeUnit.SECONDS));
+
+		release.countDown();
+
+		// Slow writer took at most a full queue in its first batch and queued
+		// 4 more events, the rest was dropped
+		long dropped = logEventSpooler.getDroppedLogEventCount(slowWriter);
+		Assert.assertTrue(dropped >= 91 && dropped <= 96);
+		Assert.assertEquals(0, logEventSpooler.getDroppedLogEventCount(fastWriter));
+
+	}
+
+	@Test
+	public void testLossyWriterDoesNotStallDefaultWriters() throws Exception {
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch written = new CountDownLatch(LogEventSpooler.DEFAULT_CAPACITY * 2);
+
+		// Declares its policy, like writers of remote services
+		LogEventWriter stuckWriter = new LogEventWriter() {
+
+			@Override
+			public void write(LogEvent log) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void stop() {
+			}
+
+			@Override
+			public OverflowPolicy getOverflowPolicy() {
+				return OverflowPolicy.dropNewest();
+			}
+		};
+
+		LogEventWriter fastWriter = new LogEventWriter() {
+
+			@Override
+			public void write(LogEvent log) {
+				written.countDown();
+			}
+
+			@Override
+			public void stop() {
+			}
+		};
+
+		logEventSpooler.addLogEventWriter(stuckWriter);
+		logEventSpooler.addLogEventWriter(fastWriter);
+
+		try {
+
+			for (int i = 0; i < LogEventSpooler.DEFAULT_CAPACITY * 2; i++) {
+				logEventSpooler.addLogEvent(newEvent(LogLevel.INFO, "test" + i));
+			}
+
+			Assert.assertTrue(written.await(10, TimeUnit.SECONDS));
+			Assert.assertTrue(logEventSpooler.getDroppedLogEventCount(stuckWriter) > 0);
+
+		} finally {
+
+			release.countDown();
+			logEventSpooler.removeLogEventWriter(stuckWriter);
+			logEventSpooler.removeLogEventWriter(fastWriter);
+
+		}
+
+	}
+
+	@Test
+	public void testBlockWaitsForRoom() throws Exception {
+
+		final LogEventRingBuffer ringBuffer = fill(new LogEventRingBuffer(4, WaitStrategy.YIELD), LogLevel.INFO);
+
+		Thread producer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					Assert.assertEquals(0, ringBuffer.add(newEvent(LogLevel.INFO, "new"), OverflowPolicy.block()));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		producer.start();
+
+		// Producer waits until a slot is freed
+		producer.join(200);
+		Assert.assertTrue(producer.isAlive());
+
+		Assert.assertEquals("0", ringBuffer.poll().getMessage());
+
+		producer.join(5000);
+		Assert.assertFalse(producer.isAlive());
+		Assert.assertEquals("[1, 2, 3, new]", messages(ringBuffer).toString());
+
+	}
+
+	@Test
+	public void testDropNewestKeepsQueuedEvents() throws Exception {
+
+		LogEventRingBuffer ringBuffer = fill(new LogEventRingBuffer(4, WaitStrategy.YIELD), LogLevel.INFO);
+
+		Assert.assertEquals(1, ringBuffer.add(newEvent(LogLevel.ERROR, "new"), OverflowPolicy.dropNewest()));
+		Assert.assertEquals("[0, 1, 2, 3]", messages(ringBuffer).toString());
+
+	}
+
+	@Test
+	public void testDropOldestKeepsNewEvents() throws Exception {
+
+		LogEventRingBuffer ringBuffer = fill(new LogEventRingBuffer(4, WaitStrategy.YIELD), LogLevel.INFO);
+
+		Assert.assertEquals(1, ringBuffer.add(newEvent(LogLevel.INFO, "new1"), OverflowPolicy.dropOldest()));
+		Assert.assertEquals(1, ringBuffer.add(newEvent(LogLevel.INFO, "new2"), OverflowPolicy.dropOldest()));
+		Assert.assertEquals("[2, 3, new1, new2]", messages(ringBuffer).toString());
+
+	}
+
+	@Test
+	public void testDropBelowKeepsImportantEvents() throws Exception {
+
+		final LogEventRingBuffer ringBuffer = fill(new LogEventRingBuffer(4, WaitStrategy.YIELD), LogLevel.DEBUG);
+		final OverflowPolicy overflowPolicy = OverflowPolicy.dropBelow(LogLevel.WARNING);
+
+		// Less important events are dropped right away
+		Assert.assertEquals(1, ringBuffer.add(newEvent(LogLevel.INFO, "info"), overflowPolicy));
+
+		// Important ones wait for room
+		Thread producer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					Assert.assertEquals(0, ringBuffer.add(newEvent(LogLevel.ERROR, "error"), overflowPolicy));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		producer.start();
+
+		producer.join(200);
+		Assert.assertTrue(producer.isAlive());
+
+		ringBuffer.poll();
+
+		producer.join(5000);
+		Assert.assertFalse(producer.isAlive());
+		Assert.assertEquals("[1, 2, 3, error]", messages(ringBuffer).toString());
+
+	}
+
+	@Test
+	public void testFallbackWritesOnCallerThread() throws Exception {
+
+		LogEventRingBuffer ringBuffer = fill(new LogEventRingBuffer(4, WaitStrategy.YIELD), LogLevel.INFO);
+		final List<String> fallback = new ArrayList<>();
+
+		OverflowPolicy overflowPolicy = OverflowPolicy.fallback(new LogEventWriter() {
+
+			@Override
+			public void write(LogEvent log) {
+				fallback.add(log.getMessage() + "@" + Thread.currentThread().getName());
+			}
+
+			@Override
+			public void stop() {
+			}
+		});
+
+		Assert.assertEquals(0, ringBuffer.add(newEvent(LogLevel.INFO, "new"), overflowPolicy));
+		Assert.assertEquals("[new@" + Thread.currentThread().getName() + "]", fallback.toString());
+		Assert.assertEquals("[0, 1, 2, 3]", messages(ringBuffer).toString());
+
+	}
+
+	@Test
+	public void testDroppedLogEventCount() throws Exception {
+
+		// Not started, so nothing takes events from the queue
+		LogEventSpooler stoppedSpooler = new LogEventSpooler(4, WaitStrategy.YIELD);
+		stoppedSpooler.setOverflowPolicy(OverflowPolicy.dropNewest());
+
+		for (int i = 0; i < 10; i++) {
+			stoppedSpooler.addLogEvent(newEvent(LogLevel.INFO, Integer.toString(i)));
+		}
+
+		Assert.assertEquals(6, stoppedSpooler.getDroppedLogEventCount());
+
+	}
+
+	@Test
+	public void testWriterErrorKeepsLaneAlive() throws Exception {
+
+		final CountDownLatch failed = new CountDownLatch(1);
+		final CountDownLatch written = new CountDownLatch(1);
+
+		LogEventWriter failingWriter = new LogEventWriter() {
+
+			@Override
+			public void write(LogEvent log) {
+				if ("fail".equals(log.getMessage())) {
+					failed.countDown();
+					throw new AssertionError("expected failure");
+				}
+				written.countDown();
+			}
+
+			@Override
+			public void stop() {
+			}
+		};
+
+		logEventSpooler.addLogEventWriter(failingWriter);
+
+		// Second event in its own batch, after the error
+		logEventSpooler.addLogEvent(newEvent(LogLevel.INFO, "fail"));
+		Assert.assertTrue(failed.await(10, TimeUnit.SECONDS));
+		logEventSpooler.addLogEvent(newEvent(LogLevel.INFO, "written"));
+
+		Assert.assertTrue(written.await(10, TimeUnit.SECONDS));
+
+		logEventSpooler.removeLogEventWriter(failingWriter);
+
+	}
+
+	private static LogEventRingBuffer fill(LogEventRingBuffer ringBuffer, LogLevel logLevel) {
+
+		for (int i = 0; i < ringBuffer.capacity(); i++) {
+			Assert.assertTrue(ringBuffer.offer(newEvent(logLevel, Integer.toString(i))));
+		}
+
+		return ringBuffer;
+
+	}
+
+	private static List<String> messages(LogEventRingBuffer ringBuffer) {
+
+		List<String> messages = new ArrayList<>();
+		LogEvent logEvent;
+
+		while ((logEvent = ringBuffer.poll()) != null) {
+			messages.add(logEvent.getMessage());
+		}
+
+		return messages;
+
+	}
+
+	private static LogEvent newEvent(LogLevel logLevel, String message) {
+
+		return new LogEvent(logLevel, "test", new Date(), "thread", message);
+
+	}
+
+}
@@ -0,0 +1,40 @@
+package org.gmagnotta.log;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoggerRegistryTest {
+
+	@Test
+	public void testHierarchicalLevels() throws Exception {
+
+		LoggerRegistry registry = new LoggerRegistry(LogLevel.INFO);
+
+		Logger bar = registry.getLogger("org.foo.Bar");
+		Logger foobar = registry.getLogger("org.foobar.Baz");
+
+		Assert.assertSame(bar, registry.getLogger("org.foo.Bar"));
+		Assert.assertFalse(bar.isDebugEnabled());
+
+		registry.setLogLevel("org.foo", LogLevel.DEBUG);
+
+		Assert.assertTrue(bar.isDebugEnabled());
+		Assert.assertFalse(foobar.isDebugEnabled());
+		Assert.assertEquals(LogLevel.DEBUG, registry.getEffectiveLogLevel("org.foo.Other"));
+
+		registry.setLogLevel("org.foo.Bar", LogLevel.ERROR);
+
+		Assert.assertFalse(bar.isWarningEnabled());
+
+		// Events added directly may have no source class
+		Assert.assertEquals(LogLevel.INFO, registry.getEffectiveLogLevel(null));
+
+		registry.setRootLogLevel(LogLevel.TRACE);
+		registry.clearLogLevels();
+
+		Assert.assertTrue(bar.isTraceEnabled());
+		Assert.assertTrue(foobar.isTraceEnabled());
+
+	}
+
+}
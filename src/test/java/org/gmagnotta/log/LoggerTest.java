@@ -0,0 +1,68 @@
+package org.gmagnotta.log;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoggerTest {
+
+	@Test
+	public void testParameterizedMessagesDontBindToMarkers() throws Exception {
+
+		final BlockingQueue<LogEvent> logEvents = new LinkedBlockingQueue<>();
+
+		LogEventWriter collectingWriter = new LogEventWriter() {
+
+			@Override
+			public void write(LogEvent log) {
+				// Events of other tests may still be queued
+				if (LoggerTest.class.getName().equals(log.getSourceClass())) {
+					logEvents.add(log);
+				}
+			}
+
+			@Override
+			public void stop() {
+			}
+		};
+
+		LogEventCollector logEventCollector = LogEventCollector.getInstance();
+		logEventCollector.start();
+		logEventCollector.setLogLevelThreshold(LogLevel.INFO);
+		logEventCollector.addLogEventWriter(collectingWriter);
+
+		try {
+
+			Logger logger = Logger.getLogger(LoggerTest.class);
+			Exception exception = new Exception("test");
+
+			logger.info("value {}", "name");
+			logger.info("failed for {}", "user", exception);
+			logger.info(new Marker("audit"), "marked");
+
+			LogEvent logEvent = logEvents.poll(10, TimeUnit.SECONDS);
+			Assert.assertEquals(LogEvent.UNSET_MARKER, logEvent.getMarker());
+			Assert.assertEquals("value name", logEvent.getMessage());
+			Assert.assertNull(logEvent.getThrowable());
+
+			logEvent = logEvents.poll(10, TimeUnit.SECONDS);
+			Assert.assertEquals(LogEvent.UNSET_MARKER, logEvent.getMarker());
+			Assert.assertEquals("failed for user", logEvent.getMessage());
+			Assert.assertSame(exception, logEvent.getThrowable());
+
+			logEvent = logEvents.poll(10, TimeUnit.SECONDS);
+			Assert.assertEquals("audit", logEvent.getMarker());
+			Assert.assertEquals("marked", logEvent.getMessage());
+
+		} finally {
+
+			logEventCollector.removeLogEventWriter(collectingWriter);
+
+		}
+
+	}
+
+}
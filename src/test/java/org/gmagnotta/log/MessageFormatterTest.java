@@ -0,0 +1,33 @@
+package org.gmagnotta.log;
+
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageFormatterTest {
+
+	@Test
+	public void testFormat() throws Exception {
+
+		Assert.assertEquals("plain", MessageFormatter.format("plain", null));
+		Assert.assertEquals("a 1 b 2", MessageFormatter.format("a {} b {}", new Object[] { 1, 2 }));
+		Assert.assertEquals("a 1 b {}", MessageFormatter.format("a {} b {}", new Object[] { 1 }));
+		Assert.assertEquals("a 1", MessageFormatter.format("a {}", new Object[] { 1, 2 }));
+		Assert.assertEquals("a {} 1", MessageFormatter.format("a \\{} {}", new Object[] { 1 }));
+		Assert.assertEquals("null [x, y]", MessageFormatter.format("{} {}", new Object[] { null, new String[] { "x", "y" } }));
+
+	}
+
+	@Test
+	public void testDeferredMessage() throws Exception {
+
+		LogEvent event = new LogEvent(LogEvent.UNSET_MARKER, LogLevel.INFO, "test", new Date(), "thread",
+				"value {}", new Object[] { 42 }, null);
+
+		Assert.assertEquals("value {}", event.getMessagePattern());
+		Assert.assertEquals("value 42", event.getMessage());
+
+	}
+
+}
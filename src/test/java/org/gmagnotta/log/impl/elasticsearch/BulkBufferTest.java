@@ -0,0 +1,30 @@
+package org.gmagnotta.log.impl.elasticsearch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class BulkBufferTest {
+
+    @Test
+    public void testUtf8Encoding() {
+        String string = "ascii èß €中 😀 end";
+
+        BulkBuffer buffer = new BulkBuffer(4);
+        buffer.append(string);
+        buffer.append(string);
+
+        byte[] expected = (string + string).getBytes(StandardCharsets.UTF_8);
+        Assert.assertArrayEquals(expected, Arrays.copyOf(buffer.getBuffer(), buffer.size()));
+    }
+
+    @Test
+    public void testUnpairedSurrogate() {
+        BulkBuffer buffer = new BulkBuffer(4);
+        buffer.append("a\ud83db");
+
+        Assert.assertEquals("a?b", new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
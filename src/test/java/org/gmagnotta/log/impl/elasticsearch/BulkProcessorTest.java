@@ -0,0 +1,312 @@
+package org.gmagnotta.log.impl.elasticsearch;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+public class BulkProcessorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private final Queue<String> responses = new ConcurrentLinkedQueue<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private ExecutorService executor;
+    private HttpServer server;
+    private RestClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+
+        // Fake cluster holding bulk requests until released
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/_bulk", exchange -> {
+            InputStream requestBody = exchange.getRequestBody();
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                requestBody = new GZIPInputStream(requestBody);
+            }
+            bodies.add(read(requestBody));
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            String body = responses.poll();
+            byte[] response = (body != null ? body : "{\"took\":1,\"errors\":false,\"items\":[]}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(response);
+            }
+        });
+        server.start();
+
+        client = RestClient.builder(new HttpHost("localhost", server.getAddress().getPort(), "http")).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        client.close();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testAddDoesNotWaitForInFlightRequests() throws Exception {
+        BulkProcessor bulkProcessor = new BulkProcessor(client);
+        bulkProcessor.setFlushInterval(1);
+        bulkProcessor.setBulkActions(0);
+        bulkProcessor.setConcurrentRequests(2);
+
+        // Each add sends a request, both stay in flight
+        bulkProcessor.add("index", "_doc", "{\"n\":1}");
+        bulkProcessor.add("index", "_doc", "{\"n\":2}");
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bodies.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, bodies.size());
+
+        release.countDown();
+        bulkProcessor.flush();
+
+        Assert.assertTrue(bodies.get(0).endsWith("{\"n\":1}\n") || bodies.get(1).endsWith("{\"n\":1}\n"));
+
+        bulkProcessor.close();
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        release.countDown();
+
+        BulkProcessor bulkProcessor = new BulkProcessor(client);
+        bulkProcessor.setFlushInterval(1);
+        bulkProcessor.setCompression(true);
+
+        bulkProcessor.add("index", "_doc", "1", "{\"message\":\"caff\u00e8 \ud83d\ude00\"}");
+        bulkProcessor.flush();
+
+        Assert.assertEquals(1, bodies.size());
+        Assert.assertEquals("{\"index\" : { \"_index\" : \"index\", \"_id\" : \"1\", \"_type\" : \"_doc\" }}\n"
+                + "{\"message\":\"caff\u00e8 \ud83d\ude00\"}\n", bodies.get(0));
+
+        bulkProcessor.close();
+    }
+
+    @Test
+    public void testRetryRejectedItems() throws Exception {
+        release.countDown();
+        responses.add("{\"took\":1,\"errors\":true,\"items\":["
+                + "{\"index\":{\"_index\":\"index\",\"status\":201}},"
+                + "{\"index\":{\"_index\":\"index\",\"status\":429,"
+                + "\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"queue [x] \\\"full\\\"\"}}},"
+                + "{\"index\":{\"_index\":\"index\",\"status\":400,"
+                + "\"error\":{\"type\":\"mapper_parsing_exception\",\"reason\":\"failed\"}}}]}");
+
+        BulkProcessor bulkProcessor = new BulkProcessor(client);
+        bulkProcessor.setFlushInterval(1);
+        bulkProcessor.setRetries(3, 1, 10);
+
+        bulkProcessor.addAll("index", "_doc", Arrays.asList("{\"n\":1}", "{\"n\":2}", "{\"n\":3}"));
+        bulkProcessor.flush();
+
+        // Only the rejected document is sent again, the invalid one is dropped
+        Assert.assertEquals(2, bodies.size());
+        Assert.assertEquals("{\"index\" : { \"_index\" : \"index\", \"_type\" : \"_doc\" }}\n{\"n\":2}\n", bodies.get(1));
+        Assert.assertEquals(1, bulkProcessor.getRetriedDocuments());
+        Assert.assertEquals(1, bulkProcessor.getDroppedDocuments());
+
+        bulkProcessor.close();
+    }
+
+    @Test
+    public void testSpillWhileUnreachable() throws Exception {
+        release.countDown();
+
+        // A port nobody listens on
+        int closedPort;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            closedPort = serverSocket.getLocalPort();
+        }
+
+        File spillFolder = temporaryFolder.newFolder();
+        try (RestClient unreachableClient = RestClient.builder(new HttpHost("localhost", closedPort, "http")).build()) {
+            BulkProcessor bulkProcessor = new BulkProcessor(unreachableClient);
+            bulkProcessor.setFlushInterval(-1);
+            bulkProcessor.setSpillQueue(new SpillQueue(spillFolder, 1024 * 1024));
+
+            bulkProcessor.addAll("index", "_doc", Arrays.asList("{\"n\":1}", "{\"n\":2}"));
+            bulkProcessor.flush();
+            Assert.assertTrue(bulkProcessor.isSpilling());
+
+            // Following documents go straight to disk
+            bulkProcessor.add("index", "_doc", "{\"n\":3}");
+            Assert.assertEquals(0, bulkProcessor.getDroppedDocuments());
+
+            bulkProcessor.close();
+        }
+
+        // Spilled documents are replayed in order on next start
+        BulkProcessor bulkProcessor = new BulkProcessor(client);
+        bulkProcessor.setFlushInterval(1);
+        bulkProcessor.setSpillQueue(new SpillQueue(spillFolder, 1024 * 1024));
+        Assert.assertTrue(bulkProcessor.isSpilling());
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bulkProcessor.isSpilling() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(bulkProcessor.isSpilling());
+        Assert.assertEquals(1, bodies.size());
+        Assert.assertEquals("{\"index\" : { \"_index\" : \"index\", \"_type\" : \"_doc\" }}\n{\"n\":1}\n"
+                + "{\"index\" : { \"_index\" : \"index\", \"_type\" : \"_doc\" }}\n{\"n\":2}\n"
+                + "{\"index\" : { \"_index\" : \"index\", \"_type\" : \"_doc\" }}\n{\"n\":3}\n", bodies.get(0));
+
+        bulkProcessor.close();
+    }
+
+    @Test
+    public void testBusySlotsDontSpill() throws Exception {
+        BulkProcessor bulkProcessor = new BulkProcessor(client);
+        bulkProcessor.setFlushInterval(-1);
+        bulkProcessor.setBulkActions(0);
+        bulkProcessor.setSpillQueue(new SpillQueue(temporaryFolder.newFolder(), 1024 * 1024));
+
+        // First request holds the only slot until released
+        bulkProcessor.add("index", "_doc", "{\"n\":1}");
+
+        executor.submit(() -> {
+            Thread.sleep(200);
+            release.countDown();
+            return null;
+        });
+
+        // Waits for the slot instead of spilling
+        bulkProcessor.add("index", "_doc", "{\"n\":2}");
+        Assert.assertFalse(bulkProcessor.isSpilling());
+
+        bulkProcessor.flush();
+        Assert.assertEquals(2, bodies.size());
+        Assert.assertEquals(0, bulkProcessor.getDroppedDocuments());
+
+        bulkProcessor.close();
+    }
+
+    @Test
+    public void testHoldDocumentsUntilReady() throws Exception {
+        release.countDown();
+
+        AtomicBoolean ready = new AtomicBoolean(false);
+        BulkProcessor bulkProcessor = new BulkProcessor(client);
+        bulkProcessor.setFlushInterval(1);
+        bulkProcessor.setSpillQueue(new SpillQueue(temporaryFolder.newFolder(), 1024 * 1024));
+        bulkProcessor.setReadyCheck(ready::get);
+
+        bulkProcessor.add("index", "_doc", "{\"n\":1}");
+        bulkProcessor.flush();
+        Assert.assertTrue(bulkProcessor.isSpilling());
+        Assert.assertEquals(0, bodies.size());
+
+        // Replayed once ready
+        ready.set(true);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bulkProcessor.isSpilling() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(bulkProcessor.isSpilling());
+        Assert.assertEquals(1, bodies.size());
+        Assert.assertEquals(0, bulkProcessor.getDroppedDocuments());
+
+        bulkProcessor.close();
+    }
+
+    @Test
+    public void testReplayWithoutFlushInterval() throws Exception {
+        release.countDown();
+
+        AtomicBoolean ready = new AtomicBoolean(false);
+        BulkProcessor bulkProcessor = new BulkProcessor(client);
+        bulkProcessor.setSpillQueue(new SpillQueue(temporaryFolder.newFolder(), 1024 * 1024));
+        bulkProcessor.setReadyCheck(ready::get);
+
+        bulkProcessor.add("index", "_doc", "{\"n\":1}");
+        bulkProcessor.flush();
+        Assert.assertTrue(bulkProcessor.isSpilling());
+
+        // Nobody flushes, the bulk thread retries on its own
+        ready.set(true);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bulkProcessor.isSpilling() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(bulkProcessor.isSpilling());
+        Assert.assertEquals(1, bodies.size());
+
+        bulkProcessor.close();
+    }
+
+    @Test
+    public void testDropDocumentsUntilReady() throws Exception {
+        release.countDown();
+
+        BulkProcessor bulkProcessor = new BulkProcessor(client);
+        bulkProcessor.setFlushInterval(-1);
+        bulkProcessor.setReadyCheck(() -> false);
+
+        bulkProcessor.add("index", "_doc", "{\"n\":1}");
+        try {
+            bulkProcessor.flush();
+            Assert.fail("Flush should report dropped documents");
+        } catch (IOException e) {
+            // Expected
+        }
+        Assert.assertEquals(0, bodies.size());
+        Assert.assertEquals(1, bulkProcessor.getDroppedDocuments());
+
+        bulkProcessor.close();
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int length;
+        while ((length = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, length);
+        }
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
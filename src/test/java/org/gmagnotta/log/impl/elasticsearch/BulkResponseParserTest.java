@@ -0,0 +1,35 @@
+package org.gmagnotta.log.impl.elasticsearch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class BulkResponseParserTest {
+
+    @Test
+    public void testNoErrors() throws IOException {
+        Assert.assertNull(parse("{\"took\":30,\"errors\":false,\"items\":[{\"index\":{\"status\":201}}]}", 1));
+    }
+
+    @Test
+    public void testItemStatuses() throws IOException {
+        String response = "{ \"took\" : 30, \"errors\" : true, \"items\" : [\n"
+                + "  { \"index\" : { \"_index\" : \"i\", \"_shards\" : { \"total\" : 2 }, \"status\" : 201 } },\n"
+                + "  { \"index\" : { \"error\" : { \"reason\" : \"[\\\"x\\\"] \\u00e8 {\" , \"caused_by\" : [ 1, null ] }, \"status\" : 429 } }\n"
+                + "] }";
+
+        Assert.assertArrayEquals(new int[] { 201, 429 }, parse(response, 2));
+    }
+
+    @Test(expected = IOException.class)
+    public void testItemCountMismatch() throws IOException {
+        parse("{\"errors\":true,\"items\":[{\"index\":{\"status\":429}}]}", 2);
+    }
+
+    private static int[] parse(String response, int itemCount) throws IOException {
+        return BulkResponseParser.parseStatuses(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), itemCount);
+    }
+}
@@ -0,0 +1,153 @@
+package org.gmagnotta.log.impl.elasticsearch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class ElasticSearchLogEventWriterTest {
+
+    private StubLogClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        client = new StubLogClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+    }
+
+    @Test
+    public void testRenameMovesAlias() {
+        ElasticSearchLogEventWriter writer = new ElasticSearchLogEventWriter(client, "logs", "app");
+
+        Assert.assertTrue(writer.renameIndex("renamed"));
+        Assert.assertEquals(Arrays.asList("move logs renamed [logs-1]"), client.calls);
+
+        writer.stop();
+    }
+
+    @Test
+    public void testReindexRefusedWhileSpilling() {
+        ElasticSearchLogEventWriter writer = new ElasticSearchLogEventWriter(client, "logs", "app");
+        client.spilling = true;
+
+        // Spilled events would reach the old index after the copy started
+        Assert.assertFalse(writer.renameIndex("renamed", true));
+        Assert.assertTrue(client.calls.isEmpty());
+
+        // Moving the alias alone keeps the old name for them
+        Assert.assertTrue(writer.renameIndex("renamed"));
+        Assert.assertEquals(Arrays.asList("move null renamed [logs-1]"), client.calls);
+
+        writer.stop();
+    }
+
+    @Test
+    public void testRenameRefusedWhileReindexPending() {
+        ElasticSearchLogEventWriter writer = new ElasticSearchLogEventWriter(client, "logs", "app");
+
+        Assert.assertTrue(writer.renameIndex("renamed", true));
+        Assert.assertEquals(3, client.calls.size());
+        Assert.assertTrue(client.calls.get(0).startsWith("create renamed-"));
+        Assert.assertTrue(client.calls.get(1).startsWith("move logs renamed [logs-1, renamed-"));
+        Assert.assertTrue(client.calls.get(2).startsWith("reindex logs-1 renamed-"));
+
+        // The new name would not cover the documents still being copied
+        Assert.assertFalse(writer.renameIndex("other"));
+        Assert.assertFalse(writer.renameIndex("other", true));
+        Assert.assertEquals(3, client.calls.size());
+
+        writer.stop();
+    }
+
+    @Test
+    public void testAliasResolvedWhenReachable() {
+        client.reachable = false;
+        ElasticSearchLogEventWriter writer = new ElasticSearchLogEventWriter(client, "logs", "app");
+
+        // Offline at start, the rename resolves the old name first
+        Assert.assertFalse(writer.renameIndex("renamed"));
+
+        client.reachable = true;
+        Assert.assertTrue(writer.renameIndex("renamed"));
+        Assert.assertEquals(Arrays.asList("move logs renamed [logs-1]"), client.calls);
+
+        writer.stop();
+    }
+
+    /**
+     * Client recording alias operations, with "logs" an alias of "logs-1"
+     */
+    private static class StubLogClient extends ElasticSearchLogClient {
+
+        private final List<String> calls = new CopyOnWriteArrayList<>();
+        private volatile boolean spilling;
+        private volatile boolean reachable = true;
+
+        StubLogClient() throws IOException {
+            super(new URL("http://localhost:9200"));
+        }
+
+        @Override
+        public String getLogAliasWriteIndex(String alias) throws IOException {
+            if (!reachable) {
+                throw new IOException("Unreachable");
+            }
+            return "logs".equals(alias) ? "logs-1" : null;
+        }
+
+        @Override
+        public boolean isLogIndexExist(String indexName) {
+            return false;
+        }
+
+        @Override
+        public void createLogIndex(String index) {
+            calls.add("create " + index);
+        }
+
+        @Override
+        public void createLogIndex(String index, String alias) {
+            calls.add("create " + index + " " + alias);
+        }
+
+        @Override
+        public void moveLogAlias(String oldAlias, String newAlias, String... indices) {
+            calls.add("move " + oldAlias + " " + newAlias + " " + Arrays.toString(indices));
+        }
+
+        @Override
+        public String startReIndexLog(String sourceIndex, String destIndex, float requestsPerSecond) {
+            calls.add("reindex " + sourceIndex + " " + destIndex);
+            return "task";
+        }
+
+        @Override
+        public boolean isTaskCompleted(String taskId) {
+            return false;
+        }
+
+        @Override
+        public void deleteLogIndex(String index) {
+            calls.add("delete " + index);
+        }
+
+        @Override
+        public boolean isSpilling() {
+            return spilling;
+        }
+
+        @Override
+        public void flushLogEvents() {
+        }
+    }
+}
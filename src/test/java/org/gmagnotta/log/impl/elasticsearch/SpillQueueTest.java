@@ -0,0 +1,52 @@
+package org.gmagnotta.log.impl.elasticsearch;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+public class SpillQueueTest {
+
+    private static final String ACTION = "{\"index\" : { \"_index\" : \"index\", \"_type\" : \"_doc\" }}\n";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testTruncatedActionAfterCrash() throws Exception {
+        File folder = temporaryFolder.newFolder();
+
+        // A crash left the last action half written
+        SpillQueue spillQueue = new SpillQueue(folder, 1024 * 1024);
+        append(spillQueue, ACTION + "{\"n\":1}\n" + ACTION + "{\"n\":");
+        spillQueue.close();
+
+        // Actions appended after restart are not joined to it
+        spillQueue = new SpillQueue(folder, 1024 * 1024);
+        append(spillQueue, ACTION + "{\"n\":2}\n" + ACTION + "{\"n\":3}\n");
+
+        StringBuilder read = new StringBuilder();
+        int actionCount = 0;
+        BulkBuffer bulk = new BulkBuffer(1024);
+        while (spillQueue.read(bulk, 10) > 0) {
+            actionCount += bulk.getActionCount();
+            read.append(new String(bulk.toByteArray(), StandardCharsets.UTF_8));
+            spillQueue.commit();
+            bulk.reset();
+        }
+
+        Assert.assertEquals(3, actionCount);
+        Assert.assertEquals(ACTION + "{\"n\":1}\n" + ACTION + "{\"n\":2}\n" + ACTION + "{\"n\":3}\n", read.toString());
+        Assert.assertTrue(spillQueue.isEmpty());
+
+        spillQueue.close();
+    }
+
+    private static void append(SpillQueue spillQueue, String actions) throws Exception {
+        byte[] bytes = actions.getBytes(StandardCharsets.UTF_8);
+        spillQueue.append(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,262 @@
+package org.gmagnotta.log.impl.filesystem;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import org.gmagnotta.log.LogEvent;
+import org.gmagnotta.log.LogLevel;
+import org.gmagnotta.log.impl.layout.PatternLayout;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSystemLogEventWriterTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testEveryBatchFlushPolicy() throws Exception {
+
+		File logFolder = temporaryFolder.newFolder();
+		FileSystemLogStore logStore = new FileSystemLogStore(1024 * 1024, 10, logFolder);
+		FileSystemLogEventWriter writer = new FileSystemLogEventWriter(logStore, new PatternLayout("%m%n"),
+				FlushPolicy.EVERY_BATCH);
+
+		writer.write(Arrays.asList(newLogEvent("first"), newLogEvent("second")));
+		writer.write(newLogEvent("third"));
+
+		Assert.assertEquals(Arrays.asList("first", "second", "third"), readLines(logStore));
+
+		writer.stop();
+
+	}
+
+	@Test
+	public void testWhenFullFlushPolicy() throws Exception {
+
+		File logFolder = temporaryFolder.newFolder();
+		FileSystemLogStore logStore = new FileSystemLogStore(1024 * 1024, 10, logFolder);
+		FileSystemLogEventWriter writer = new FileSystemLogEventWriter(logStore, new PatternLayout("%m%n"),
+				FlushPolicy.WHEN_FULL);
+
+		writer.write(Arrays.asList(newLogEvent("first"), newLogEvent("second")));
+
+		// Still buffered
+		Assert.assertEquals(Arrays.asList(), readLines(logStore));
+
+		writer.stop();
+
+		Assert.assertEquals(Arrays.asList("first", "second"), readLines(logStore));
+
+	}
+
+	@Test
+	public void testIntervalSyncPolicyForcesWhenIdle() throws Exception {
+
+		File logFolder = temporaryFolder.newFolder();
+		FileSystemLogStore logStore = new FileSystemLogStore(1024 * 1024, 10, logFolder);
+		FileSystemLogEventWriter writer = new FileSystemLogEventWriter(logStore, new PatternLayout("%m%n"),
+				FlushPolicy.WHEN_FULL, SyncPolicy.interval(500));
+
+		writer.write(Arrays.asList(newLogEvent("first"), newLogEvent("last")));
+
+		// Still buffered
+		Assert.assertEquals(Arrays.asList(), readLines(logStore));
+
+		// No other batch comes, the timer writes and forces the lines
+		long deadline = System.currentTimeMillis() + 5000;
+		while (readLines(logStore).isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		Assert.assertEquals(Arrays.asList("first", "last"), readLines(logStore));
+
+		writer.stop();
+
+	}
+
+	@Test
+	public void testMappedWriteMode() throws Exception {
+
+		File logFolder = temporaryFolder.newFolder();
+		FileSystemLogStore logStore = new FileSystemLogStore(1024 * 1024, 10, logFolder);
+		FileSystemLogEventWriter writer = newMappedWriter(logStore);
+
+		writer.write(Arrays.asList(newLogEvent("first"), newLogEvent("second")));
+
+		// Preallocated while active, but only data is exported
+		String logFileName = logStore.getOrderedLogFileNames().get(0);
+		Assert.assertEquals(1024 * 1024, new File(logFolder, logFileName).length());
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		writer.export(outputStream);
+		Assert.assertEquals(logFileName + "first\nsecond\n",
+				new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+
+		// Truncated on stop
+		writer.stop();
+
+		Assert.assertEquals(13, new File(logFolder, logFileName).length());
+
+		// Appends after the data on restart
+		writer = newMappedWriter(logStore);
+		writer.write(newLogEvent("third"));
+		writer.stop();
+
+		Assert.assertEquals(Arrays.asList("first", "second", "third"), readLines(logStore));
+
+	}
+
+	@Test
+	public void testMappedWriteModeRecovery() throws Exception {
+
+		File logFolder = temporaryFolder.newFolder();
+		FileSystemLogStore logStore = new FileSystemLogStore(1024 * 1024, 10, logFolder);
+		FileSystemLogEventWriter writer = newMappedWriter(logStore);
+
+		writer.write(Arrays.asList(newLogEvent("first"), newLogEvent("second")));
+
+		// Crash: the writer is never stopped, a new store finds the data
+		FileSystemLogStore recoveredLogStore = new FileSystemLogStore(1024 * 1024, 10, logFolder);
+		String logFileName = recoveredLogStore.getOrderedLogFileNames().get(0);
+
+		Assert.assertEquals(13, recoveredLogStore.getLogFileSize(logFileName));
+		Assert.assertEquals(13, new File(logFolder, logFileName).length());
+		Assert.assertEquals(Arrays.asList("first", "second"), readLines(recoveredLogStore));
+
+	}
+
+	@Test
+	public void testChannelExport() throws Exception {
+
+		File logFolder = temporaryFolder.newFolder();
+		FileSystemLogStore logStore = new FileSystemLogStore(1024 * 1024, 10, logFolder);
+		FileSystemLogEventWriter writer = new FileSystemLogEventWriter(logStore,
+				new PatternLayout("[%p] %marker %m%n"));
+
+		writer.write(Arrays.asList(newLogEvent("audit", LogLevel.DEBUG, "first"),
+				newLogEvent("audit", LogLevel.ERROR, "second"), newLogEvent("other", LogLevel.WARNING, "third")));
+
+		// Unfiltered export matches the stream export
+		ByteArrayOutputStream streamOutputStream = new ByteArrayOutputStream();
+		writer.export(streamOutputStream);
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		writer.export(Channels.newChannel(outputStream), new LogExportFilter(), false);
+		Assert.assertArrayEquals(streamOutputStream.toByteArray(), outputStream.toByteArray());
+
+		String logFileName = logStore.getOrderedLogFileNames().get(0);
+
+		// Filter by level and marker
+		outputStream.reset();
+		writer.export(Channels.newChannel(outputStream), new LogExportFilter(Long.MIN_VALUE, Long.MAX_VALUE,
+				LogLevel.INFO, Collections.singleton("audit")), false);
+		Assert.assertEquals(logFileName + "[ERROR] audit second\n",
+				new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+
+		// Log files created after the time range are skipped
+		outputStream.reset();
+		writer.export(Channels.newChannel(outputStream), new LogExportFilter(Long.MIN_VALUE, 0, LogLevel.TRACE,
+				Collections.<String> emptySet()), false);
+		Assert.assertEquals(0, outputStream.size());
+
+		// Compressed export
+		outputStream.reset();
+		writer.export(Channels.newChannel(outputStream), new LogExportFilter(), true);
+
+		ByteArrayOutputStream decompressedOutputStream = new ByteArrayOutputStream();
+
+		try (GZIPInputStream inputStream = new GZIPInputStream(
+				new ByteArrayInputStream(outputStream.toByteArray()))) {
+
+			byte[] buffer = new byte[1024];
+			int length;
+
+			while ((length = inputStream.read(buffer)) != -1) {
+				decompressedOutputStream.write(buffer, 0, length);
+			}
+
+		}
+
+		Assert.assertArrayEquals(streamOutputStream.toByteArray(), decompressedOutputStream.toByteArray());
+
+		writer.stop();
+
+	}
+
+	@Test
+	public void testLogExportFilterKeepsStackTraces() throws Exception {
+
+		LogExportFilter filter = new LogExportFilter(Long.MIN_VALUE, Long.MAX_VALUE, LogLevel.WARNING,
+				Collections.<String> emptySet());
+
+		Assert.assertEquals(Boolean.FALSE, filter.accept("12:00 main [INFO] Foo bar \n"));
+		Assert.assertEquals(Boolean.TRUE, filter.accept("12:00 main [ERROR] Foo bar \n"));
+		Assert.assertNull(filter.accept("\tat Foo.bar(Foo.java:1)\n"));
+
+		// Only the first bracketed token is the level
+		Assert.assertEquals(Boolean.FALSE, filter.accept("12:00 main [DEBUG] Foo retrying after [ERROR] from peer\n"));
+		Assert.assertNull(filter.accept("12:00 [main] [ERROR] Foo bar \n"));
+
+		// Markers are not searched in the message
+		LogExportFilter markerFilter = new LogExportFilter(Long.MIN_VALUE, Long.MAX_VALUE, LogLevel.TRACE,
+				Collections.singleton("audit"));
+		Assert.assertEquals(Boolean.TRUE, markerFilter.accept("[INFO] audit Foo bar\n"));
+		Assert.assertEquals(Boolean.TRUE, markerFilter.accept("12:00 audit [INFO] Foo bar\n"));
+		Assert.assertEquals(Boolean.FALSE, markerFilter.accept("[INFO] other Foo audit\n"));
+
+		Assert.assertTrue(filter.accept(0, 10));
+		Assert.assertTrue(filter.isLineFilter());
+		Assert.assertFalse(new LogExportFilter().isLineFilter());
+
+	}
+
+	private static FileSystemLogEventWriter newMappedWriter(FileSystemLogStore logStore) {
+
+		return new FileSystemLogEventWriter(logStore, new PatternLayout("%m%n"), FlushPolicy.EVERY_BATCH,
+				SyncPolicy.everyBatch(), WriteMode.MAPPED);
+
+	}
+
+	private static LogEvent newLogEvent(String message) {
+
+		return new LogEvent(LogLevel.INFO, FileSystemLogEventWriterTest.class, new Date(), "main", message);
+
+	}
+
+	private static LogEvent newLogEvent(String marker, LogLevel logLevel, String message) {
+
+		return new LogEvent(marker, logLevel, FileSystemLogEventWriterTest.class.getName(), new Date(), "main",
+				message);
+
+	}
+
+	private static List<String> readLines(FileSystemLogStore logStore) throws Exception {
+
+		List<String> logFileNames = logStore.getOrderedLogFileNames();
+
+		Assert.assertEquals(1, logFileNames.size());
+
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(logStore.getLogFileInputStream(logFileNames.get(0)), StandardCharsets.UTF_8))) {
+
+			return reader.lines().collect(Collectors.toList());
+
+		}
+
+	}
+
+}
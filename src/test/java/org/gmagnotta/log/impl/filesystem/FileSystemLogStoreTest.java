@@ -0,0 +1,278 @@
+package org.gmagnotta.log.impl.filesystem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.gmagnotta.log.LogEvent;
+import org.gmagnotta.log.LogLevel;
+import org.gmagnotta.log.impl.layout.PatternLayout;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSystemLogStoreTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testIndexFollowsRotation() throws Exception {
+
+		File logFolder = temporaryFolder.newFolder();
+		FileSystemLogStore logStore = new FileSystemLogStore(100, 3, logFolder);
+		FileSystemLogEventWriter writer = new FileSystemLogEventWriter(logStore, new PatternLayout("%m%n"));
+
+		for (int i = 0; i < 10; i++) {
+
+			// 29 bytes per line, 3 lines per log file
+			writer.write(Arrays.asList(newLogEvent(), newLogEvent()));
+
+		}
+
+		writer.stop();
+
+		List<String> logFileNames = logStore.getOrderedLogFileNames();
+
+		Assert.assertEquals(3, logFileNames.size());
+
+		// Same files the folder holds, from the newest
+		List<String> folderLogFileNames = new ArrayList<>(Arrays.asList(logFolder.list()));
+		Collections.sort(folderLogFileNames, Collections.reverseOrder());
+		Assert.assertEquals(folderLogFileNames, logFileNames);
+
+		// Sizes are tracked without reading the folder
+		for (String logFileName : logFileNames) {
+
+			Assert.assertEquals(new File(logFolder, logFileName).length(), logStore.getLogFileSize(logFileName));
+
+		}
+
+		// A new store builds the same index from the folder
+		Assert.assertEquals(logFileNames, new FileSystemLogStore(100, 3, logFolder).getOrderedLogFileNames());
+
+	}
+
+	@Test
+	public void testMaxTotalSize() throws Exception {
+
+		File logFolder = temporaryFolder.newFolder();
+		FileSystemLogStore logStore = new FileSystemLogStore(100, 100, 0, -1, 300, logFolder);
+		FileSystemLogEventWriter writer = new FileSystemLogEventWriter(logStore, new PatternLayout("%m%n"));
+
+		for (int i = 0; i < 12; i++) {
+
+			// 29 bytes per line, 3 lines per log file
+			writer.write(Arrays.asList(newLogEvent(), newLogEvent()));
+
+		}
+
+		writer.stop();
+
+		// Rotation happens before a file would pass the max size
+		long folderSize = 0;
+
+		for (File logFile : logFolder.listFiles()) {
+
+			Assert.assertEquals(87, logFile.length());
+
+			folderSize += logFile.length();
+
+		}
+
+		// The three newest log files fit in the budget
+		Assert.assertEquals(3, logStore.getOrderedLogFileNames().size());
+		Assert.assertEquals(folderSize, logStore.getTotalSize());
+
+	}
+
+	@Test
+	public void testTimeBasedRotation() throws Exception {
+
+		File logFolder = temporaryFolder.newFolder();
+		FileSystemLogStore logStore = new FileSystemLogStore(1024 * 1024, 10, 0, -1, 0, RotationPeriod.HOURLY,
+				logFolder);
+		FileSystemLogEventWriter writer = new FileSystemLogEventWriter(logStore, new PatternLayout("%m%n"));
+
+		long now = System.currentTimeMillis();
+		long nextHour = RotationPeriod.HOURLY.getNextBoundary(now);
+
+		// The second hour starts in the middle of the batch
+		writer.write(Arrays.asList(newLogEvent(now), newLogEvent(now), newLogEvent(nextHour),
+				newLogEvent(nextHour + 1)));
+
+		writer.stop();
+
+		List<String> logFileNames = logStore.getReversedOrderedLogFileNames();
+
+		Assert.assertEquals(2, logFileNames.size());
+		Assert.assertEquals(58, logStore.getLogFileSize(logFileNames.get(0)));
+		Assert.assertEquals(58, logStore.getLogFileSize(logFileNames.get(1)));
+
+		// The new log file is named after its first event
+		Assert.assertEquals(nextHour, LogFileNameUtil.getLogFileDate(logFileNames.get(1)).getTime());
+		Assert.assertEquals(RotationPeriod.HOURLY.getNextBoundary(nextHour), logStore.getNextRotationMillis());
+
+	}
+
+	@Test
+	public void testRotationPeriodBoundaries() throws Exception {
+
+		SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		long timeMillis = simpleDateFormat.parse("2018-12-31 23:59:59.999").getTime();
+
+		Assert.assertEquals(simpleDateFormat.parse("2019-01-01 00:00:00.000").getTime(),
+				RotationPeriod.HOURLY.getNextBoundary(timeMillis));
+		Assert.assertEquals(simpleDateFormat.parse("2019-01-01 00:00:00.000").getTime(),
+				RotationPeriod.DAILY.getNextBoundary(timeMillis));
+		Assert.assertEquals(simpleDateFormat.parse("2019-01-01 01:00:00.000").getTime(),
+				RotationPeriod.HOURLY.getNextBoundary(timeMillis + 1));
+		Assert.assertEquals(Long.MAX_VALUE, RotationPeriod.NONE.getNextBoundary(timeMillis));
+
+	}
+
+	@Test
+	public void testLogFileNames() throws Exception {
+
+		Date date = new Date();
+
+		// Names without sequence number are still valid
+		String logFileName = LogFileNameUtil.getLogFileName(date);
+		String sequencedLogFileName = LogFileNameUtil.getLogFileName(date, 12);
+
+		Assert.assertTrue(LogFileNameUtil.isValid(logFileName));
+		Assert.assertTrue(LogFileNameUtil.isValid(sequencedLogFileName));
+		Assert.assertFalse(LogFileNameUtil.isValid(LogFileNameUtil.getBasename(logFileName) + "_x.log"));
+
+		Assert.assertEquals(0, LogFileNameUtil.getLogFileSequence(logFileName));
+		Assert.assertEquals(12, LogFileNameUtil.getLogFileSequence(sequencedLogFileName));
+		Assert.assertEquals(date, LogFileNameUtil.getLogFileDate(sequencedLogFileName));
+
+		Assert.assertTrue(new LogFileNameComparator().compare(sequencedLogFileName, logFileName) < 0);
+
+	}
+
+	@Test
+	public void testComparatorDoesNotOverflow() {
+
+		String oldest = LogFileNameUtil.getLogFileName(new Date(0));
+		String newest = LogFileNameUtil.getLogFileName(new Date(100L * 365 * 24 * 60 * 60 * 1000));
+
+		Assert.assertTrue(new LogFileNameComparator().compare(newest, oldest) < 0);
+		Assert.assertTrue(new LogFileNameComparator().compare(oldest, newest) > 0);
+
+	}
+
+	@Test
+	public void testArchiveInBackground() throws Exception {
+
+		File logFolder = temporaryFolder.newFolder();
+		FileSystemLogStore logStore = new FileSystemLogStore(100, 2, 2, 9, logFolder);
+		FileSystemLogEventWriter writer = new FileSystemLogEventWriter(logStore, new PatternLayout("%m%n"));
+
+		for (int i = 0; i < 12; i++) {
+
+			// 29 bytes per line, 3 lines per log file
+			writer.write(Arrays.asList(newLogEvent(), newLogEvent()));
+
+		}
+
+		writer.stop();
+		logStore.stop();
+
+		Assert.assertEquals(2, logStore.getOrderedLogFileNames().size());
+
+		List<String> archivedLogFileNames = logStore.getReversedOrderedArchivedLogFileNames();
+		Assert.assertEquals(2, archivedLogFileNames.size());
+
+		for (String archivedLogFileName : archivedLogFileNames) {
+
+			// Only the compressed archive is left
+			Assert.assertFalse(new File(logFolder, archivedLogFileName).exists());
+			Assert.assertTrue(new File(logFolder, archivedLogFileName + ".gz").exists());
+
+		}
+
+		// Export decompresses archives, 2 archived and 2 log files of 3 lines
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		writer.export(outputStream);
+
+		String exported = new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+		Assert.assertEquals(12, exported.split("a line of thirty characters.", -1).length - 1);
+		Assert.assertTrue(exported.startsWith(archivedLogFileNames.get(0)));
+
+		// A new store finds the archives
+		Assert.assertEquals(archivedLogFileNames,
+				new FileSystemLogStore(100, 2, 2, 9, logFolder).getReversedOrderedArchivedLogFileNames());
+
+	}
+
+	@Test
+	public void testTimeIndexQuery() throws Exception {
+
+		File logFolder = temporaryFolder.newFolder();
+		FileSystemLogStore logStore = new FileSystemLogStore(1024 * 1024, 10, 0, -1, 0, RotationPeriod.NONE, 2,
+				logFolder);
+		FileSystemLogEventWriter writer = new FileSystemLogEventWriter(logStore, new PatternLayout("%m%n"));
+
+		long timeMillis = System.currentTimeMillis() + 60 * 1000;
+
+		for (int i = 0; i < 10; i++) {
+
+			writer.write(new LogEvent(LogLevel.INFO, FileSystemLogStoreTest.class, new Date(timeMillis + i * 1000),
+					"main", "m" + i));
+
+		}
+
+		writer.stop();
+
+		// One entry every 2 events, from the second one
+		String logFileName = logStore.getOrderedLogFileNames().get(0);
+		Assert.assertEquals(5 * FileSystemLogStore.INDEX_ENTRY_SIZE,
+				new File(logFolder, LogFileNameUtil.getIndexFileName(logFileName)).length());
+
+		// Time indexes count in the byte budget, also when read back
+		long totalSize = new File(logFolder, logFileName).length() + 5 * FileSystemLogStore.INDEX_ENTRY_SIZE;
+		Assert.assertEquals(totalSize, logStore.getTotalSize());
+		Assert.assertEquals(totalSize, new FileSystemLogStore(1024 * 1024, 10, logFolder).getTotalSize());
+
+		// Rounded to the entries around the range
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		logStore.query(timeMillis + 4000, timeMillis + 6000, Channels.newChannel(outputStream));
+		Assert.assertEquals("m3\nm4\nm5\nm6\n", new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+
+		// A new store reads the same index
+		outputStream.reset();
+		new FileSystemLogStore(1024 * 1024, 10, logFolder).query(timeMillis + 8500, Long.MAX_VALUE,
+				Channels.newChannel(outputStream));
+		Assert.assertEquals("m7\nm8\nm9\n", new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+
+		// The index goes with the log file
+		logStore.deleteLogFile(logFileName);
+		Assert.assertEquals(0, logFolder.list().length);
+		Assert.assertEquals(0, logStore.getTotalSize());
+
+	}
+
+	private static LogEvent newLogEvent() {
+
+		return newLogEvent(System.currentTimeMillis());
+
+	}
+
+	private static LogEvent newLogEvent(long timeMillis) {
+
+		return new LogEvent(LogLevel.INFO, FileSystemLogStoreTest.class, new Date(timeMillis), "main",
+				"a line of thirty characters.");
+
+	}
+
+}
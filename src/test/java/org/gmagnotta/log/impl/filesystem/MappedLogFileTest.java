@@ -0,0 +1,53 @@
+package org.gmagnotta.log.impl.filesystem;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedLogFileTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testRemapWithinBatch() throws Exception {
+
+		File logFile = temporaryFolder.newFile();
+		FileChannel fileChannel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		MappedLogFile mappedLogFile = new MappedLogFile(fileChannel, 1024);
+		long preallocated = logFile.length();
+
+		// One batch filling the first region and going past it
+		byte[] first = new byte[(int) preallocated - 10];
+		Arrays.fill(first, (byte) 'a');
+		byte[] second = new byte[100];
+		Arrays.fill(second, (byte) 'b');
+
+		mappedLogFile.write(ByteBuffer.wrap(first));
+		mappedLogFile.write(ByteBuffer.wrap(second));
+		mappedLogFile.force();
+
+		Assert.assertTrue(logFile.length() > preallocated);
+
+		byte[] content = Files.readAllBytes(logFile.toPath());
+		Assert.assertEquals('a', content[first.length - 1]);
+		Assert.assertEquals('b', content[first.length]);
+		Assert.assertEquals('b', content[first.length + second.length - 1]);
+
+		mappedLogFile.close();
+
+		Assert.assertEquals(first.length + second.length, logFile.length());
+
+	}
+
+}
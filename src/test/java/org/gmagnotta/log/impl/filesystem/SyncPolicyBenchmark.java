@@ -0,0 +1,84 @@
+package org.gmagnotta.log.impl.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.gmagnotta.log.LogEvent;
+import org.gmagnotta.log.LogLevel;
+import org.gmagnotta.log.impl.layout.DefaultLayout;
+
+/**
+ * Measures write throughput of {@link FileSystemLogEventWriter} under each
+ * {@link SyncPolicy}, in batches like the ones handed by the writer lane.
+ * Results depend heavily on the storage: run it on the target device, passing
+ * the log folder as first argument
+ */
+public class SyncPolicyBenchmark {
+
+	private static final int EVENTS = 200000;
+	private static final int BATCH_SIZE = 64;
+
+	public static void main(String[] args) throws IOException {
+
+		File baseFolder = args.length > 0 ? new File(args[0]) : Files.createTempDirectory("sync-benchmark").toFile();
+
+		// One ERROR every 1000 events
+		List<List<LogEvent>> batches = new ArrayList<>();
+		List<LogEvent> batch = new ArrayList<>();
+
+		for (int i = 0; i < EVENTS; i++) {
+
+			LogLevel logLevel = i % 1000 == 0 ? LogLevel.ERROR : LogLevel.INFO;
+
+			batch.add(new LogEvent(logLevel, SyncPolicyBenchmark.class, new Date(), "main",
+					"Processed order " + i + " of customer ACME"));
+
+			if (batch.size() == BATCH_SIZE) {
+				batches.add(batch);
+				batch = new ArrayList<>();
+			}
+
+		}
+
+		run(baseFolder, "none", SyncPolicy.none(), batches);
+		run(baseFolder, "interval(1000)", SyncPolicy.interval(1000), batches);
+		run(baseFolder, "interval(100)", SyncPolicy.interval(100), batches);
+		run(baseFolder, "onLevel(ERROR)", SyncPolicy.onLevel(LogLevel.ERROR), batches);
+		run(baseFolder, "everyBatch", SyncPolicy.everyBatch(), batches);
+
+	}
+
+	private static void run(File baseFolder, String name, SyncPolicy syncPolicy, List<List<LogEvent>> batches)
+			throws IOException {
+
+		File logFolder = new File(baseFolder, name);
+
+		if (!logFolder.mkdirs()) {
+			throw new IOException("can't create " + logFolder);
+		}
+
+		FileSystemLogStore logStore = new FileSystemLogStore(Integer.MAX_VALUE, 10, logFolder);
+		FileSystemLogEventWriter writer = new FileSystemLogEventWriter(logStore, new DefaultLayout(),
+				FlushPolicy.EVERY_BATCH, syncPolicy);
+
+		long start = System.nanoTime();
+
+		for (List<LogEvent> batch : batches) {
+
+			writer.write(batch);
+
+		}
+
+		writer.stop();
+
+		long elapsed = System.nanoTime() - start;
+
+		System.out.printf("%-16s %10.0f events/s%n", name, EVENTS * 1e9 / elapsed);
+
+	}
+
+}
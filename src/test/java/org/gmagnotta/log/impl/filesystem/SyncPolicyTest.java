@@ -0,0 +1,39 @@
+package org.gmagnotta.log.impl.filesystem;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.gmagnotta.log.LogEvent;
+import org.gmagnotta.log.LogLevel;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SyncPolicyTest {
+
+	@Test
+	public void testPolicies() {
+
+		List<LogEvent> infoBatch = Arrays.asList(newLogEvent(LogLevel.INFO), newLogEvent(LogLevel.DEBUG));
+		List<LogEvent> errorBatch = Arrays.asList(newLogEvent(LogLevel.INFO), newLogEvent(LogLevel.ERROR));
+
+		Assert.assertFalse(SyncPolicy.none().isSyncNeeded(errorBatch, Long.MAX_VALUE));
+		Assert.assertTrue(SyncPolicy.everyBatch().isSyncNeeded(infoBatch, 0));
+
+		Assert.assertFalse(SyncPolicy.interval(100).isSyncNeeded(infoBatch, 99));
+		Assert.assertTrue(SyncPolicy.interval(100).isSyncNeeded(infoBatch, 100));
+		Assert.assertEquals(100, SyncPolicy.interval(100).getMaxUnforcedMillis());
+		Assert.assertEquals(-1, SyncPolicy.everyBatch().getMaxUnforcedMillis());
+
+		Assert.assertFalse(SyncPolicy.onLevel(LogLevel.ERROR).isSyncNeeded(infoBatch, 0));
+		Assert.assertTrue(SyncPolicy.onLevel(LogLevel.ERROR).isSyncNeeded(errorBatch, 0));
+
+	}
+
+	private static LogEvent newLogEvent(LogLevel logLevel) {
+
+		return new LogEvent(logLevel, SyncPolicyTest.class, new Date(), "main", "message");
+
+	}
+
+}
@@ -0,0 +1,90 @@
+package org.gmagnotta.log.impl.layout;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Compares the cost of formatting the timestamp of a line with a
+ * {@link SimpleDateFormat} created per event, a reused one and
+ * {@link CachedDateFormatter}.<br>
+ * Run it from the IDE or with java -cp
+ */
+public class CachedDateFormatterBenchmark {
+
+	private static final int EVENTS = 2000000;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+
+		for (int round = 0; round < ROUNDS; round++) {
+
+			System.out.println("Round " + (round + 1));
+
+			run("new SimpleDateFormat per event", new Formatter() {
+
+				@Override
+				public void format(long timeMillis, StringBuilder buf) {
+					buf.append(new SimpleDateFormat(DefaultLayout.DEFAULT_DATE_FORMAT).format(new Date(timeMillis)));
+				}
+
+			});
+
+			final DateFormat dateFormat = new SimpleDateFormat(DefaultLayout.DEFAULT_DATE_FORMAT);
+			final Date date = new Date();
+
+			run("reused SimpleDateFormat", new Formatter() {
+
+				@Override
+				public void format(long timeMillis, StringBuilder buf) {
+					date.setTime(timeMillis);
+					buf.append(dateFormat.format(date));
+				}
+
+			});
+
+			final CachedDateFormatter cachedDateFormatter = new CachedDateFormatter(DefaultLayout.DEFAULT_DATE_FORMAT);
+
+			run("CachedDateFormatter", new Formatter() {
+
+				@Override
+				public void format(long timeMillis, StringBuilder buf) {
+					cachedDateFormatter.format(timeMillis, buf);
+				}
+
+			});
+
+		}
+
+	}
+
+	private static void run(String name, Formatter formatter) {
+
+		StringBuilder buf = new StringBuilder(64);
+		long timeMillis = System.currentTimeMillis();
+		long checksum = 0;
+
+		long start = System.nanoTime();
+
+		for (int i = 0; i < EVENTS; i++) {
+
+			// About 10000 events per second of log time
+			buf.setLength(0);
+			formatter.format(timeMillis + i / 10, buf);
+			checksum += buf.length();
+
+		}
+
+		long elapsed = System.nanoTime() - start;
+
+		System.out.printf("  %-32s %8.1f ns/event (%d)%n", name, (double) elapsed / EVENTS, checksum);
+
+	}
+
+	private interface Formatter {
+
+		public void format(long timeMillis, StringBuilder buf);
+
+	}
+
+}
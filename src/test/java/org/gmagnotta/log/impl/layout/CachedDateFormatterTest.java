@@ -0,0 +1,47 @@
+package org.gmagnotta.log.impl.layout;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CachedDateFormatterTest {
+
+	private static final String[] DATE_FORMATS = { DefaultLayout.DEFAULT_DATE_FORMAT, "yyyy-MM-dd'T'HH:mm:ss,SSSZ",
+			"HH:mm:ss", "dd MMMM yyyy HH:mm:ss.S", "SSS 'SSS' ss" };
+
+	@Test
+	public void testMatchesSimpleDateFormat() {
+
+		TimeZone timeZone = TimeZone.getTimeZone("Europe/Rome");
+		Random random = new Random(42);
+		StringBuilder buf = new StringBuilder();
+
+		for (String dateFormat : DATE_FORMATS) {
+
+			CachedDateFormatter cachedDateFormatter = new CachedDateFormatter(dateFormat, timeZone);
+			SimpleDateFormat simpleDateFormat = new SimpleDateFormat(dateFormat);
+			simpleDateFormat.setTimeZone(timeZone);
+
+			long timeMillis = 1540000000000L;
+
+			for (int i = 0; i < 10000; i++) {
+
+				// Mostly within the same second, sometimes across seconds and days
+				timeMillis += random.nextInt(10) == 0 ? random.nextInt(100000000) : random.nextInt(50);
+
+				buf.setLength(0);
+				cachedDateFormatter.format(timeMillis, buf);
+
+				Assert.assertEquals(simpleDateFormat.format(new Date(timeMillis)), buf.toString());
+
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,42 @@
+package org.gmagnotta.log.impl.layout;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.gmagnotta.log.LogEvent;
+import org.gmagnotta.log.LogLevel;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DefaultLayoutTest {
+
+	@Test
+	public void testEncodeThroughSmallBuffer() throws Exception {
+
+		Date date = new Date();
+
+		LogEvent logEvent = new LogEvent(LogEvent.UNSET_MARKER, LogLevel.INFO, "org.example.Source", date, "main",
+				"café {} of {}", new Object[] { 1, "€" }, null);
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		// Lines don't fit in the buffer, so it is drained several times
+		OutputStreamByteBufferDestination destination = new OutputStreamByteBufferDestination(7);
+		destination.setOutputStream(outputStream);
+
+		DefaultLayout layout = new DefaultLayout(DefaultLayout.DEFAULT_DATE_FORMAT, true, StandardCharsets.UTF_8);
+
+		layout.encode(logEvent, destination);
+		layout.encode(logEvent, destination);
+		destination.flush();
+
+		String line = new SimpleDateFormat(DefaultLayout.DEFAULT_DATE_FORMAT).format(date)
+				+ " main [INFO] org.example.Source café 1 of € " + System.lineSeparator();
+
+		Assert.assertEquals(line + line, new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+
+	}
+
+}
@@ -0,0 +1,132 @@
+package org.gmagnotta.log.impl.layout;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.gmagnotta.log.LogEvent;
+import org.gmagnotta.log.LogLevel;
+
+/**
+ * Compares {@link PatternLayout} with the line formatting that
+ * FileSystemSpooler.write used before layouts: a SimpleDateFormat and a
+ * StringBuilder per event, printed through an autoflushing PrintWriter.<br>
+ * Both write the same bytes to a discarding stream. Run it from the IDE or
+ * with java -cp
+ */
+public class PatternLayoutBenchmark {
+
+	private static final int EVENTS = 1000000;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException {
+
+		LogEvent[] logEvents = new LogEvent[1000];
+		long timeMillis = System.currentTimeMillis();
+
+		for (int i = 0; i < logEvents.length; i++) {
+
+			logEvents[i] = new LogEvent(LogEvent.UNSET_MARKER, LogLevel.INFO, PatternLayoutBenchmark.class.getName(),
+					new Date(timeMillis + i), "main", "Processed order {} of customer {}", new Object[] { i, "ACME" },
+					null);
+
+		}
+
+		for (int round = 0; round < ROUNDS; round++) {
+
+			System.out.println("Round " + (round + 1));
+
+			CountingOutputStream legacyOutputStream = new CountingOutputStream();
+			PrintWriter printWriter = new PrintWriter(legacyOutputStream, true);
+
+			long start = System.nanoTime();
+
+			for (int i = 0; i < EVENTS; i++) {
+
+				writeLegacy(logEvents[i % logEvents.length], printWriter);
+
+			}
+
+			report("legacy FileSystemSpooler.write", System.nanoTime() - start, legacyOutputStream.count);
+
+			CountingOutputStream layoutOutputStream = new CountingOutputStream();
+			OutputStreamByteBufferDestination destination = new OutputStreamByteBufferDestination();
+			destination.setOutputStream(layoutOutputStream);
+			PatternLayout patternLayout = new PatternLayout();
+
+			start = System.nanoTime();
+
+			for (int i = 0; i < EVENTS; i++) {
+
+				patternLayout.encode(logEvents[i % logEvents.length], destination);
+
+			}
+
+			destination.flush();
+
+			report("PatternLayout", System.nanoTime() - start, layoutOutputStream.count);
+
+		}
+
+	}
+
+	private static void writeLegacy(LogEvent log, PrintWriter printWriter) {
+
+		StringBuilder buf = new StringBuilder();
+
+		buf.append(new SimpleDateFormat(DefaultLayout.DEFAULT_DATE_FORMAT).format(log.getDate()));
+		buf.append(' ');
+		buf.append(log.getThreadName());
+		buf.append(' ');
+		buf.append('[');
+		buf.append(log.getLogLevel().toString());
+		buf.append(']');
+		buf.append(' ');
+		buf.append(log.getSourceClass());
+		buf.append(' ');
+		buf.append(renderMessage(log));
+		buf.append(' ');
+
+		printWriter.println(buf);
+		printWriter.flush();
+
+	}
+
+	private static void report(String name, long elapsed, long bytes) {
+
+		System.out.printf("  %-32s %8.1f ns/event (%d bytes)%n", name, (double) elapsed / EVENTS, bytes);
+
+	}
+
+	/**
+	 * Render the message without caching it in the event, so every round
+	 * pays for it
+	 */
+	private static String renderMessage(LogEvent log) {
+
+		StringBuilder buf = new StringBuilder();
+		log.appendMessage(buf);
+
+		return buf.toString();
+
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+
+	}
+
+}
@@ -0,0 +1,58 @@
+package org.gmagnotta.log.impl.layout;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.gmagnotta.log.Layout;
+import org.gmagnotta.log.LogEvent;
+import org.gmagnotta.log.LogLevel;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PatternLayoutTest {
+
+	@Test
+	public void testDefaultPatternMatchesDefaultLayout() throws Exception {
+
+		LogEvent logEvent = new LogEvent("MARKER", LogLevel.ERROR, "org.example.Source", new Date(), "main",
+				"failed {}", new Object[] { 42 }, new IllegalStateException("boom"));
+
+		Assert.assertEquals(encode(new DefaultLayout(), logEvent), encode(new PatternLayout(), logEvent));
+
+	}
+
+	@Test
+	public void testConversions() throws Exception {
+
+		LogEvent logEvent = new LogEvent("MARKER", LogLevel.INFO, "org.example.Source", new Date(0), "main",
+				"hello", null, null);
+
+		PatternLayout patternLayout = new PatternLayout("%marker|%p|%c|%t|%m|%ex|100%%", StandardCharsets.UTF_8);
+
+		Assert.assertEquals("MARKER|INFO|org.example.Source|main|hello||100%", encode(patternLayout, logEvent));
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownConversion() {
+
+		new PatternLayout("%d %q");
+
+	}
+
+	private static String encode(Layout layout, LogEvent logEvent) throws Exception {
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		OutputStreamByteBufferDestination destination = new OutputStreamByteBufferDestination(64);
+		destination.setOutputStream(outputStream);
+
+		layout.encode(logEvent, destination);
+		destination.flush();
+
+		return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+
+	}
+
+}